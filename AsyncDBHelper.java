@@ -0,0 +1,143 @@
+package oakdonuts;
+
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+import oakdonuts.utils.TaskExecutors;
+
+import javax.swing.*;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Header: AsyncDBHelper.java
+ * Non-blocking front for DBHelper: every call runs on a background executor
+ * and returns a CompletableFuture, so Swing handlers never wait on Derby.
+ *
+ * Chain UI updates with the EDT executor, e.g.
+ * {@code db.getAllOrders().thenAcceptAsync(this::showOrders, AsyncDBHelper.EDT)}.
+ * Failures complete the future exceptionally with the original SQLException
+ * wrapped in a CompletionException.
+ *
+ * The helper may still be starting (see MainApp): calls made before then
+ * are queued and run once it is up, or fail with the startup error.
+ */
+public class AsyncDBHelper {
+    /** Runs continuations on the Swing Event Dispatch Thread */
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    /** A unit of database work */
+    public interface SqlTask<T> {
+        T call() throws SQLException;
+    }
+
+    private final CompletableFuture<DBHelper> ready;
+    private final ExecutorService executor;
+
+    /** Executor threads are capped at the connection pool size when virtual threads are unavailable */
+    public AsyncDBHelper(DBHelper db) {
+        this(CompletableFuture.completedFuture(db));
+    }
+
+    public AsyncDBHelper(DBHelper db, ExecutorService executor) {
+        this(CompletableFuture.completedFuture(db), executor);
+    }
+
+    /** Front for a helper that is still starting; completes with it once it is up */
+    public AsyncDBHelper(CompletableFuture<DBHelper> starting) {
+        this(starting, TaskExecutors.newTaskExecutor("db-async", DBHelper.DEFAULT_POOL_SIZE));
+    }
+
+    public AsyncDBHelper(CompletableFuture<DBHelper> starting, ExecutorService executor) {
+        this.ready = starting;
+        this.executor = executor;
+    }
+
+    /** The wrapped synchronous helper (for use inside submit tasks, which only run once it is up) */
+    public DBHelper sync() { return ready.join(); }
+
+    /** Run arbitrary DB work in the background */
+    public <T> CompletableFuture<T> submit(SqlTask<T> task) {
+        return ready.thenApplyAsync(db -> {
+            try {
+                return task.call();
+            } catch (SQLException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /* ------------------ Menu Items ------------------ */
+
+    public CompletableFuture<List<MenuItem>> getAllMenuItems() { return submit(() -> sync().getAllMenuItems()); }
+
+    public CompletableFuture<Void> insertMenuItem(MenuItem m) {
+        return submit(() -> { sync().insertMenuItem(m); return null; });
+    }
+
+    public CompletableFuture<Void> updateMenuItem(MenuItem m) {
+        return submit(() -> { sync().updateMenuItem(m); return null; });
+    }
+
+    public CompletableFuture<Void> deleteMenuItem(int itemId) {
+        return submit(() -> { sync().deleteMenuItem(itemId); return null; });
+    }
+
+    /* ------------------ Orders ------------------ */
+
+    public CompletableFuture<Order> saveOrder(Order order) {
+        return submit(() -> { sync().saveOrder(order); return order; });
+    }
+
+    public CompletableFuture<Void> deleteOrder(int orderId) {
+        return submit(() -> { sync().deleteOrder(orderId); return null; });
+    }
+
+    public CompletableFuture<List<Order>> getAllOrders() { return submit(() -> sync().getAllOrders()); }
+
+    public CompletableFuture<List<Order>> getOrdersPage(Order after, int limit) {
+        return submit(() -> sync().getOrdersPage(after, limit));
+    }
+
+    public CompletableFuture<List<OrderItem>> getOrderItems(int orderId) {
+        return submit(() -> sync().getOrderItems(orderId));
+    }
+
+    /** Completes with null if there is no such order */
+    public CompletableFuture<Order> getOrder(int orderId) { return submit(() -> sync().getOrder(orderId)); }
+
+    /** Completes with null if there is no such order */
+    public CompletableFuture<Order> getOrderByTransactionId(String transactionId) {
+        return submit(() -> sync().getOrderByTransactionId(transactionId));
+    }
+
+    public CompletableFuture<List<Order>> getOrders(Collection<Integer> orderIds) {
+        return submit(() -> sync().getOrders(orderIds));
+    }
+
+    public CompletableFuture<List<Order>> getOrders(Timestamp from, Timestamp to) {
+        return submit(() -> sync().getOrders(from, to));
+    }
+
+    public CompletableFuture<String> generateNextTransactionId() { return submit(() -> sync().generateNextTransactionId()); }
+
+    /** Stop accepting work; queued tasks still finish */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /** Unwrap CompletionException/ExecutionException layers to the real cause */
+    public static Throwable rootCause(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof java.util.concurrent.ExecutionException)
+                && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+}
@@ -0,0 +1,519 @@
+package oakdonuts;
+
+import oakdonuts.metrics.Metrics;
+import oakdonuts.metrics.OperationStats;
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.utils.TaskExecutors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Header: BackupManager.java
+ * Online backups of the store database while registers keep selling.
+ *
+ * A backup set is a directory under the backup root, named by the time it
+ * was taken: Derby's own online copy of the database
+ * (SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE_NOWAIT) plus a log
+ * directory the transaction log is shipped to afterwards. Restoring rolls
+ * the copy forward through the shipped log, so a set recovers every order
+ * up to the last shipping run, not just up to the copy.
+ *
+ * Derby's copy cannot be throttled, so scheduled copies wait for a quiet
+ * spell without order or menu writes (up to a limit). Log shipping is a
+ * plain file copy capped at a configurable rate. Each shipping run also
+ * writes a manifest into the set: the live order count, highest order id
+ * and order total just before the log was copied. verify() restores a set
+ * into a scratch directory, reconciles its orders, lines and sales rollups,
+ * and checks that it holds every order the manifest counted.
+ */
+public class BackupManager implements DataChangeListener, AutoCloseable {
+    public static final long DEFAULT_COPY_BYTES_PER_SECOND = 8L << 20;
+    /** Backup sets kept by default; older ones are deleted after a new copy */
+    public static final int DEFAULT_KEEP = 7;
+    /** No writes for this long counts as quiet */
+    static final long QUIET_MILLIS = 30_000;
+    /** A scheduled copy waits at most this long for a quiet spell */
+    static final long MAX_DEFER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final OperationStats BACKUP = Metrics.global().stats("db.backup");
+    private static final OperationStats SHIP_LOGS = Metrics.global().stats("db.shipLogs");
+
+    private static final DateTimeFormatter SET_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String LOG_DIR = "log";
+    private static final String MANIFEST = "manifest.properties";
+    /** Orders as "o" (order_id, order_date, total), live and archived */
+    private static final String ALL_ORDERS = "(SELECT order_id, order_date, total FROM orders " +
+        "UNION ALL SELECT order_id, order_date, total FROM orders_archive) o";
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final DBHelper db;
+    private final Path root;
+    private final long copyBytesPerSecond;
+    private final int keep;
+    /** System.nanoTime() of the last committed write */
+    private volatile long lastWriteNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS);
+    /** Set whose log directory shipping fills; null before the first copy */
+    private Path currentSet;
+    /** Log file that was still being written at the last shipping run into currentSet */
+    private Path lastNewest;
+    private ScheduledExecutorService scheduler;
+
+    public BackupManager(DBHelper db, Path root) {
+        this(db, root, DEFAULT_COPY_BYTES_PER_SECOND, DEFAULT_KEEP);
+    }
+
+    /**
+     * @param copyBytesPerSecond cap for log shipping
+     * @param keep               newest backup sets to keep
+     */
+    public BackupManager(DBHelper db, Path root, long copyBytesPerSecond, int keep) {
+        if (copyBytesPerSecond <= 0) throw new IllegalArgumentException("copy rate must be positive: " + copyBytesPerSecond);
+        if (keep <= 0) throw new IllegalArgumentException("must keep at least one backup: " + keep);
+        this.db = db;
+        this.root = root.toAbsolutePath();
+        this.copyBytesPerSecond = copyBytesPerSecond;
+        this.keep = keep;
+        db.addChangeListener(this);
+    }
+
+    /* ------------------ Backing up ------------------ */
+
+    /**
+     * Take a new backup set now and switch log shipping to it. Fails
+     * instead of waiting if Derby is running an unlogged operation (e.g. an
+     * index build); try again later.
+     * @return the new set's directory
+     */
+    public synchronized Path backupNow() throws SQLException {
+        return BACKUP.time(() -> {
+            Path set = root.resolve(LocalDateTime.now().format(SET_NAME));
+            try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+                // archived log files before this copy are deleted from the live database
+                PreparedStatement backup = pc.prepare(
+                    "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE_NOWAIT(?, 1)");
+                backup.setString(1, set.toString());
+                backup.execute();
+            }
+            currentSet = set;
+            lastNewest = null;
+            shipLogs();
+            deleteOldSets();
+            return set;
+        });
+    }
+
+    /**
+     * Copy the live transaction log files the current set does not have up
+     * to date yet, at most copyBytesPerSecond, then record the manifest.
+     * @return the number of files copied; 0 before the first backup
+     */
+    public synchronized int shipLogs() throws SQLException {
+        if (currentSet == null) return 0;
+        return SHIP_LOGS.time(() -> {
+            Path from = liveDirectory().resolve(LOG_DIR);
+            Path to = currentSet.resolve(LOG_DIR);
+            // taken before the copy: every order counted is committed, so in the log copied below
+            Properties manifest = liveManifest();
+            int copied = 0;
+            try {
+                Files.createDirectories(to);
+                List<Path> logs = new ArrayList<>();
+                try (DirectoryStream<Path> dir = Files.newDirectoryStream(from, "log*.dat")) {
+                    for (Path log : dir) logs.add(log);
+                }
+                logs.sort(Comparator.comparingLong(BackupManager::logNumber));
+                Path newest = logs.isEmpty() ? null : logs.get(logs.size() - 1);
+                for (Path log : logs) {
+                    Path target = to.resolve(log.getFileName());
+                    // the newest file is still being written (at a preallocated size, so its size
+                    // says little) and goes every time; the one that was newest last time goes
+                    // once more, as Derby finished it after that copy; any other file only if it
+                    // is missing or changed since it was shipped
+                    boolean current = log.equals(newest) || log.getFileName().equals(lastNewest);
+                    FileTime modified = Files.getLastModifiedTime(log);
+                    if (!current && Files.exists(target) && Files.size(target) == Files.size(log)
+                            && Files.getLastModifiedTime(target).equals(modified)) {
+                        continue;
+                    }
+                    copyThrottled(log, target);
+                    Files.setLastModifiedTime(target, modified);
+                    copied++;
+                }
+                lastNewest = newest != null ? newest.getFileName() : null;
+                writeManifest(currentSet, manifest);
+            } catch (IOException ex) {
+                throw new SQLException("Cannot ship transaction log to " + to, ex);
+            }
+            return copied;
+        });
+    }
+
+    /** Order count, highest order id and total of the live database, archive included */
+    private Properties liveManifest() throws SQLException {
+        Properties p = new Properties();
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow();
+             ResultSet rs = pc.prepare("SELECT COUNT(*), COALESCE(MAX(order_id), 0), COALESCE(SUM(total), 0) FROM " +
+                 ALL_ORDERS).executeQuery()) {
+            rs.next();
+            p.setProperty("orders", Long.toString(rs.getLong(1)));
+            p.setProperty("maxOrderId", Long.toString(rs.getLong(2)));
+            p.setProperty("totalCents", Long.toString(Money.of(rs.getBigDecimal(3)).getCents()));
+        }
+        p.setProperty("shippedAt", LocalDateTime.now().toString());
+        return p;
+    }
+
+    private static void writeManifest(Path set, Properties manifest) throws IOException {
+        Path partial = set.resolve(MANIFEST + ".part");
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            manifest.store(out, "Live database as of the last log shipping run");
+        }
+        Files.move(partial, set.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Take a copy once per copyInterval (the first right away) and ship the
+     * log once per shipInterval, on daemon threads. Copies wait for a quiet
+     * spell first. Replaces an earlier schedule.
+     */
+    public synchronized void start(long copyInterval, long shipInterval, TimeUnit unit) {
+        if (copyInterval <= 0 || shipInterval <= 0) throw new IllegalArgumentException("intervals must be positive");
+        close();
+        // two threads: shipping goes on while a copy waits for a quiet spell
+        scheduler = Executors.newScheduledThreadPool(2, TaskExecutors.daemonThreads("db-backup"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                awaitQuiet();
+                backupNow();
+            } catch (SQLException | RuntimeException ex) {
+                // an exception would cancel all further runs; shipping goes on into the previous set
+                System.err.println("Database backup failed: " + ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0, copyInterval, unit);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                shipLogs();
+            } catch (SQLException | RuntimeException ex) {
+                System.err.println("Transaction log shipping failed: " + ex);
+            }
+        }, shipInterval, shipInterval, unit);
+    }
+
+    /** Stop the schedule; a copy in progress finishes */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void menuItemSaved(MenuItem item) { lastWriteNanos = System.nanoTime(); }
+
+    @Override
+    public void menuItemDeleted(int itemId) { lastWriteNanos = System.nanoTime(); }
+
+    @Override
+    public void orderSaved(Order order) { lastWriteNanos = System.nanoTime(); }
+
+    @Override
+    public void orderDeleted(int orderId) { lastWriteNanos = System.nanoTime(); }
+
+    private void awaitQuiet() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DEFER_MILLIS);
+        long quiet = TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS);
+        while (System.nanoTime() - lastWriteNanos < quiet && System.nanoTime() < deadline) {
+            Thread.sleep(1000);
+        }
+    }
+
+    /** Directory of the live database (Derby reports its absolute path) */
+    private Path liveDirectory() throws SQLException {
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow();
+             ResultSet rs = pc.prepare("VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_NAME()").executeQuery()) {
+            rs.next();
+            return Paths.get(rs.getString(1));
+        }
+    }
+
+    /** N of logN.dat */
+    private static long logNumber(Path log) {
+        String name = log.getFileName().toString();
+        return Long.parseLong(name.substring("log".length(), name.length() - ".dat".length()));
+    }
+
+    private void copyThrottled(Path from, Path to) throws IOException {
+        Path partial = to.resolveSibling(to.getFileName() + ".part");
+        long start = System.nanoTime();
+        long bytes = 0;
+        byte[] buf = new byte[COPY_CHUNK];
+        try (InputStream in = Files.newInputStream(from); OutputStream out = Files.newOutputStream(partial)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                bytes += n;
+                // sleep off whatever is ahead of the allowed rate
+                long aheadNanos = bytes * 1_000_000_000L / copyBytesPerSecond - (System.nanoTime() - start);
+                if (aheadNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while copying " + from, ex);
+                    }
+                }
+            }
+        }
+        Files.move(partial, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteOldSets() {
+        List<Path> sets = listSets(root);
+        for (int i = 0; i < sets.size() - keep; i++) {
+            try {
+                deleteRecursively(sets.get(i));
+            } catch (IOException ex) {
+                System.err.println("Could not delete old backup " + sets.get(i) + ": " + ex);
+            }
+        }
+    }
+
+    /** Backup sets under root, oldest first */
+    static List<Path> listSets(Path root) {
+        List<Path> sets = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (Path d : dirs) {
+                if (Files.isDirectory(d) && d.getFileName().toString().matches("\\d{8}-\\d{6}")) sets.add(d);
+            }
+        } catch (IOException ex) {
+            return sets; // no root yet: no sets
+        }
+        sets.sort(Comparator.comparing(Path::getFileName));
+        return sets;
+    }
+
+    /* ------------------ Restoring and verifying ------------------ */
+
+    /**
+     * Recreate a database at target from a backup set, rolled forward
+     * through its shipped log. Target must not exist.
+     */
+    public static void restore(Path set, Path target) throws SQLException {
+        if (Files.exists(target)) throw new SQLException("Restore target already exists: " + target);
+        Path copy = databaseCopy(set);
+        Path shipped = set.resolve(LOG_DIR);
+        String url;
+        try {
+            if (Files.isDirectory(shipped)) {
+                // roll-forward reads the log from the new database's own log directory
+                Path log = Files.createDirectories(target).resolve(LOG_DIR);
+                Files.createDirectories(log);
+                try (DirectoryStream<Path> logs = Files.newDirectoryStream(shipped, "log*.dat")) {
+                    for (Path f : logs) Files.copy(f, log.resolve(f.getFileName()));
+                }
+                url = "jdbc:derby:" + target.toAbsolutePath() + ";rollForwardRecoveryFrom=" + copy.toAbsolutePath();
+            } else {
+                url = "jdbc:derby:" + target.toAbsolutePath() + ";createFrom=" + copy.toAbsolutePath();
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Cannot prepare restore into " + target, ex);
+        }
+        DriverManager.getConnection(url).close();
+        shutdown(target);
+    }
+
+    /** Result of verify(); consistent when nothing disagrees */
+    public static final class Verification {
+        private final Path set;
+        private final long[] v;
+
+        Verification(Path set, long[] v) {
+            this.set = set;
+            this.v = v;
+        }
+
+        public Path getSet() { return set; }
+
+        /** Orders, live and archived */
+        public long getOrders() { return v[0]; }
+
+        public long getLines() { return v[1]; }
+
+        public Money getTotal() { return Money.ofCents(v[2]); }
+
+        /** Orders whose stored total differs from the sum of their lines */
+        public long getTotalMismatches() { return v[3]; }
+
+        public long getDatedOrders() { return v[4]; }
+
+        public Money getDatedTotal() { return Money.ofCents(v[5]); }
+
+        /** Orders according to the daily rollup, which counts dated orders only */
+        public long getRollupOrders() { return v[6]; }
+
+        public Money getRollupTotal() { return Money.ofCents(v[7]); }
+
+        /** False for sets shipped before manifests were written: the manifest checks are skipped */
+        public boolean hasManifest() { return v[8] >= 0; }
+
+        /** Orders the live database had at the last shipping run */
+        public long getManifestOrders() { return v[8]; }
+
+        public long getManifestMaxOrderId() { return v[9]; }
+
+        public Money getManifestTotal() { return Money.ofCents(v[10]); }
+
+        /** Restored orders with ids up to the manifest's highest */
+        public long getShippedOrders() { return v[11]; }
+
+        public Money getShippedTotal() { return Money.ofCents(v[12]); }
+
+        public long getMaxOrderId() { return v[13]; }
+
+        /** The restored set holds what the manifest counted */
+        public boolean isComplete() {
+            return !hasManifest() || (v[13] >= v[9] && v[11] == v[8] && v[12] == v[10]);
+        }
+
+        public boolean isConsistent() {
+            return v[3] == 0 && v[4] == v[6] && v[5] == v[7] && isComplete();
+        }
+
+        @Override
+        public String toString() {
+            return "Backup " + set + ": " + v[0] + " orders, " + v[1] + " lines, $" + getTotal()
+                + "; " + v[3] + " orders not matching their lines; daily rollups " + v[6] + " orders, $"
+                + getRollupTotal() + " for " + v[4] + " dated orders, $" + getDatedTotal()
+                + (hasManifest() ? "; shipped " + v[8] + " orders up to id " + v[9] + ", $" + getManifestTotal()
+                    + ", restored " + v[11] + " up to id " + v[13] + ", $" + getShippedTotal() : "; no manifest")
+                + (isConsistent() ? " - OK" : " - INCONSISTENT");
+        }
+    }
+
+    /**
+     * Restore a set into a scratch directory and reconcile it: order
+     * headers against their lines, orders against the daily rollups, and
+     * the orders up to the manifest's highest id against the manifest's
+     * count and total. An order edited or deleted while that shipping run
+     * copied the log shows up as a difference; ship again and re-verify.
+     * The scratch copy is removed afterwards.
+     */
+    public static Verification verify(Path set) throws SQLException {
+        Path scratch;
+        try {
+            scratch = Files.createTempDirectory("oakdonuts-verify");
+        } catch (IOException ex) {
+            throw new SQLException("Cannot create a scratch directory", ex);
+        }
+        Path target = scratch.resolve("db");
+        try {
+            restore(set, target);
+            // orders, lines, total, mismatches, dated orders, dated total, rollup orders, rollup total,
+            // manifest orders, max id and total, restored orders and total up to that id, restored max id
+            long[] v = new long[14];
+            readManifest(set, v);
+            try (Connection conn = DriverManager.getConnection("jdbc:derby:" + target.toAbsolutePath());
+                 Statement st = conn.createStatement()) {
+                String orders = ALL_ORDERS;
+                String lines = "(SELECT order_id, line_price FROM order_items " +
+                    "UNION ALL SELECT order_id, line_price FROM order_items_archive) l";
+                query(st, "SELECT COUNT(*), COALESCE(SUM(total), 0) FROM " + orders, v, 0, 2);
+                query(st, "SELECT COUNT(*) FROM " + lines, v, 1);
+                query(st, "SELECT COUNT(*) FROM " + orders + " LEFT JOIN " +
+                    "(SELECT order_id, SUM(line_price) AS lines_total FROM " + lines + " GROUP BY order_id) s " +
+                    "ON s.order_id = o.order_id WHERE COALESCE(s.lines_total, 0) <> o.total", v, 3);
+                query(st, "SELECT COUNT(*), COALESCE(SUM(total), 0) FROM " + orders + " WHERE order_date IS NOT NULL", v, 4, 5);
+                query(st, "SELECT COALESCE(SUM(order_count), 0), COALESCE(SUM(revenue), 0) FROM sales_daily", v, 6, 7);
+                query(st, "SELECT COUNT(*), COALESCE(SUM(total), 0) FROM " + orders + " WHERE order_id <= " + v[9],
+                    v, 11, 12);
+                query(st, "SELECT COALESCE(MAX(order_id), 0) FROM " + orders, v, 13);
+            } finally {
+                shutdown(target);
+            }
+            return new Verification(set, v);
+        } finally {
+            try {
+                deleteRecursively(scratch);
+            } catch (IOException ex) {
+                System.err.println("Could not delete " + scratch + ": " + ex);
+            }
+        }
+    }
+
+    /** Manifest figures into v[8..10]; -1 orders if the set has no manifest */
+    private static void readManifest(Path set, long[] v) throws SQLException {
+        Path file = set.resolve(MANIFEST);
+        if (!Files.exists(file)) {
+            v[8] = -1;
+            return;
+        }
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+            v[8] = Long.parseLong(p.getProperty("orders"));
+            v[9] = Long.parseLong(p.getProperty("maxOrderId"));
+            v[10] = Long.parseLong(p.getProperty("totalCents"));
+        } catch (IOException | RuntimeException ex) {
+            throw new SQLException("Cannot read backup manifest " + file, ex);
+        }
+    }
+
+    /** Read one row into v at the given positions; DECIMAL sums are stored as cents */
+    private static void query(Statement st, String sql, long[] v, int... at) throws SQLException {
+        try (ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            for (int i = 0; i < at.length; i++) {
+                v[at[i]] = rs.getMetaData().getColumnType(i + 1) == Types.DECIMAL
+                    ? rs.getBigDecimal(i + 1).movePointRight(2).longValueExact()
+                    : rs.getLong(i + 1);
+            }
+        }
+    }
+
+    /** The database directory Derby wrote into a backup directory */
+    static Path databaseCopy(Path backup) throws SQLException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(backup)) {
+            for (Path d : dirs) {
+                if (Files.exists(d.resolve("service.properties"))) return d;
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Cannot read backup " + backup, ex);
+        }
+        throw new SQLException("No database copy in backup " + backup);
+    }
+
+    static void shutdown(Path database) {
+        try {
+            DriverManager.getConnection("jdbc:derby:" + database.toAbsolutePath() + ";shutdown=true");
+        } catch (SQLException ex) {
+            // 08006: shut down as asked
+            if (!"08006".equals(ex.getSQLState())) System.err.println("Could not shut down " + database + ": " + ex);
+        }
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package oakdonuts;
+
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
+import oakdonuts.utils.IntIntMap;
+import oakdonuts.utils.Json;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Header: BulkTransfer.java
+ * Streaming export and import of menu_items, orders and order_items as CSV
+ * or JSON lines, for migrating a store's history or seeding a new store.
+ *
+ * Export streams each table from a forward-only ResultSet straight to its
+ * file (menu_items.csv, orders.csv, order_items.csv or .jsonl), so memory
+ * use does not depend on the number of orders. Archived orders are written
+ * with the live ones, and OrderArchiver waits until the export is done.
+ * Live orders and lines are cut off at the highest order id seen when the
+ * export starts. Lines are written in order id order, so the lines of an
+ * order are next to each other.
+ *
+ * Import reads the files row by row: headers are inserted one by one (Derby
+ * returns keys per statement), lines as JDBC batches, with a commit every
+ * batchSize rows; line commits wait for the next order, so an order's lines
+ * are stored all together or not at all. New identities are assigned, so the old ids from the files
+ * are translated through primitive int maps (8-16 bytes per order).
+ * Menu items whose name is already on the menu are reused. An order whose
+ * transaction id already exists is not imported again, which makes an
+ * interrupted import safe to re-run: only lines still missing are added.
+ * Orders whose transaction id is in the archive are skipped too.
+ * Afterwards the sales rollups of every imported day are rebuilt and the
+ * transaction id counters moved past the imported ids.
+ *
+ * Usage: java oakdonuts.BulkTransfer export|import <dir> [--format=csv|jsonl] [--batch=5000] [--url=jdbc:derby:...]
+ */
+public class BulkTransfer {
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    private static final int FETCH_SIZE = 1000;
+
+    public enum Format {
+        CSV(".csv"), JSONL(".jsonl");
+
+        final String extension;
+
+        Format(String extension) { this.extension = extension; }
+    }
+
+    private static final String[] MENU_COLUMNS = {"item_id", "name", "price", "description"};
+    private static final boolean[] MENU_NUMERIC = {true, false, true, false};
+    private static final String[] ORDER_COLUMNS = {"order_id", "transaction_id", "order_date", "total"};
+    private static final boolean[] ORDER_NUMERIC = {true, false, false, true};
+    private static final String[] LINE_COLUMNS = {"order_item_id", "order_id", "item_id", "quantity", "line_price"};
+    private static final boolean[] LINE_NUMERIC = {true, true, true, true, true};
+
+    /** Map value for an order that already existed and whose lines are complete */
+    private static final int SKIP = Integer.MIN_VALUE;
+
+    private final DBHelper db;
+
+    /** Rows written or imported per table, and rows left out */
+    public static final class Counts {
+        public long menuItems;
+        public long orders;
+        public long orderItems;
+        /** Orders already present (same transaction id) */
+        public long existingOrders;
+        /** Lines skipped: their order is complete already, or it or the menu item is unknown */
+        public long skippedItems;
+
+        @Override
+        public String toString() {
+            return menuItems + " menu items, " + orders + " orders, " + orderItems + " order lines" +
+                (existingOrders + skippedItems > 0
+                    ? " (" + existingOrders + " orders already present, " + skippedItems + " lines skipped)" : "");
+        }
+    }
+
+    public BulkTransfer(DBHelper db) {
+        this.db = db;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: BulkTransfer export|import <dir> [--format=csv|jsonl] [--batch=N] [--url=jdbc:...]");
+            System.exit(2);
+        }
+        Format format = Format.CSV;
+        int batch = DEFAULT_BATCH_SIZE;
+        String url = null;
+        for (int i = 2; i < args.length; i++) {
+            String a = args[i];
+            if (a.startsWith("--format=")) format = Format.valueOf(a.substring("--format=".length()).toUpperCase());
+            else if (a.startsWith("--batch=")) batch = Integer.parseInt(a.substring("--batch=".length()));
+            else if (a.startsWith("--url=")) url = a.substring("--url=".length());
+            else throw new IllegalArgumentException("Unknown option: " + a);
+        }
+        DBHelper db = url != null
+            ? new DBHelper(url, DBHelper.DEFAULT_POOL_SIZE, DBHelper.DEFAULT_WAIT_TIMEOUT_MS)
+            : new DBHelper();
+        try {
+            long start = System.nanoTime();
+            BulkTransfer transfer = new BulkTransfer(db);
+            Path dir = Paths.get(args[1]);
+            Counts c = args[0].equals("export") ? transfer.exportTo(dir, format) : transfer.importFrom(dir, format, batch);
+            System.out.printf("%sed %s in %.1f s%n", args[0].equals("export") ? "Export" : "Import", c,
+                (System.nanoTime() - start) / 1e9);
+        } finally {
+            db.close();
+        }
+    }
+
+    /* ------------------ Export ------------------ */
+
+    /** Write the three tables into dir (created if needed), overwriting earlier files */
+    public Counts exportTo(Path dir, Format format) throws IOException, SQLException {
+        Files.createDirectories(dir);
+        Counts counts = new Counts();
+        // no order may move to the archive between the headers and the lines
+        long stamp = db.archiveLock().readLock();
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+            int maxOrderId;
+            try (ResultSet rs = pc.prepare("SELECT MAX(order_id) FROM orders").executeQuery()) {
+                maxOrderId = rs.next() ? rs.getInt(1) : 0;
+            }
+            counts.menuItems = export(pc.prepare("SELECT item_id, name, price, description FROM menu_items"),
+                dir.resolve("menu_items" + format.extension), format, MENU_COLUMNS, MENU_NUMERIC);
+
+            PreparedStatement orders = pc.prepare(
+                "SELECT order_id, transaction_id, order_date, total FROM orders WHERE order_id <= ? " +
+                "UNION ALL SELECT order_id, transaction_id, order_date, total FROM orders_archive");
+            orders.setInt(1, maxOrderId);
+            counts.orders = export(orders, dir.resolve("orders" + format.extension), format,
+                ORDER_COLUMNS, ORDER_NUMERIC);
+
+            PreparedStatement lines = pc.prepare(
+                "SELECT order_item_id, order_id, item_id, quantity, line_price FROM order_items WHERE order_id <= ? " +
+                "UNION ALL SELECT order_item_id, order_id, item_id, quantity, line_price FROM order_items_archive " +
+                "ORDER BY order_id, order_item_id");
+            lines.setInt(1, maxOrderId);
+            counts.orderItems = export(lines, dir.resolve("order_items" + format.extension), format,
+                LINE_COLUMNS, LINE_NUMERIC);
+        } finally {
+            db.archiveLock().unlockRead(stamp);
+        }
+        return counts;
+    }
+
+    /** Stream one query to a file; rows are never held beyond the current one */
+    private static long export(PreparedStatement query, Path file, Format format, String[] columns,
+                               boolean[] numeric) throws IOException, SQLException {
+        query.setFetchSize(FETCH_SIZE);
+        long rows = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), 1 << 16);
+             ResultSet rs = query.executeQuery()) {
+            RowWriter w = format == Format.CSV ? new CsvWriter(out) : new JsonLinesWriter(out);
+            w.header(columns);
+            String[] row = new String[columns.length];
+            while (rs.next()) {
+                for (int i = 0; i < columns.length; i++) row[i] = text(rs.getObject(i + 1));
+                w.row(columns, numeric, row);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static String text(Object value) {
+        if (value == null) return null;
+        if (value instanceof BigDecimal) return ((BigDecimal) value).toPlainString();
+        return value.toString(); // Timestamp.toString() is what Timestamp.valueOf() reads back
+    }
+
+    /* ------------------ Import ------------------ */
+
+    /**
+     * Import the three files from dir. Each batch of about batchSize rows is
+     * committed on its own (line batches end between orders); after a failure, fix the cause and run the same
+     * import again.
+     */
+    public Counts importFrom(Path dir, Format format, int batchSize) throws IOException, SQLException {
+        if (batchSize <= 0) throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        Counts counts = new Counts();
+        IntIntMap menuIds = importMenu(dir.resolve("menu_items" + format.extension), format, counts);
+
+        Path orders = dir.resolve("orders" + format.extension);
+        Path lines = dir.resolve("order_items" + format.extension);
+        // rough capacity from the file size, so the map rarely has to grow
+        IntIntMap orderIds = new IntIntMap((int) Math.min(Integer.MAX_VALUE / 4, Files.size(orders) / 48));
+        Set<LocalDate> days = new TreeSet<>();
+        Map<String, Integer> lastSeqPerDay = new HashMap<>();
+
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+            importOrders(pc, orders, format, batchSize, orderIds, days, lastSeqPerDay, counts);
+            importLines(pc, lines, format, batchSize, orderIds, menuIds, counts);
+            advanceTransactionCounters(pc, lastSeqPerDay);
+            rebuildRollups(pc, days);
+        }
+        return counts;
+    }
+
+    /** Menu rows through DBHelper so the menu cache stays current; menus are small */
+    private IntIntMap importMenu(Path file, Format format, Counts counts) throws IOException, SQLException {
+        Map<String, Integer> byName = new HashMap<>();
+        for (MenuItem m : db.getAllMenuItems()) byName.put(m.getName(), m.getItemId());
+        IntIntMap ids = new IntIntMap(64);
+        try (RowReader r = reader(file, format, MENU_COLUMNS)) {
+            for (String[] row; (row = r.next()) != null; ) {
+                int oldId = parseInt(row[0], r, "item_id");
+                Integer existing = byName.get(row[1]);
+                if (existing == null) {
+                    MenuItem m = new MenuItem(0, row[1], Money.of(decimal(row[2], r, "price")), row[3]);
+                    db.insertMenuItem(m);
+                    existing = m.getItemId();
+                    byName.put(row[1], existing);
+                    counts.menuItems++;
+                }
+                ids.put(oldId, existing);
+            }
+        }
+        return ids;
+    }
+
+    private void importOrders(ConnectionPool.PooledConnection pc, Path file, Format format, int batchSize,
+                              IntIntMap orderIds, Set<LocalDate> days, Map<String, Integer> lastSeqPerDay,
+                              Counts counts) throws IOException, SQLException {
+        // compile statements before the transaction starts (see ConnectionPool)
+        PreparedStatement insert = pc.prepareWithKeys(
+            "INSERT INTO orders (transaction_id, order_date, total) VALUES (?, ?, ?)");
+        PreparedStatement existing = pc.prepare("SELECT order_id FROM orders WHERE transaction_id = ?");
+        PreparedStatement hasLines = pc.prepare("SELECT 1 FROM order_items WHERE order_id = ? FETCH FIRST ROW ONLY");
+        PreparedStatement archived = pc.prepare("SELECT 1 FROM orders_archive WHERE transaction_id = ?");
+        boolean anyArchived;
+        try (ResultSet rs = pc.prepare("SELECT 1 FROM orders_archive FETCH FIRST ROW ONLY").executeQuery()) {
+            anyArchived = rs.next();
+        }
+
+        Connection conn = pc.raw();
+        conn.setAutoCommit(false);
+        try (RowReader r = reader(file, format, ORDER_COLUMNS)) {
+            int pending = 0;
+            for (String[] row; (row = r.next()) != null; ) {
+                int oldId = parseInt(row[0], r, "order_id");
+                String txn = row[1];
+                Timestamp at;
+                try {
+                    at = row[2] != null ? Timestamp.valueOf(row[2]) : null;
+                } catch (IllegalArgumentException ex) {
+                    throw r.error("bad order_date '" + row[2] + "'");
+                }
+                BigDecimal total = decimal(row[3], r, "total");
+                if (anyArchived && exists(archived, txn)) {
+                    // complete by definition: only whole orders are archived
+                    orderIds.put(oldId, SKIP);
+                    counts.existingOrders++;
+                } else {
+                    insert.setString(1, txn);
+                    insert.setTimestamp(2, at);
+                    insert.setBigDecimal(3, total);
+                    try {
+                        insert.executeUpdate();
+                        try (ResultSet keys = insert.getGeneratedKeys()) {
+                            keys.next();
+                            orderIds.put(oldId, keys.getInt(1));
+                        }
+                        counts.orders++;
+                    } catch (SQLException ex) {
+                        // duplicate transaction id: only this statement is rolled back
+                        if (!"23505".equals(ex.getSQLState())) throw ex;
+                        orderIds.put(oldId, resumeTarget(existing, hasLines, txn));
+                        counts.existingOrders++;
+                    }
+                }
+                if (at != null) days.add(at.toLocalDateTime().toLocalDate());
+                noteTransactionId(txn, lastSeqPerDay);
+                if (++pending == batchSize) {
+                    conn.commit();
+                    pending = 0;
+                }
+            }
+            conn.commit();
+        } catch (SQLException | IOException | RuntimeException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static boolean exists(PreparedStatement query, String txn) throws SQLException {
+        query.setString(1, txn);
+        try (ResultSet rs = query.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Where the lines of an order that is already stored go: nowhere if it
+     * has lines (a complete earlier import), else into it, encoded as the
+     * negated id (a resumed import that stopped between orders and lines).
+     */
+    private static int resumeTarget(PreparedStatement existing, PreparedStatement hasLines, String txn)
+            throws SQLException {
+        int id;
+        existing.setString(1, txn);
+        try (ResultSet rs = existing.executeQuery()) {
+            if (!rs.next()) return SKIP;
+            id = rs.getInt(1);
+        }
+        hasLines.setInt(1, id);
+        try (ResultSet rs = hasLines.executeQuery()) {
+            return rs.next() ? SKIP : -id;
+        }
+    }
+
+    private void importLines(ConnectionPool.PooledConnection pc, Path file, Format format, int batchSize,
+                             IntIntMap orderIds, IntIntMap menuIds, Counts counts) throws IOException, SQLException {
+        PreparedStatement insert = pc.prepare(
+            "INSERT INTO order_items (order_id, item_id, quantity, line_price) VALUES (?, ?, ?, ?)");
+        Connection conn = pc.raw();
+        conn.setAutoCommit(false);
+        try (RowReader r = reader(file, format, LINE_COLUMNS)) {
+            int pending = 0;
+            int lastOldId = Integer.MIN_VALUE;
+            for (String[] row; (row = r.next()) != null; ) {
+                int oldId = parseInt(row[1], r, "order_id");
+                if (oldId != lastOldId) {
+                    // the lines of one order must not be split over two commits
+                    if (oldId < lastOldId) throw r.error("lines are not sorted by order_id; export them again");
+                    if (pending >= batchSize) {
+                        insert.executeBatch();
+                        conn.commit();
+                        pending = 0;
+                    }
+                    lastOldId = oldId;
+                }
+                int orderId = orderIds.get(oldId, SKIP);
+                int itemId = menuIds.get(parseInt(row[2], r, "item_id"), 0);
+                if (orderId == SKIP || itemId == 0) {
+                    counts.skippedItems++;
+                    continue;
+                }
+                insert.setInt(1, Math.abs(orderId));
+                insert.setInt(2, itemId);
+                insert.setInt(3, parseInt(row[3], r, "quantity"));
+                insert.setBigDecimal(4, decimal(row[4], r, "line_price"));
+                insert.addBatch();
+                counts.orderItems++;
+                pending++;
+            }
+            insert.executeBatch();
+            conn.commit();
+        } catch (SQLException | IOException | RuntimeException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /** Rebuild the sales rollups of the imported days, one pass per run of consecutive days */
+    private static void rebuildRollups(ConnectionPool.PooledConnection pc, Set<LocalDate> days) throws SQLException {
+        LocalDate first = null;
+        LocalDate last = null;
+        for (LocalDate day : days) {
+            if (last != null && !day.equals(last.plusDays(1))) {
+                SalesRollups.rebuildDays(pc, first, last);
+                first = null;
+            }
+            if (first == null) first = day;
+            last = day;
+        }
+        if (first != null) SalesRollups.rebuildDays(pc, first, last);
+    }
+
+    /** Remember the highest OD-yyyyMMdd-nnnn sequence imported per day */
+    private static void noteTransactionId(String txn, Map<String, Integer> lastSeqPerDay) {
+        if (txn == null || !txn.startsWith("OD-") || txn.length() < 13 || txn.charAt(11) != '-') return;
+        try {
+            lastSeqPerDay.merge(txn.substring(3, 11), Integer.parseInt(txn.substring(12)), Math::max);
+        } catch (NumberFormatException ignored) {
+            // not an id this app generated
+        }
+    }
+
+    /**
+     * Move txn_counters past imported ids so new ids never collide with them.
+     * Days without a counter row need nothing: the allocator starts those
+     * after the highest stored id (see TransactionIdAllocator).
+     */
+    private static void advanceTransactionCounters(ConnectionPool.PooledConnection pc,
+                                                   Map<String, Integer> lastSeqPerDay) throws SQLException {
+        PreparedStatement bump = pc.prepare(
+            "UPDATE txn_counters SET next_seq = ? WHERE business_day = ? AND next_seq <= ?");
+        for (Map.Entry<String, Integer> e : lastSeqPerDay.entrySet()) {
+            bump.setInt(1, e.getValue() + 1);
+            bump.setString(2, e.getKey());
+            bump.setInt(3, e.getValue());
+            bump.executeUpdate();
+        }
+    }
+
+    private static int parseInt(String s, RowReader r, String column) throws IOException {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException ex) {
+            throw r.error("bad " + column + " '" + s + "'");
+        }
+    }
+
+    private static BigDecimal decimal(String s, RowReader r, String column) throws IOException {
+        try {
+            return new BigDecimal(s);
+        } catch (NumberFormatException | NullPointerException ex) {
+            throw r.error("bad " + column + " '" + s + "'");
+        }
+    }
+
+    /* ------------------ File formats ------------------ */
+
+    private static RowReader reader(Path file, Format format, String[] columns) throws IOException {
+        Reader in = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8),
+            1 << 16);
+        try {
+            return format == Format.CSV ? new CsvReader(file, in, columns) : new JsonLinesReader(file, in, columns);
+        } catch (IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    private interface RowWriter {
+        void header(String[] columns) throws IOException;
+
+        void row(String[] columns, boolean[] numeric, String[] values) throws IOException;
+    }
+
+    /** Rows in the given column order; null when the stream ends */
+    private interface RowReader extends Closeable {
+        String[] next() throws IOException;
+
+        IOException error(String message);
+    }
+
+    /** RFC 4180: quoted when needed; an empty unquoted field is SQL NULL, "" the empty string */
+    private static final class CsvWriter implements RowWriter {
+        private final Writer out;
+
+        CsvWriter(Writer out) { this.out = out; }
+
+        @Override
+        public void header(String[] columns) throws IOException {
+            out.write(String.join(",", columns));
+            out.write("\r\n");
+        }
+
+        @Override
+        public void row(String[] columns, boolean[] numeric, String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) out.write(',');
+                String v = values[i];
+                if (v == null) continue;
+                if (numeric[i] || (!v.isEmpty() && v.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r'))) {
+                    out.write(v);
+                } else {
+                    out.write('"');
+                    out.write(v.replace("\"", "\"\""));
+                    out.write('"');
+                }
+            }
+            out.write("\r\n");
+        }
+    }
+
+    private static final class JsonLinesWriter implements RowWriter {
+        private final Writer out;
+        private final StringBuilder sb = new StringBuilder(256);
+
+        JsonLinesWriter(Writer out) { this.out = out; }
+
+        @Override
+        public void header(String[] columns) {
+            // keys are repeated on every line
+        }
+
+        @Override
+        public void row(String[] columns, boolean[] numeric, String[] values) throws IOException {
+            sb.setLength(0);
+            sb.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append('"').append(columns[i]).append("\":");
+                if (values[i] != null && numeric[i]) sb.append(values[i]);
+                else Json.string(sb, values[i]);
+            }
+            sb.append("}\n");
+            out.append(sb);
+        }
+    }
+
+    private static final class CsvReader implements RowReader {
+        private final Path file;
+        private final Reader in;
+        private final int width;
+        private final StringBuilder field = new StringBuilder(64);
+        private long line = 1;
+        private boolean eof;
+
+        CsvReader(Path file, Reader in, String[] columns) throws IOException {
+            this.file = file;
+            this.in = in;
+            this.width = columns.length;
+            String[] header = readRecord();
+            if (header == null || !Arrays.equals(header, columns)) {
+                throw error("expected header " + String.join(",", columns));
+            }
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            String[] row = readRecord();
+            if (row != null && row.length != width) throw error("expected " + width + " fields, found " + row.length);
+            return row;
+        }
+
+        private String[] readRecord() throws IOException {
+            if (eof) return null;
+            List<String> fields = new ArrayList<>(width);
+            field.setLength(0);
+            boolean quoted = false;
+            boolean inQuotes = false;
+            while (true) {
+                int c = in.read();
+                if (inQuotes) {
+                    if (c == -1) throw error("unterminated quoted field");
+                    if (c == '"') {
+                        in.mark(1);
+                        if (in.read() == '"') {
+                            field.append('"');
+                        } else {
+                            in.reset();
+                            inQuotes = false;
+                        }
+                    } else {
+                        if (c == '\n') line++;
+                        field.append((char) c);
+                    }
+                    continue;
+                }
+                if (c == '"' && field.length() == 0) {
+                    quoted = inQuotes = true;
+                } else if (c == ',' ) {
+                    fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                    field.setLength(0);
+                    quoted = false;
+                } else if (c == '\n' || c == -1) {
+                    if (c == -1) {
+                        eof = true;
+                        if (fields.isEmpty() && field.length() == 0 && !quoted) return null;
+                    }
+                    line++;
+                    fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                    return fields.toArray(new String[0]);
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+        }
+
+        @Override
+        public IOException error(String message) {
+            return new IOException(file + ":" + line + ": " + message);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class JsonLinesReader implements RowReader {
+        private final Path file;
+        private final BufferedReader in;
+        private final String[] columns;
+        private long line;
+
+        JsonLinesReader(Path file, Reader in, String[] columns) {
+            this.file = file;
+            this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+            this.columns = columns;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            String text;
+            do {
+                text = in.readLine();
+                line++;
+                if (text == null) return null;
+            } while (text.trim().isEmpty());
+            Object doc;
+            try {
+                doc = Json.parse(text);
+            } catch (IllegalArgumentException ex) {
+                throw error(ex.getMessage());
+            }
+            if (!(doc instanceof Map)) throw error("expected an object");
+            Map<?, ?> obj = (Map<?, ?>) doc;
+            String[] row = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                Object v = obj.get(columns[i]);
+                row[i] = v instanceof BigDecimal ? ((BigDecimal) v).toPlainString() : v != null ? v.toString() : null;
+            }
+            return row;
+        }
+
+        @Override
+        public IOException error(String message) {
+            return new IOException(file + ":" + line + ": " + message);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
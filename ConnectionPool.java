@@ -0,0 +1,174 @@
+package oakdonuts;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Header: ConnectionPool.java
+ * Bounded pool of embedded Derby connections shared by all DBHelper callers.
+ *
+ * Connections are opened lazily up to the pool size. A caller borrows one per
+ * operation and returns it by closing the PooledConnection, so each register
+ * works on its own connection and its own transaction.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final int maxSize;
+    private final long waitTimeoutMillis;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, int maxSize, long waitTimeoutMillis) {
+        if (maxSize <= 0) throw new IllegalArgumentException("pool size must be positive: " + maxSize);
+        this.url = url;
+        this.maxSize = maxSize;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    public int getMaxSize() { return maxSize; }
+    public long getWaitTimeoutMillis() { return waitTimeoutMillis; }
+
+    /**
+     * Borrow a connection, opening a new one if the pool is below its size,
+     * otherwise waiting up to the configured timeout for one to be returned.
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (closed) throw new SQLNonTransientConnectionException("Connection pool is closed", "08003");
+
+        PooledConnection pc = idle.poll();
+        if (pc != null) return pc;
+
+        // grow lazily while below the bound
+        for (int n = opened.get(); n < maxSize; n = opened.get()) {
+            if (opened.compareAndSet(n, n + 1)) {
+                try {
+                    return new PooledConnection(this, DriverManager.getConnection(url));
+                } catch (SQLException ex) {
+                    opened.decrementAndGet();
+                    throw ex;
+                }
+            }
+        }
+
+        try {
+            pc = idle.poll(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a connection", "08001", ex);
+        }
+        if (pc == null) {
+            throw new SQLTransientConnectionException(
+                "No connection available within " + waitTimeoutMillis + " ms (pool size " + maxSize + ")", "08001");
+        }
+        return pc;
+    }
+
+    /** Return a connection; broken or still-in-transaction connections are reset or dropped. */
+    void release(PooledConnection pc) {
+        boolean healthy;
+        try {
+            Connection c = pc.raw();
+            healthy = !c.isClosed();
+            if (healthy) pc.clearBatches();
+            if (healthy && !c.getAutoCommit()) {
+                // caller left a transaction open: never hand it to someone else
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            healthy = false;
+        }
+
+        if (healthy && !closed && idle.offer(pc)) return;
+        pc.destroy();
+        opened.decrementAndGet();
+    }
+
+    /** Close all idle connections; connections still borrowed are closed when returned. */
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.poll()) != null) {
+            pc.destroy();
+            opened.decrementAndGet();
+        }
+    }
+
+    /**
+     * A borrowed connection plus its cached prepared statements.
+     * Statements from prepare() belong to the connection: do not close them.
+     *
+     * Prepare statements before calling setAutoCommit(false). Derby compiles a
+     * new statement inside the caller's transaction and keeps its catalog locks
+     * until commit, which stalls identity-column allocation on every other
+     * pooled connection.
+     */
+    public static class PooledConnection implements AutoCloseable {
+        private final ConnectionPool pool;
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private final Map<String, PreparedStatement> keyStatements = new HashMap<>();
+
+        private PooledConnection(ConnectionPool pool, Connection conn) {
+            this.pool = pool;
+            this.conn = conn;
+        }
+
+        /** Underlying JDBC connection (for transactions and plain statements) */
+        public Connection raw() { return conn; }
+
+        /** Cached prepared statement for the given SQL */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            ps.clearParameters();
+            return ps;
+        }
+
+        /** Cached prepared statement that returns generated keys */
+        public PreparedStatement prepareWithKeys(String sql) throws SQLException {
+            PreparedStatement ps = keyStatements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                keyStatements.put(sql, ps);
+            }
+            ps.clearParameters();
+            return ps;
+        }
+
+        /** Give the connection back to the pool */
+        @Override
+        public void close() {
+            pool.release(this);
+        }
+
+        private void clearBatches() throws SQLException {
+            for (PreparedStatement ps : statements.values()) ps.clearBatch();
+            for (PreparedStatement ps : keyStatements.values()) ps.clearBatch();
+        }
+
+        private void destroy() {
+            for (PreparedStatement ps : statements.values()) closeQuietly(ps);
+            for (PreparedStatement ps : keyStatements.values()) closeQuietly(ps);
+            statements.clear();
+            keyStatements.clear();
+            try { conn.close(); } catch (SQLException e) { e.printStackTrace(); }
+        }
+
+        private static void closeQuietly(Statement st) {
+            try { st.close(); } catch (SQLException ignored) { }
+        }
+    }
+}
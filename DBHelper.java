@@ -1,13 +1,25 @@
 package oakdonuts;
 
 import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
 import oakdonuts.models.Order;
 import oakdonuts.models.OrderItem;
-import oakdonuts.utils.DateUtils;
+import oakdonuts.metrics.Metrics;
+import oakdonuts.metrics.OperationStats;
+import oakdonuts.utils.IntIntMap;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 
 /**
  * Header: DBHelper.java
@@ -19,187 +31,583 @@ import java.util.List;
 public class DBHelper {
     private static final String DB_URL = "jdbc:derby:oddb;create=true";
 
-    private Connection conn;
+    /** Default pool: one connection per core, at least two */
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final long DEFAULT_WAIT_TIMEOUT_MS = 5000;
+    /** Orders per transaction in saveOrders */
+    public static final int DEFAULT_SAVE_GROUP_SIZE = 100;
 
-    /** Initialize connection and create tables if needed */
+    private final ConnectionPool pool;
+    private final TransactionIdAllocator txnIds;
+    private final MenuCache menuCache = new MenuCache();
+    /** Serializes menu writes so the cache is swapped in commit order */
+    private final Object menuLock = new Object();
+    private volatile GroupCommitter groupCommitter;
+    private volatile OrderJournal journal;
+    private final List<DataChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private OrderEventBus orderEvents;
+    /** Header queries for getOrders(ids), pinned to the primary keys (see createTablesIfNotExist) */
+    private String ordersByIdQuery = ORDER_COLUMNS;
+    private String archivedByIdQuery = ARCHIVED_ORDER_COLUMNS;
+    /** Write-locked by OrderArchiver around each batch (see acrossArchive) */
+    private final StampedLock archiveLock = new StampedLock();
+
+    // per-operation call counts and latencies, process-wide (see Metrics)
+    private static final OperationStats INSERT_MENU_ITEM = stats("insertMenuItem");
+    private static final OperationStats UPDATE_MENU_ITEM = stats("updateMenuItem");
+    private static final OperationStats DELETE_MENU_ITEM = stats("deleteMenuItem");
+    private static final OperationStats GET_ALL_MENU_ITEMS = stats("getAllMenuItems");
+    private static final OperationStats GET_MENU_ITEM = stats("getMenuItem");
+    private static final OperationStats GET_MENU_SNAPSHOT = stats("getMenuSnapshot");
+    private static final OperationStats SAVE_ORDER = stats("saveOrder");
+    private static final OperationStats SAVE_ORDERS = stats("saveOrders");
+    private static final OperationStats FLUSH_ORDER_JOURNAL = stats("flushOrderJournal");
+    private static final OperationStats DELETE_ORDER = stats("deleteOrder");
+    private static final OperationStats GET_ALL_ORDERS = stats("getAllOrders");
+    private static final OperationStats GET_ORDERS_PAGE = stats("getOrdersPage");
+    private static final OperationStats FOR_EACH_ORDER = stats("forEachOrder");
+    private static final OperationStats GET_ORDER = stats("getOrder");
+    private static final OperationStats GET_ORDER_BY_TXN = stats("getOrderByTransactionId");
+    private static final OperationStats GET_ORDER_ITEMS = stats("getOrderItems");
+    private static final OperationStats GET_ORDERS = stats("getOrders");
+    private static final OperationStats GENERATE_TXN_ID = stats("generateNextTransactionId");
+
+    private static OperationStats stats(String operation) {
+        return Metrics.global().stats("db." + operation);
+    }
+
+    /** Initialize connection pool and create tables if needed */
     public DBHelper() throws SQLException {
-        conn = DriverManager.getConnection(DB_URL);
-        createTablesIfNotExist();
+        this(DEFAULT_POOL_SIZE, DEFAULT_WAIT_TIMEOUT_MS);
     }
 
-    /** Close connection */
-    public void close() {
+    /**
+     * Initialize with an explicit pool size (max concurrent DB operations)
+     * and how long a caller waits for a free connection before failing.
+     */
+    public DBHelper(int poolSize, long waitTimeoutMillis) throws SQLException {
+        this(DB_URL, poolSize, waitTimeoutMillis);
+    }
+
+    /**
+     * Use another Derby database, e.g. "jdbc:derby:memory:test;create=true"
+     * for benchmarks and tools that must not touch the store's data.
+     */
+    public DBHelper(String url, int poolSize, long waitTimeoutMillis) throws SQLException {
+        pool = new ConnectionPool(url, poolSize, waitTimeoutMillis);
+        txnIds = new TransactionIdAllocator(pool, TransactionIdAllocator.DEFAULT_BLOCK_SIZE);
         try {
-            if (conn != null && !conn.isClosed()) conn.close();
-        } catch (SQLException e) { e.printStackTrace(); }
+            createTablesIfNotExist();
+        } catch (SQLException ex) {
+            pool.close();
+            throw ex;
+        }
+    }
+
+    /** Close all pooled connections */
+    public void close() {
+        disableOrderJournal();
+        disableGroupCommit();
+        synchronized (this) {
+            if (orderEvents != null) orderEvents.close();
+        }
+        pool.close();
+    }
+
+    /** Be told about menu and order writes after they commit (see DataChangeListener) */
+    public void addChangeListener(DataChangeListener l) {
+        listeners.add(l);
+    }
+
+    public void removeChangeListener(DataChangeListener l) {
+        listeners.remove(l);
     }
 
-    /** Create schema tables if not present */
+    /** Order saves and deletes for in-process consumers; created and fed from the first call */
+    public synchronized OrderEventBus orderEvents() {
+        if (orderEvents == null) {
+            orderEvents = new OrderEventBus();
+            listeners.add(orderEvents);
+        }
+        return orderEvents;
+    }
+
+    /** Connection pool shared with the reporting and maintenance helpers */
+    ConnectionPool pool() {
+        return pool;
+    }
+
+    /** Held for writing while OrderArchiver moves a batch, and for reading by BulkTransfer's export */
+    StampedLock archiveLock() {
+        return archiveLock;
+    }
+
+    /** Bring the schema up to date (see SchemaMigrator) and seed the menu on first run */
     private void createTablesIfNotExist() throws SQLException {
-        Statement st = conn.createStatement();
-
-        // Create menu_items
-        st.executeUpdate(
-            "CREATE TABLE menu_items (" +
-            "item_id INTEGER NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1)," +
-            "name VARCHAR(100)," +
-            "price DECIMAL(6,2)," +
-            "description VARCHAR(255))"
-        );
-        // create orders
-        st.executeUpdate(
-            "CREATE TABLE orders (" +
-            "order_id INTEGER NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY," +
-            "transaction_id VARCHAR(50) UNIQUE," +
-            "order_date TIMESTAMP," +
-            "total DECIMAL(8,2))"
-        );
-        // create order_items
-        st.executeUpdate(
-            "CREATE TABLE order_items (" +
-            "order_item_id INTEGER NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY," +
-            "order_id INTEGER," +
-            "item_id INTEGER," +
-            "quantity INTEGER," +
-            "line_price DECIMAL(8,2)," +
-            "CONSTRAINT fk_order FOREIGN KEY (order_id) REFERENCES orders(order_id)," +
-            "CONSTRAINT fk_item FOREIGN KEY (item_id) REFERENCES menu_items(item_id))"
-        );
-        st.close();
+        try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+            SchemaMigrator.oakDonuts().migrate(pc.raw());
+            // On small tables Derby prefers a scan that tests every row against the whole
+            // IN list; getOrders(ids) names the index it should probe instead
+            String pk = SchemaMigrator.primaryKeyName(pc.raw(), "ORDERS");
+            if (pk != null) ordersByIdQuery = ORDER_COLUMNS + "--DERBY-PROPERTIES constraint=" + pk + "\n";
+            pk = SchemaMigrator.primaryKeyName(pc.raw(), "ORDERS_ARCHIVE");
+            if (pk != null) archivedByIdQuery = ARCHIVED_ORDER_COLUMNS + "--DERBY-PROPERTIES constraint=" + pk + "\n";
+        }
 
         // If first run, insert sample menu items
         if (getAllMenuItems().isEmpty()) {
-            insertMenuItem(new MenuItem(0, "Glazed Donut", 1.50, "Classic glazed donut"));
-            insertMenuItem(new MenuItem(0, "Chocolate Frosted", 1.75, "Chocolate icing"));
-            insertMenuItem(new MenuItem(0, "Sprinkles", 1.85, "Fun colorful sprinkles"));
+            insertMenuItem(new MenuItem(0, "Glazed Donut", Money.parse("1.50"), "Classic glazed donut"));
+            insertMenuItem(new MenuItem(0, "Chocolate Frosted", Money.parse("1.75"), "Chocolate icing"));
+            insertMenuItem(new MenuItem(0, "Sprinkles", Money.parse("1.85"), "Fun colorful sprinkles"));
         }
     }
 
     /* ------------------ Menu Items CRUD ------------------ */
 
-    /** Insert a new menu item into DB */
+    /** Insert a new menu item into DB; the generated item id is set on m */
     public void insertMenuItem(MenuItem m) throws SQLException {
-        String sql = "INSERT INTO menu_items (name, price, description) VALUES (?, ?, ?)";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, m.getName());
-            ps.setDouble(2, m.getPrice());
-            ps.setString(3, m.getDescription());
-            ps.executeUpdate();
-        }
+        INSERT_MENU_ITEM.run(() -> {
+            String sql = "INSERT INTO menu_items (name, price, description) VALUES (?, ?, ?)";
+            synchronized (menuLock) {
+                try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                    PreparedStatement ps = pc.prepareWithKeys(sql);
+                    ps.setString(1, m.getName());
+                    ps.setBigDecimal(2, m.getPrice().toBigDecimal());
+                    ps.setString(3, m.getDescription());
+                    ps.executeUpdate();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        if (keys.next()) m.setItemId(keys.getInt(1));
+                    }
+                }
+                MenuItem cached = menuCache.put(m);
+                for (DataChangeListener l : listeners) l.menuItemSaved(cached);
+            }
+        });
     }
 
     /** Update an existing menu item */
     public void updateMenuItem(MenuItem m) throws SQLException {
-        String sql = "UPDATE menu_items SET name=?, price=?, description=? WHERE item_id=?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, m.getName());
-            ps.setDouble(2, m.getPrice());
-            ps.setString(3, m.getDescription());
-            ps.setInt(4, m.getItemId());
-            ps.executeUpdate();
-        }
+        UPDATE_MENU_ITEM.run(() -> {
+            String sql = "UPDATE menu_items SET name=?, price=?, description=? WHERE item_id=?";
+            synchronized (menuLock) {
+                int updated;
+                try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                    PreparedStatement ps = pc.prepare(sql);
+                    ps.setString(1, m.getName());
+                    ps.setBigDecimal(2, m.getPrice().toBigDecimal());
+                    ps.setString(3, m.getDescription());
+                    ps.setInt(4, m.getItemId());
+                    updated = ps.executeUpdate();
+                }
+                if (updated > 0) {
+                    MenuItem cached = menuCache.put(m);
+                    for (DataChangeListener l : listeners) l.menuItemSaved(cached);
+                }
+            }
+        });
     }
 
     /** Delete menu item by ID */
     public void deleteMenuItem(int itemId) throws SQLException {
-        String sql = "DELETE FROM menu_items WHERE item_id=?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, itemId);
-            ps.executeUpdate();
+        DELETE_MENU_ITEM.run(() -> {
+            String sql = "DELETE FROM menu_items WHERE item_id=?";
+            synchronized (menuLock) {
+                int deleted;
+                try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                    PreparedStatement ps = pc.prepare(sql);
+                    ps.setInt(1, itemId);
+                    deleted = ps.executeUpdate();
+                }
+                menuCache.remove(itemId);
+                if (deleted > 0) {
+                    for (DataChangeListener l : listeners) l.menuItemDeleted(itemId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace the whole menu with these items, keeping their item ids, so a
+     * new StorePartitions month starts with its store's menu. Only for a
+     * database without orders: their lines refer to menu items by id (and
+     * the delete fails on fk_item if there are any). Listeners are not told.
+     */
+    void replaceMenu(List<MenuItem> items) throws SQLException {
+        List<MenuItem> byId = new ArrayList<>(items);
+        byId.sort(Comparator.comparingInt(MenuItem::getItemId));
+        synchronized (menuLock) {
+            try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                Connection conn = pc.raw();
+                conn.setAutoCommit(false);
+                // not cached: every identity restart recompiles the insert
+                try (Statement st = conn.createStatement();
+                     PreparedStatement ins = conn.prepareStatement(
+                         "INSERT INTO menu_items (name, price, description) VALUES (?, ?, ?)")) {
+                    st.executeUpdate("DELETE FROM menu_items");
+                    int next = -1;
+                    for (MenuItem m : byId) {
+                        // item_id is GENERATED ALWAYS: steer the identity onto the id to keep
+                        if (m.getItemId() != next) {
+                            st.executeUpdate("ALTER TABLE menu_items ALTER COLUMN item_id RESTART WITH " + m.getItemId());
+                        }
+                        ins.setString(1, m.getName());
+                        ins.setBigDecimal(2, m.getPrice().toBigDecimal());
+                        ins.setString(3, m.getDescription());
+                        ins.executeUpdate();
+                        next = m.getItemId() + 1;
+                    }
+                    conn.commit();
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+            menuCache.replaceAll(byId);
         }
     }
 
-    /** Read all menu items */
+    /**
+     * Read all menu items. Served from the in-memory menu snapshot; only the
+     * first call (or the first after a failed load) queries the database.
+     * The returned list is unmodifiable and its items are shared: copy before editing.
+     */
     public List<MenuItem> getAllMenuItems() throws SQLException {
-        List<MenuItem> list = new ArrayList<>();
-        try (Statement st = conn.createStatement();
-             ResultSet rs = st.executeQuery("SELECT item_id, name, price, description FROM menu_items")) {
-            while (rs.next()) {
-                MenuItem m = new MenuItem(
-                    rs.getInt("item_id"),
-                    rs.getString("name"),
-                    rs.getDouble("price"),
-                    rs.getString("description")
-                );
-                list.add(m);
+        return GET_ALL_MENU_ITEMS.time(() -> menuSnapshot().getItems());
+    }
+
+    /** Single menu item from the cached menu, or null if unknown */
+    public MenuItem getMenuItem(int itemId) throws SQLException {
+        return GET_MENU_ITEM.time(() -> menuSnapshot().get(itemId));
+    }
+
+    /** Current menu snapshot, loading it on first use */
+    public MenuCache.Snapshot getMenuSnapshot() throws SQLException {
+        return GET_MENU_SNAPSHOT.time(this::menuSnapshot);
+    }
+
+    /** getMenuSnapshot without its timing, for operations that are timed themselves */
+    private MenuCache.Snapshot menuSnapshot() throws SQLException {
+        MenuCache.Snapshot snap = menuCache.snapshot();
+        if (snap != null) return snap;
+        synchronized (menuLock) {
+            snap = menuCache.snapshot();
+            if (snap != null) return snap;
+            List<MenuItem> list = new ArrayList<>();
+            try (ConnectionPool.PooledConnection pc = pool.borrow();
+                 ResultSet rs = pc.prepare("SELECT item_id, name, price, description FROM menu_items").executeQuery()) {
+                while (rs.next()) {
+                    MenuItem m = new MenuItem(
+                        rs.getInt("item_id"),
+                        rs.getString("name"),
+                        Money.of(rs.getBigDecimal("price")),
+                        rs.getString("description")
+                    );
+                    list.add(m);
+                }
+            } catch (SQLException e) {
+                // If table missing, return empty list (schema setup handled elsewhere); not cached
+                return MenuCache.emptySnapshot();
             }
-        } catch (SQLException e) {
-            // If table missing, return empty list (table creation handled elsewhere)
+            return menuCache.replaceAll(list);
         }
-        return list;
     }
 
     /* ------------------ Orders CRUD ------------------ */
 
-    /** Save a full order (orders + order_items). Handles insert or update. */
+    /**
+     * Save a full order (orders + order_items). Handles insert or update.
+     * Runs in its own transaction on a borrowed connection, so concurrent
+     * registers never share uncommitted work. With group commit enabled the
+     * order is committed together with other registers' saves instead; with
+     * the order journal enabled a new order is only journaled here.
+     */
     public void saveOrder(Order order) throws SQLException {
+        SAVE_ORDER.run(() -> {
+            OrderJournal j = journal;
+            if (j != null) {
+                // an order still in the journal becomes an update once it is applied
+                j.resolvePending(order);
+                if (order.getOrderId() == 0 && order.getTransactionId() != null && j.append(order)) return;
+            }
+            GroupCommitter gc = groupCommitter;
+            if (gc != null) {
+                gc.save(order);
+                return;
+            }
+            saveOrderGroup(Collections.singletonList(order));
+        });
+    }
+
+    /** Save many orders, committing once per DEFAULT_SAVE_GROUP_SIZE orders */
+    public void saveOrders(Collection<Order> orders) throws SQLException {
+        saveOrders(orders, DEFAULT_SAVE_GROUP_SIZE);
+    }
+
+    /**
+     * Save many orders (insert or update) on one connection. Item rows are
+     * sent as JDBC batches spanning all orders of a group, and each group of
+     * groupSize orders is one transaction, so bulk loads pay one log sync per
+     * group instead of per order. Generated order ids are set on each Order.
+     * If a group fails it is rolled back and the exception is thrown; groups
+     * before it stay committed.
+     */
+    public void saveOrders(Collection<Order> orders, int groupSize) throws SQLException {
+        SAVE_ORDERS.run(() -> {
+            if (groupSize <= 0) throw new IllegalArgumentException("group size must be positive: " + groupSize);
+            try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                List<Order> group = new ArrayList<>(Math.min(groupSize, orders.size()));
+                for (Order o : orders) {
+                    group.add(o);
+                    if (group.size() == groupSize) {
+                        saveOrderGroup(pc, group);
+                        group.clear();
+                    }
+                }
+                if (!group.isEmpty()) saveOrderGroup(pc, group);
+            }
+        });
+    }
+
+    /**
+     * Coalesce concurrent saveOrder calls into shared commits: the first save
+     * waits up to windowMicros for others (at most maxGroupSize orders) and
+     * all of them are written in one transaction.
+     */
+    public synchronized void enableGroupCommit(long windowMicros, int maxGroupSize) {
+        disableGroupCommit();
+        groupCommitter = new GroupCommitter(this, windowMicros, maxGroupSize);
+    }
+
+    /** Return to one transaction per saveOrder; queued saves are still committed */
+    public synchronized void disableGroupCommit() {
+        GroupCommitter gc = groupCommitter;
+        groupCommitter = null;
+        if (gc != null) gc.close();
+    }
+
+    /**
+     * Capture mode: saveOrder appends new orders to a durable, checksummed
+     * journal file and returns immediately; a background writer applies them
+     * to Derby in batches. Entries a previous run left unapplied are replayed
+     * before this returns. Until applied, journaled orders do not show up in
+     * reads (see flushOrderJournal). Updates and deletes stay synchronous.
+     * An order that can never be written (e.g. its menu item was deleted) is
+     * set aside in file.dead rather than dropped; flushOrderJournal reports it.
+     *
+     * @param forceEachAppend msync each append before acknowledging it
+     */
+    public synchronized void enableOrderJournal(Path file, boolean forceEachAppend) throws IOException, SQLException {
+        disableOrderJournal();
+        journal = new OrderJournal(this, file, OrderJournal.DEFAULT_CAPACITY, forceEachAppend);
+    }
+
+    /** Stop journaling; orders already journaled are written to Derby first (best effort) */
+    public synchronized void disableOrderJournal() {
+        OrderJournal j = journal;
+        journal = null;
+        if (j != null) j.close();
+    }
+
+    /** Wait until every journaled order has been written to Derby */
+    public void flushOrderJournal() throws SQLException {
+        FLUSH_ORDER_JOURNAL.run(() -> {
+            OrderJournal j = journal;
+            if (j != null) j.flush();
+        });
+    }
+
+    /** Save orders in a single transaction (used by GroupCommitter and OrderJournal) */
+    void saveOrderGroup(List<Order> group) throws SQLException {
+        try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+            saveOrderGroup(pc, group);
+        }
+    }
+
+    /** Write a group of orders in one transaction, retried if Derby rolls it back */
+    private void saveOrderGroup(ConnectionPool.PooledConnection pc, List<Order> group) throws SQLException {
+        retryRolledBack(() -> writeOrderGroup(pc, group));
+        if (listeners.isEmpty()) return;
+        for (Order o : group) {
+            for (DataChangeListener l : listeners) l.orderSaved(o);
+        }
+    }
+
+    /**
+     * Write a group of orders in one transaction. Existing orders only get
+     * the line changes recorded on the model: removed lines are deleted,
+     * dirty lines updated and new lines inserted, all as group-wide batches.
+     * The sales rollups are adjusted in the same transaction. An existing
+     * order or line that is no longer stored (deleted since it was loaded)
+     * fails the transaction with SQLState 02000.
+     */
+    private void writeOrderGroup(ConnectionPool.PooledConnection pc, List<Order> group) throws SQLException {
+        // compile statements before the transaction starts (see ConnectionPool)
+        PreparedStatement insOrder = pc.prepareWithKeys(
+            "INSERT INTO orders (transaction_id, order_date, total) VALUES (?, ?, ?)");
+        PreparedStatement updOrder = pc.prepare(
+            "UPDATE orders SET transaction_id=?, order_date=?, total=? WHERE order_id=?");
+        PreparedStatement delItem = pc.prepare("DELETE FROM order_items WHERE order_item_id=? AND order_id=?");
+        PreparedStatement updItem = pc.prepare(
+            "UPDATE order_items SET item_id=?, quantity=?, line_price=? WHERE order_item_id=? AND order_id=?");
+        PreparedStatement insItem = pc.prepare(
+            "INSERT INTO order_items (order_id, item_id, quantity, line_price) VALUES (?, ?, ?, ?)");
+        PreparedStatement newItemIds = pc.prepare(
+            "SELECT order_item_id FROM order_items WHERE order_id=? ORDER BY order_item_id DESC FETCH FIRST ? ROWS ONLY");
+        SalesRollups rollups = new SalesRollups(pc);
+        OrderArchiver.Restore archived = new OrderArchiver.Restore(pc);
+
+        List<Order> inserted = new ArrayList<>(group.size());
+        List<Order> updated = new ArrayList<>();
+        List<OrderItem> insertedItems = new ArrayList<>();
+        Connection conn = pc.raw();
         conn.setAutoCommit(false);
         try {
-            if (order.getOrderId() == 0) {
-                // Insert order
-                String ins = "INSERT INTO orders (transaction_id, order_date, total) VALUES (?, ?, ?)";
-                try (PreparedStatement ps = conn.prepareStatement(ins, Statement.RETURN_GENERATED_KEYS)) {
-                    ps.setString(1, order.getTransactionId());
-                    ps.setTimestamp(2, order.getOrderDate());
-                    ps.setDouble(3, order.getTotal());
-                    ps.executeUpdate();
-                    ResultSet keys = ps.getGeneratedKeys();
-                    if (keys.next()) {
-                        int orderId = keys.getInt(1);
-                        order.setOrderId(orderId);
+            for (Order order : group) {
+                if (order.getOrderId() == 0) {
+                    // Insert order; headers go one by one because Derby only
+                    // returns the generated key of the last row of a batch
+                    insOrder.setString(1, order.getTransactionId());
+                    insOrder.setTimestamp(2, order.getOrderDate());
+                    insOrder.setBigDecimal(3, order.getTotal().toBigDecimal());
+                    insOrder.executeUpdate();
+                    try (ResultSet keys = insOrder.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            int orderId = keys.getInt(1);
+                            order.setOrderId(orderId);
+                            inserted.add(order);
+                        }
+                    }
+                    rollups.addOrder(order);
+                } else {
+                    // take the stored version out of the rollups before it changes;
+                    // an order deleted since it was loaded must not be saved as a no-op
+                    if (!removeStored(rollups, archived, order.getOrderId())) throw noSuchOrder(order);
+                    updated.add(order);
+                    updOrder.setString(1, order.getTransactionId());
+                    updOrder.setTimestamp(2, order.getOrderDate());
+                    updOrder.setBigDecimal(3, order.getTotal().toBigDecimal());
+                    updOrder.setInt(4, order.getOrderId());
+                    if (updOrder.executeUpdate() == 0) throw noSuchOrder(order);
+
+                    for (OrderItem oi : order.getRemovedItems()) {
+                        if (oi.isNew()) continue; // never stored
+                        delItem.setInt(1, oi.getOrderItemId());
+                        delItem.setInt(2, order.getOrderId());
+                        delItem.addBatch();
                     }
                 }
-            } else {
-                String upd = "UPDATE orders SET transaction_id=?, order_date=?, total=? WHERE order_id=?";
-                try (PreparedStatement ps = conn.prepareStatement(upd)) {
-                    ps.setString(1, order.getTransactionId());
-                    ps.setTimestamp(2, order.getOrderDate());
-                    ps.setDouble(3, order.getTotal());
-                    ps.setInt(4, order.getOrderId());
-                    ps.executeUpdate();
-                }
-                // remove existing order_items for update (simple approach)
-                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM order_items WHERE order_id=?")) {
-                    ps.setInt(1, order.getOrderId());
-                    ps.executeUpdate();
-                }
-            }
 
-            // Insert order items
-            String insItem = "INSERT INTO order_items (order_id, item_id, quantity, line_price) VALUES (?, ?, ?, ?)";
-            try (PreparedStatement ps = conn.prepareStatement(insItem)) {
+                // Queue line changes; one batch per statement for the whole group
                 for (OrderItem oi : order.getItems()) {
-                    ps.setInt(1, order.getOrderId());
-                    ps.setInt(2, oi.getMenuItem().getItemId());
-                    ps.setInt(3, oi.getQuantity());
-                    ps.setDouble(4, oi.getLinePrice());
-                    ps.addBatch();
+                    if (oi.isNew()) {
+                        insItem.setInt(1, order.getOrderId());
+                        insItem.setInt(2, oi.getMenuItem().getItemId());
+                        insItem.setInt(3, oi.getQuantity());
+                        insItem.setBigDecimal(4, oi.getLinePrice().toBigDecimal());
+                        insItem.addBatch();
+                    } else if (oi.isDirty()) {
+                        updItem.setInt(1, oi.getMenuItem().getItemId());
+                        updItem.setInt(2, oi.getQuantity());
+                        updItem.setBigDecimal(3, oi.getLinePrice().toBigDecimal());
+                        updItem.setInt(4, oi.getOrderItemId());
+                        updItem.setInt(5, order.getOrderId());
+                        updItem.addBatch();
+                    }
                 }
-                ps.executeBatch();
             }
+            delItem.executeBatch();
+            for (int n : updItem.executeBatch()) {
+                if (n == 0) throw new SQLException("An updated order line no longer exists", "02000");
+            }
+            insItem.executeBatch();
+
+            for (Order order : group) assignNewItemIds(newItemIds, order, insertedItems);
+            // count changed orders as now stored: lines left alone were not written from the model
+            for (Order order : updated) rollups.addStored(order.getOrderId());
+            rollups.apply();
 
             conn.commit();
         } catch (SQLException ex) {
             conn.rollback();
+            // ids generated inside the rolled-back transaction do not exist
+            for (Order o : inserted) o.setOrderId(0);
+            for (OrderItem oi : insertedItems) oi.setOrderItemId(0);
             throw ex;
         } finally {
             conn.setAutoCommit(true);
         }
+        for (Order order : group) order.markSaved();
+    }
+
+    private static SQLException noSuchOrder(Order order) {
+        return new SQLException("Order " + order.getOrderId() + " no longer exists; it cannot be updated", "02000");
+    }
+
+    /**
+     * Give the order's new lines the identities Derby generated for them, so
+     * the next save of this order is a diff. Batches do not return keys, but
+     * this transaction holds the order's header row lock, so the order's
+     * newest order_item_ids are exactly the lines just inserted, in order.
+     */
+    private static void assignNewItemIds(PreparedStatement newItemIds, Order order, List<OrderItem> assigned)
+            throws SQLException {
+        List<OrderItem> fresh = new ArrayList<>();
+        for (OrderItem oi : order.getItems()) if (oi.isNew()) fresh.add(oi);
+        if (fresh.isEmpty()) return;
+
+        newItemIds.setInt(1, order.getOrderId());
+        newItemIds.setInt(2, fresh.size());
+        try (ResultSet rs = newItemIds.executeQuery()) {
+            // newest first: fill from the last inserted line backwards
+            for (int i = fresh.size() - 1; i >= 0 && rs.next(); i--) {
+                OrderItem oi = fresh.get(i);
+                oi.setOrderItemId(rs.getInt(1));
+                assigned.add(oi);
+            }
+        }
     }
 
-    /** Delete order and its items */
-    public void deleteOrder(int orderId) throws SQLException {
+    /**
+     * Delete order and its items, and take it out of the sales rollups
+     * @return false if there was no such order
+     */
+    public boolean deleteOrder(int orderId) throws SQLException {
+        return DELETE_ORDER.time(() -> {
+            boolean[] deleted = new boolean[1];
+            try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                retryRolledBack(() -> deleted[0] = deleteOrder(pc, orderId));
+            }
+            if (deleted[0]) {
+                for (DataChangeListener l : listeners) l.orderDeleted(orderId);
+            }
+            return deleted[0];
+        });
+    }
+
+    /** @return false if there was no such order */
+    private boolean deleteOrder(ConnectionPool.PooledConnection pc, int orderId) throws SQLException {
+        PreparedStatement items = pc.prepare("DELETE FROM order_items WHERE order_id=?");
+        PreparedStatement header = pc.prepare("DELETE FROM orders WHERE order_id=?");
+        SalesRollups rollups = new SalesRollups(pc);
+        OrderArchiver.Restore archived = new OrderArchiver.Restore(pc);
+
+        Connection conn = pc.raw();
         conn.setAutoCommit(false);
         try {
-            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM order_items WHERE order_id=?")) {
-                ps.setInt(1, orderId);
-                ps.executeUpdate();
-            }
-            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM orders WHERE order_id=?")) {
-                ps.setInt(1, orderId);
-                ps.executeUpdate();
+            // locks the header first, like saves do, then reads what is being removed
+            if (!removeStored(rollups, archived, orderId)) {
+                conn.rollback();
+                return false;
             }
+            items.setInt(1, orderId);
+            items.executeUpdate();
+            header.setInt(1, orderId);
+            header.executeUpdate();
+            rollups.apply();
             conn.commit();
+            return true;
         } catch (SQLException ex) {
             conn.rollback();
             throw ex;
@@ -208,66 +616,466 @@ public class DBHelper {
         }
     }
 
-    /** Read all orders (basic info) */
+    /**
+     * rollups.removeStored, first moving the order back from the archive if
+     * that is where it is (or where it was when the live read missed it).
+     */
+    private static boolean removeStored(SalesRollups rollups, OrderArchiver.Restore archived, int orderId)
+            throws SQLException {
+        if (rollups.removeStored(orderId)) return true;
+        // read again even if not restored here: another writer may just have restored it
+        archived.restore(orderId);
+        return rollups.removeStored(orderId);
+    }
+
+    /** Attempts per write transaction when Derby rolls it back (deadlock, lock timeout) */
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+
+    /** One write transaction; must roll back and leave models as they were on failure */
+    interface WriteTxn {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Run the transaction again when Derby chose it as a deadlock victim or
+     * rolled it back on lock contention (SQLState class 40), e.g. two
+     * registers adding to the same sales rollup rows. Derby also fails
+     * identity inserts fast with 40XL1 while another transaction recompiles a
+     * statement on the same table (stale plan check), holding catalog locks
+     * until it commits; a short randomized wait clears both.
+     */
+    static void retryRolledBack(WriteTxn txn) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                txn.run();
+                return;
+            } catch (SQLException ex) {
+                String state = ex.getSQLState();
+                if (attempt == MAX_WRITE_ATTEMPTS || state == null || !state.startsWith("40")) throw ex;
+            }
+            try {
+                // back off a little so the competing transaction can finish
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 1 + (5 << attempt)));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted before retrying a rolled back transaction", "40001", ie);
+            }
+        }
+    }
+
+    private static final String ORDER_COLUMNS = "SELECT order_id, transaction_id, order_date, total FROM orders ";
+    private static final String ARCHIVED_ORDER_COLUMNS =
+        "SELECT order_id, transaction_id, order_date, total FROM orders_archive ";
+    private static final String NEWEST_FIRST = " ORDER BY order_date DESC, order_id DESC";
+
+    /**
+     * Read all live orders (basic info), newest first; archived orders are
+     * not included (see OrderArchiver).
+     * Prefer getOrdersPage or forEachOrder for large tables.
+     */
     public List<Order> getAllOrders() throws SQLException {
-        List<Order> list = new ArrayList<>();
-        String q = "SELECT order_id, transaction_id, order_date, total FROM orders ORDER BY order_date DESC";
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(q)) {
-            while (rs.next()) {
-                Order o = new Order();
-                o.setOrderId(rs.getInt("order_id"));
-                o.setTransactionId(rs.getString("transaction_id"));
-                o.setOrderDate(rs.getTimestamp("order_date"));
-                o.recalcTotal();
-                list.add(o);
+        return GET_ALL_ORDERS.time(() -> {
+            List<Order> list = new ArrayList<>();
+            streamOrders(list::add);
+            return list;
+        });
+    }
+
+    /**
+     * One page of live orders, newest first, using a keyset cursor on
+     * (order_date, order_id) so deep pages cost the same as the first.
+     *
+     * @param after last order of the previous page, or null for the first page
+     * @param limit max rows to return
+     */
+    public List<Order> getOrdersPage(Order after, int limit) throws SQLException {
+        return GET_ORDERS_PAGE.time(() -> {
+            List<Order> list = new ArrayList<>(Math.min(limit, 1024));
+            try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                PreparedStatement ps;
+                if (after == null) {
+                    ps = pc.prepare(ORDER_COLUMNS + NEWEST_FIRST + " FETCH FIRST ? ROWS ONLY");
+                    ps.setInt(1, limit);
+                } else if (after.getOrderDate() == null) {
+                    // undated orders sort first (Derby puts NULL above any date): the
+                    // rest of them, then every dated order
+                    ps = pc.prepare(ORDER_COLUMNS + "WHERE order_date IS NOT NULL OR order_id < ?" + NEWEST_FIRST +
+                        " FETCH FIRST ? ROWS ONLY");
+                    ps.setInt(1, after.getOrderId());
+                    ps.setInt(2, limit);
+                } else {
+                    ps = pc.prepare(ORDER_COLUMNS +
+                        "WHERE order_date < ? OR (order_date = ? AND order_id < ?)" + NEWEST_FIRST +
+                        " FETCH FIRST ? ROWS ONLY");
+                    ps.setTimestamp(1, after.getOrderDate());
+                    ps.setTimestamp(2, after.getOrderDate());
+                    ps.setInt(3, after.getOrderId());
+                    ps.setInt(4, limit);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) list.add(readOrderHeader(rs));
+                }
             }
+            return list;
+        });
+    }
+
+    /**
+     * Stream every live order, newest first, to the callback as rows are read.
+     * Nothing is accumulated, so this works for any table size; the callback
+     * runs while a pooled connection is held, so keep it short.
+     */
+    public void forEachOrder(Consumer<Order> action) throws SQLException {
+        FOR_EACH_ORDER.run(() -> streamOrders(action));
+    }
+
+    /** forEachOrder without its timing, for operations that are timed themselves */
+    private void streamOrders(Consumer<Order> action) throws SQLException {
+        try (ConnectionPool.PooledConnection pc = pool.borrow();
+             ResultSet rs = pc.prepare(ORDER_COLUMNS + NEWEST_FIRST).executeQuery()) {
+            while (rs.next()) action.accept(readOrderHeader(rs));
         }
-        return list;
     }
 
-    /** Load items for a given order */
+    /** Stream live orders with from <= order_date < to, newest first */
+    public void forEachOrder(Timestamp from, Timestamp to, Consumer<Order> action) throws SQLException {
+        FOR_EACH_ORDER.run(() -> {
+            try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                PreparedStatement ps = pc.prepare(ORDER_COLUMNS + "WHERE order_date >= ? AND order_date < ?" + NEWEST_FIRST);
+                ps.setTimestamp(1, from);
+                ps.setTimestamp(2, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) action.accept(readOrderHeader(rs));
+                }
+            }
+        });
+    }
+
+    /** Order header from an ORDER_COLUMNS row; total is the stored column (items are not loaded) */
+    private static Order readOrderHeader(ResultSet rs) throws SQLException {
+        Order o = new Order();
+        o.setOrderId(rs.getInt("order_id"));
+        o.setTransactionId(rs.getString("transaction_id"));
+        o.setOrderDate(rs.getTimestamp("order_date"));
+        o.setTotal(Money.of(rs.getBigDecimal("total")));
+        return o;
+    }
+
+    /**
+     * One stored order with its items, live or archived, ready to edit and
+     * save again, or null if there is no such order.
+     */
+    public Order getOrder(int orderId) throws SQLException {
+        return GET_ORDER.time(() -> complete(findHeader("WHERE order_id = ?", orderId)));
+    }
+
+    /** Like getOrder, by transaction id (OD-yyyyMMdd-nnnn) */
+    public Order getOrderByTransactionId(String transactionId) throws SQLException {
+        return GET_ORDER_BY_TXN.time(() -> complete(findHeader("WHERE transaction_id = ?", transactionId)));
+    }
+
+    /** Header from orders, else from orders_archive; null if in neither */
+    private Order findHeader(String where, Object key) throws SQLException {
+        try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+            for (String columns : new String[]{ORDER_COLUMNS, ARCHIVED_ORDER_COLUMNS}) {
+                PreparedStatement ps = pc.prepare(columns + where);
+                ps.setObject(1, key);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) return readOrderHeader(rs);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Load the lines of a header from findHeader (null stays null) */
+    private Order complete(Order o) throws SQLException {
+        if (o == null) return null;
+        for (OrderItem oi : readOrderItems(o.getOrderId())) o.addStoredItem(oi);
+        o.markSaved();
+        return o;
+    }
+
+    /** Load items for a given order, live or archived */
     public List<OrderItem> getOrderItems(int orderId) throws SQLException {
+        return GET_ORDER_ITEMS.time(() -> readOrderItems(orderId));
+    }
+
+    /** getOrderItems without its timing, for operations that are timed themselves */
+    private List<OrderItem> readOrderItems(int orderId) throws SQLException {
         List<OrderItem> list = new ArrayList<>();
-        String q = "SELECT oi.order_item_id, oi.quantity, oi.line_price, mi.item_id, mi.name, mi.price, mi.description " +
-                   "FROM order_items oi JOIN menu_items mi ON oi.item_id = mi.item_id WHERE oi.order_id = ?";
-        try (PreparedStatement ps = conn.prepareStatement(q)) {
-            ps.setInt(1, orderId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    MenuItem m = new MenuItem(
-                        rs.getInt("item_id"),
-                        rs.getString("name"),
-                        rs.getDouble("price"),
-                        rs.getString("description")
-                    );
-                    OrderItem oi = new OrderItem(m, rs.getInt("quantity"));
-                    oi.setOrderItemId(rs.getInt("order_item_id"));
-                    oi.setOrderId(orderId);
-                    list.add(oi);
+        try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+            MenuResolver menu = new MenuResolver();
+            // lines move with their header in one transaction: none live means
+            // archived (already, or since the header was read) or no lines at all
+            for (String columns : new String[]{LINE_COLUMNS, ARCHIVED_LINE_COLUMNS}) {
+                PreparedStatement ps = pc.prepare(columns + "WHERE order_id = ? ORDER BY order_item_id");
+                ps.setInt(1, orderId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) list.add(readLine(rs, menu));
                 }
+                if (!list.isEmpty()) break;
             }
         }
         return list;
     }
 
-    /* ------------------ Utility: transaction id generation ------------------ */
+    /* ------------------ Bulk hydration ------------------ */
 
+    private static final String LINE_COLUMNS =
+        "SELECT order_item_id, order_id, item_id, quantity, line_price FROM order_items ";
+    private static final String ARCHIVED_LINE_COLUMNS =
+        "SELECT order_item_id, order_id, item_id, quantity, line_price FROM order_items_archive ";
     /**
-     * Generate next transaction sequence for today's date (simple approach:
-     * counts how many orders have today's date prefix)
+     * IN-list widths. A chunk is padded up to the next width by repeating its
+     * last id, so each query compiles (and is cached) at most once per width.
      */
-    public String generateNextTransactionId() throws SQLException {
-        String todayPrefix = new java.text.SimpleDateFormat("yyyyMMdd").format(new java.util.Date());
-        String like = "OD-" + todayPrefix + "%";
-        String q = "SELECT COUNT(*) AS cnt FROM orders WHERE transaction_id LIKE ?";
-        try (PreparedStatement ps = conn.prepareStatement(q)) {
-            ps.setString(1, like);
+    private static final int[] IN_LIST_SIZES = {16, 128, 512};
+
+    /**
+     * Complete orders (headers and items) for the given ids, live or
+     * archived, in the order the ids are given. Unknown and repeated ids are
+     * skipped. Two queries per chunk of up to 512 ids instead of one per
+     * order, and two more per chunk of ids not found live; menu items are
+     * shared with the menu cache.
+     */
+    public List<Order> getOrders(Collection<Integer> orderIds) throws SQLException {
+        return GET_ORDERS.time(() -> {
+            IntIntMap index = new IntIntMap(orderIds.size());
+            int[] ids = new int[orderIds.size()];
+            int count = 0;
+            for (int id : orderIds) {
+                if (id != 0 && !index.containsKey(id)) {
+                    index.put(id, count);
+                    ids[count++] = id;
+                }
+            }
+            int n = count;
+            Order[] found = acrossArchive(() -> {
+                Order[] orders = new Order[n];
+                MenuResolver menu = new MenuResolver();
+                try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                    int missing = hydrate(pc, ordersByIdQuery,
+                        LINE_COLUMNS + "--DERBY-PROPERTIES index=idx_order_items_order\n", ids, n, index, orders, menu);
+                    if (missing > 0) {
+                        int[] rest = new int[missing];
+                        int m = 0;
+                        for (int i = 0; i < n; i++) if (orders[i] == null) rest[m++] = ids[i];
+                        hydrate(pc, archivedByIdQuery,
+                            ARCHIVED_LINE_COLUMNS + "--DERBY-PROPERTIES constraint=fk_archived_order\n",
+                            rest, m, index, orders, menu);
+                    }
+                }
+                return orders;
+            });
+            List<Order> list = new ArrayList<>(n);
+            for (Order o : found) {
+                if (o == null) continue;
+                o.markSaved();
+                list.add(o);
+            }
+            return list;
+        });
+    }
+
+    /**
+     * getOrders(ids) over one pair of tables: headers, then lines, per chunk
+     * of ids[0..n), each order stored in found at its position in index.
+     * @return how many of the ids had no header
+     */
+    private static int hydrate(ConnectionPool.PooledConnection pc, String headers, String lines, int[] ids, int n,
+                               IntIntMap index, Order[] found, MenuResolver menu) throws SQLException {
+        int max = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+        int hits = 0;
+        for (int from = 0; from < n; from += max) {
+            int to = Math.min(n, from + max);
+            String in = inList(to - from);
+            PreparedStatement ps = pc.prepare(headers + "WHERE order_id IN " + in);
+            bindIds(ps, ids, from, to);
             try (ResultSet rs = ps.executeQuery()) {
-                int count = 0;
-                if (rs.next()) count = rs.getInt("cnt");
-                // next sequence = count+1
-                return DateUtils.generateTransactionId(count + 1);
+                while (rs.next()) {
+                    Order o = readOrderHeader(rs);
+                    found[index.get(o.getOrderId(), -1)] = o;
+                    hits++;
+                }
+            }
+            ps = pc.prepare(lines + "WHERE order_id IN " + in + " ORDER BY order_item_id");
+            bindIds(ps, ids, from, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    // null if the order was deleted before its header was read
+                    Order o = found[index.get(rs.getInt("order_id"), -1)];
+                    if (o != null) o.addStoredItem(readLine(rs, menu));
+                }
+            }
+        }
+        return n - hits;
+    }
+
+    /**
+     * Complete orders with from <= order_date < to, live and archived,
+     * newest first, in two range queries per table (headers, then all of
+     * their lines) whatever the count. Everything is held in memory, so keep
+     * the range to a shift or a day; use forEachOrder for headers over
+     * longer spans.
+     */
+    public List<Order> getOrders(Timestamp from, Timestamp to) throws SQLException {
+        return GET_ORDERS.time(() -> acrossArchive(() -> {
+            List<Order> list = new ArrayList<>();
+            MenuResolver menu = new MenuResolver();
+            try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+                readHeaders(pc.prepare(ORDER_COLUMNS + "WHERE order_date >= ? AND order_date < ?" + NEWEST_FIRST),
+                    from, to, list);
+                int live = list.size();
+                readHeaders(pc.prepare(ARCHIVED_ORDER_COLUMNS + "WHERE order_date >= ? AND order_date < ?" + NEWEST_FIRST),
+                    from, to, list);
+                if (list.isEmpty()) return list;
+                boolean archived = list.size() > live;
+                if (archived && live > 0) {
+                    list.sort(Comparator.comparing(Order::getOrderDate).thenComparingInt(Order::getOrderId).reversed());
+                }
+                IntIntMap index = new IntIntMap(list.size());
+                for (int i = 0; i < list.size(); i++) index.put(list.get(i).getOrderId(), i);
+
+                // an IN subquery drives from idx_orders_date; Derby plans the equivalent JOIN as a scan of order_items
+                if (live > 0) {
+                    readLines(pc.prepare(LINE_COLUMNS + "WHERE order_id IN " +
+                        "(SELECT order_id FROM orders WHERE order_date >= ? AND order_date < ?) ORDER BY order_item_id"),
+                        from, to, list, index, menu);
+                }
+                if (archived) {
+                    readLines(pc.prepare(ARCHIVED_LINE_COLUMNS + "WHERE order_id IN " +
+                        "(SELECT order_id FROM orders_archive WHERE order_date >= ? AND order_date < ?) ORDER BY order_item_id"),
+                        from, to, list, index, menu);
+                }
+            }
+            for (Order o : list) o.markSaved();
+            return list;
+        }));
+    }
+
+    /** Append the headers of a date range query to list */
+    private static void readHeaders(PreparedStatement ps, Timestamp from, Timestamp to, List<Order> list)
+            throws SQLException {
+        ps.setTimestamp(1, from);
+        ps.setTimestamp(2, to);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                list.add(readOrderHeader(rs));
             }
         }
     }
+
+    /** Add the lines of a date range query to their orders in list */
+    private static void readLines(PreparedStatement ps, Timestamp from, Timestamp to, List<Order> list,
+                                  IntIntMap index, MenuResolver menu) throws SQLException {
+        ps.setTimestamp(1, from);
+        ps.setTimestamp(2, to);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                // orders committed between the two queries are not in the header list
+                int i = index.get(rs.getInt("order_id"), -1);
+                if (i >= 0) list.get(i).addStoredItem(readLine(rs, menu));
+            }
+        }
+    }
+
+    /** A read made of several queries over live and archived orders */
+    private interface ArchiveRead<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Run a read so that it sees each order before or after an archive batch
+     * moved it, never half moved: optimistically first, then, if a batch ran
+     * meanwhile, again holding archiveLock so the next batch waits for it.
+     * A write restoring an archived order is not covered; that order may be
+     * read without its lines.
+     */
+    private <T> T acrossArchive(ArchiveRead<T> read) throws SQLException {
+        long stamp = archiveLock.tryOptimisticRead();
+        if (stamp != 0) {
+            T result = read.run();
+            if (archiveLock.validate(stamp)) return result;
+        }
+        stamp = archiveLock.readLock();
+        try {
+            return read.run();
+        } finally {
+            archiveLock.unlockRead(stamp);
+        }
+    }
+
+    /** "(?, ?, ...)" padded to the IN_LIST_SIZES width that fits count */
+    static String inList(int count) {
+        int width = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+        for (int w : IN_LIST_SIZES) {
+            if (count <= w) { width = w; break; }
+        }
+        StringBuilder sb = new StringBuilder(width * 3).append('(');
+        for (int i = 0; i < width; i++) sb.append(i == 0 ? "?" : ", ?");
+        return sb.append(')').toString();
+    }
+
+    /** Bind ids[from..to) and repeat the last one into the padding */
+    static void bindIds(PreparedStatement ps, int[] ids, int from, int to) throws SQLException {
+        int params = ps.getParameterMetaData().getParameterCount();
+        for (int i = 0; i < params; i++) ps.setInt(i + 1, ids[Math.min(from + i, to - 1)]);
+    }
+
+    /** Saved line from a LINE_COLUMNS row, at its stored line price */
+    private static OrderItem readLine(ResultSet rs, MenuResolver menu) throws SQLException {
+        OrderItem oi = new OrderItem(menu.get(rs.getInt("item_id")), rs.getInt("quantity"),
+            Money.of(rs.getBigDecimal("line_price")).getCents());
+        oi.setOrderItemId(rs.getInt("order_item_id"));
+        oi.setOrderId(rs.getInt("order_id"));
+        oi.markClean();
+        return oi;
+    }
+
+    /**
+     * Menu items for loaded lines, taken from the menu cache so every line
+     * for the same item shares one MenuItem. An id the snapshot does not know
+     * (added behind the cache's back) reloads the menu once.
+     */
+    private final class MenuResolver {
+        private MenuCache.Snapshot snapshot;
+        private boolean reloaded;
+
+        MenuItem get(int itemId) throws SQLException {
+            if (snapshot == null) snapshot = menuSnapshot();
+            MenuItem m = snapshot.get(itemId);
+            if (m == null && !reloaded) {
+                reloaded = true;
+                menuCache.invalidate();
+                snapshot = menuSnapshot();
+                m = snapshot.get(itemId);
+            }
+            if (m == null) throw new SQLException("Order line refers to unknown menu item " + itemId, "23503");
+            return m;
+        }
+    }
+
+    /* ------------------ Utility: transaction id generation ------------------ */
+
+    /**
+     * Get the first order save of the day ready ahead of time: reserve
+     * today's transaction ids and compile every statement a save runs (Derby
+     * shares compiled plans between connections). Writes nothing.
+     */
+    public void warmUp() throws SQLException {
+        txnIds.prefetch();
+        try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+            writeOrderGroup(pc, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Generate the next transaction id for today's date. Ids come from
+     * blocks reserved in txn_counters, so this is O(1) and unique across
+     * concurrent registers.
+     */
+    public String generateNextTransactionId() throws SQLException {
+        return GENERATE_TXN_ID.time(() -> txnIds.next());
+    }
 }
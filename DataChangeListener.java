@@ -0,0 +1,33 @@
+package oakdonuts;
+
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Order;
+
+/**
+ * Header: DataChangeListener.java
+ * Told by DBHelper about every menu and order write once it has committed.
+ *
+ * Callbacks run on the thread that committed (a caller, the group commit
+ * thread or the journal writer), in commit order for each kind of data.
+ * They must return quickly and not call back into DBHelper; Swing code
+ * should copy what it needs and hand it to the EDT.
+ */
+public interface DataChangeListener {
+    /**
+     * A menu item was inserted or updated. The item is the one now in the
+     * menu cache: shared, treat it as read-only.
+     */
+    default void menuItemSaved(MenuItem item) {}
+
+    /** A menu item was deleted */
+    default void menuItemDeleted(int itemId) {}
+
+    /**
+     * An order was inserted or updated. The Order is the caller's model and
+     * may change after this returns: read the fields needed right away.
+     */
+    default void orderSaved(Order order) {}
+
+    /** An order and its lines were deleted */
+    default void orderDeleted(int orderId) {}
+}
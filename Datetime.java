@@ -1,20 +1,57 @@
 package oakdonuts.utils;
 
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /**
  * Small utilities for date formatting and transaction id generation.
  */
 public class DateUtils {
+    /** yyyyMMdd; DateTimeFormatter is immutable so one instance is shared by all threads */
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /** Cached business day, replaced when the clock passes midnight */
+    private static volatile Day currentDay;
+
+    private static final class Day {
+        final String key;
+        final long endMillis;
+
+        Day(String key, long endMillis) {
+            this.key = key;
+            this.endMillis = endMillis;
+        }
+    }
+
     /**
      * Generate a transaction id string given an incremental number.
      * Example: OD-20251112-0001
      */
     public static String generateTransactionId(int seq) {
-        String datePart = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        return String.format("OD-%s-%04d", datePart, seq);
+        return generateTransactionId(today(), seq);
+    }
+
+    /** Transaction id for an explicit business day (yyyyMMdd) */
+    public static String generateTransactionId(String day, int seq) {
+        StringBuilder sb = new StringBuilder(16).append("OD-").append(day).append('-');
+        for (int width = 1000; width > 1 && seq < width; width /= 10) sb.append('0');
+        return sb.append(seq).toString();
+    }
+
+    /** Today's business day as yyyyMMdd (local time zone); only formats once per day */
+    public static String today() {
+        Day d = currentDay;
+        long now = System.currentTimeMillis();
+        if (d == null || now >= d.endMillis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = LocalDate.now(zone);
+            long end = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            d = new Day(date.format(DAY_FORMAT), end);
+            currentDay = d;
+        }
+        return d.key;
     }
 
     /** Convert current time to SQL Timestamp */
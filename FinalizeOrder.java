@@ -2,18 +2,25 @@ package oakdonuts.models;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Header: Order.java
  * Purpose: holds order-level information and order items
+ *
+ * The total is kept in cents and updated incrementally as lines are added,
+ * removed or change quantity, so building an order is O(n) overall.
+ * Removed lines are remembered until the next save so only the changed
+ * rows need to be written (see OrderItem.isNew/isDirty).
  */
 public class Order {
     private int orderId;
     private String transactionId;
     private Timestamp orderDate;
-    private double total;
+    private long totalCents;
     private List<OrderItem> items = new ArrayList<>();
+    private List<OrderItem> removedItems = new ArrayList<>();
 
     // Constructors
     public Order() {}
@@ -26,17 +33,46 @@ public class Order {
     // Methods
     public void addItem(OrderItem item) {
         items.add(item);
-        recalcTotal();
+        item.setOwner(this);
+        totalCents = Math.addExact(totalCents, item.getLinePriceCents());
+    }
+
+    /** Attach a line loaded with its stored order: the stored total already counts it */
+    public void addStoredItem(OrderItem item) {
+        items.add(item);
+        item.setOwner(this);
     }
 
     public void removeItem(OrderItem item) {
-        items.remove(item);
-        recalcTotal();
+        if (items.remove(item)) {
+            item.setOwner(null);
+            removedItems.add(item);
+            totalCents = Math.subtractExact(totalCents, item.getLinePriceCents());
+        }
     }
 
+    /** Re-sum the total from the lines (not needed after addItem/removeItem/setQuantity) */
     public void recalcTotal() {
-        total = 0.0;
-        for (OrderItem oi : items) total += oi.getLinePrice();
+        long sum = 0;
+        for (OrderItem oi : items) sum = Math.addExact(sum, oi.getLinePriceCents());
+        totalCents = sum;
+    }
+
+    /** Lines removed since the last save; those already stored need a DELETE */
+    public List<OrderItem> getRemovedItems() { return Collections.unmodifiableList(removedItems); }
+
+    /** Called once the order has been written: every line is now clean */
+    public void markSaved() {
+        removedItems.clear();
+        for (OrderItem oi : items) {
+            oi.setOrderId(orderId);
+            oi.markClean();
+        }
+    }
+
+    /** Called by an owned OrderItem whose line price changed */
+    void lineChanged(long deltaCents) {
+        totalCents = Math.addExact(totalCents, deltaCents);
     }
 
     // Getters/setters
@@ -49,6 +85,11 @@ public class Order {
     public Timestamp getOrderDate() { return orderDate; }
     public void setOrderDate(Timestamp orderDate) { this.orderDate = orderDate; }
 
-    public double getTotal() { return total; }
+    public Money getTotal() { return Money.ofCents(totalCents); }
+    public long getTotalCents() { return totalCents; }
+    /** Set the stored total (e.g. an order header read without its items) */
+    public void setTotal(Money total) { this.totalCents = total.getCents(); }
+
+    /** Lines in order; add and remove through addItem/removeItem so the total stays right */
     public List<OrderItem> getItems() { return items; }
 }
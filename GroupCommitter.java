@@ -0,0 +1,142 @@
+package oakdonuts;
+
+import oakdonuts.models.Order;
+import oakdonuts.utils.TaskExecutors;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Header: GroupCommitter.java
+ * Coalesces concurrent saveOrder calls into shared transactions.
+ *
+ * Callers enqueue their order and block. A single committer thread takes the
+ * first waiting order, collects whatever else arrives within the window (up
+ * to the group size), writes the group in one transaction and wakes every
+ * caller. If the shared transaction fails, each order of the group is retried
+ * on its own so one bad order only fails its own caller.
+ */
+class GroupCommitter implements AutoCloseable {
+    private final DBHelper db;
+    private final long windowNanos;
+    private final int maxGroupSize;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    private static final class Pending {
+        final Order order;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Order order) { this.order = order; }
+    }
+
+    GroupCommitter(DBHelper db, long windowMicros, int maxGroupSize) {
+        if (maxGroupSize <= 0) throw new IllegalArgumentException("group size must be positive: " + maxGroupSize);
+        this.db = db;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+        this.maxGroupSize = maxGroupSize;
+        this.committer = TaskExecutors.daemonThreads("group-commit").newThread(this::run);
+        committer.start();
+    }
+
+    /** Enqueue the order and wait until the group it joined has committed */
+    void save(Order order) throws SQLException {
+        Pending p = new Pending(order);
+        queue.add(p);
+        if (!running && queue.remove(p)) throw new SQLException("Group commit has been stopped");
+        try {
+            p.done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for group commit", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            throw new SQLException(cause);
+        }
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>(maxGroupSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                group.add(first);
+                queue.drainTo(group, maxGroupSize - group.size());
+
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < maxGroupSize) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Pending next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    group.add(next);
+                }
+            } catch (InterruptedException ex) {
+                // with the flag set again every poll would throw at once: commit what
+                // is queued without blocking (and without the flag, which Derby may
+                // answer by aborting the commit), then leave
+                running = false;
+                if (!group.isEmpty()) commit(group);
+                group.clear();
+                while (queue.drainTo(group, maxGroupSize) > 0) {
+                    commit(group);
+                    group.clear();
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!group.isEmpty()) commit(group);
+            group.clear();
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        List<Order> orders = new ArrayList<>(group.size());
+        for (Pending p : group) orders.add(p.order);
+        try {
+            db.saveOrderGroup(orders);
+            for (Pending p : group) p.done.complete(null);
+            return;
+        } catch (SQLException ex) {
+            if (group.size() == 1) {
+                group.get(0).done.completeExceptionally(ex);
+                return;
+            }
+        } catch (RuntimeException ex) {
+            for (Pending p : group) p.done.completeExceptionally(ex);
+            return;
+        }
+
+        // shared transaction failed: isolate the culprit
+        for (Pending p : group) {
+            try {
+                db.saveOrderGroup(Collections.singletonList(p.order));
+                p.done.complete(null);
+            } catch (SQLException | RuntimeException ex) {
+                p.done.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /** Stop accepting saves, commit what is queued and stop the committer thread */
+    @Override
+    public void close() {
+        // not interrupted: Derby may abort a connection interrupted mid-commit
+        running = false;
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Pending p;
+        while ((p = queue.poll()) != null) {
+            p.done.completeExceptionally(new SQLException("Group commit stopped before the order was saved"));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package oakdonuts.models;
+
+/**
+ * Header: ItemSales.java
+ * Model: units sold and revenue of one menu item over a period (read-only)
+ */
+public class ItemSales {
+    private final int itemId;
+    private final String name;
+    private final long quantity;
+    private final Money revenue;
+
+    public ItemSales(int itemId, String name, long quantity, Money revenue) {
+        this.itemId = itemId;
+        this.name = name;
+        this.quantity = quantity;
+        this.revenue = revenue;
+    }
+
+    public int getItemId() { return itemId; }
+
+    public String getName() { return name; }
+
+    public long getQuantity() { return quantity; }
+
+    public Money getRevenue() { return revenue; }
+
+    @Override
+    public String toString() {
+        return name + " x" + quantity + " ($" + revenue + ")";
+    }
+}
@@ -0,0 +1,82 @@
+package oakdonuts.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Header: LatencyHistogram.java
+ * Lock-free log-linear histogram of durations in nanoseconds.
+ *
+ * Each power of two is split into 8 linear sub-buckets, so a recorded value
+ * is reported within 12.5% of its true value while the whole range of a long
+ * fits in 488 counters. Recording is one atomic increment; readers take a
+ * copy of the counters and compute percentiles from it.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    /** Copy of the bucket counters (not an atomic snapshot across buckets) */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+        return copy;
+    }
+
+    /** Clear all buckets; values recorded concurrently may or may not survive */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Largest value that falls into the bucket */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        long lower = (1L << exp) + (bucket % SUB_BUCKETS) * width;
+        return lower + (width - 1);
+    }
+
+    /** Total number of values in a snapshot */
+    public static long count(long[] snapshot) {
+        long n = 0;
+        for (long c : snapshot) n += c;
+        return n;
+    }
+
+    /**
+     * Value below which a fraction p (0..1) of a snapshot's values fall,
+     * reported as the upper bound of its bucket; 0 for an empty snapshot.
+     */
+    public static long percentile(long[] snapshot, double p) {
+        long total = count(snapshot);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBoundOf(i);
+        }
+        return upperBoundOf(snapshot.length - 1);
+    }
+
+    /** Bucket-wise difference now - before, i.e. what was recorded in between */
+    public static long[] delta(long[] now, long[] before) {
+        long[] d = new long[now.length];
+        for (int i = 0; i < now.length; i++) d[i] = Math.max(0, now[i] - before[i]);
+        return d;
+    }
+}
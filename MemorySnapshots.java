@@ -0,0 +1,183 @@
+package oakdonuts;
+
+import oakdonuts.metrics.Metrics;
+import oakdonuts.metrics.OperationStats;
+import oakdonuts.utils.TaskExecutors;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Header: MemorySnapshots.java
+ * Store database kept in memory (Derby's memory: subprotocol), saved to one
+ * snapshot file now and then: for tests, demos and pop-up stands that do
+ * not need every order synced to disk.
+ *
+ * open() restores the database from the snapshot if there is one. A
+ * snapshot is Derby's backup of the database, zipped into a temporary file,
+ * synced to disk and moved over the previous one (then the directory is
+ * synced, where the platform allows), so the file always holds a complete
+ * snapshot, even after a power cut. Orders saved after the last snapshot are lost if the process
+ * dies: take one at shutdown (MainApp does) and pick the interval to match
+ * what a stand can afford to re-enter.
+ */
+public class MemorySnapshots implements AutoCloseable {
+    public static final String DEFAULT_FILE = "oddb-snapshot.zip";
+
+    private static final OperationStats SNAPSHOT = Metrics.global().stats("db.snapshot");
+
+    private final DBHelper db;
+    private final Path file;
+    private ScheduledExecutorService scheduler;
+
+    public MemorySnapshots(DBHelper db, Path file) {
+        this.db = db;
+        this.file = file.toAbsolutePath();
+    }
+
+    /**
+     * Open the in-memory database of that name, restored from the snapshot
+     * file if it exists and the database is not open in this JVM already.
+     * A snapshot that cannot be read fails the open: starting empty would
+     * let the next snapshot overwrite it.
+     */
+    public static DBHelper open(String name, Path file, int poolSize) throws SQLException {
+        String url = "jdbc:derby:memory:" + name;
+        if (Files.exists(file)) restore(url, file);
+        return new DBHelper(url + ";create=true", poolSize, DBHelper.DEFAULT_WAIT_TIMEOUT_MS);
+    }
+
+    /** Save a snapshot now, replacing the previous one */
+    public synchronized void snapshotNow() throws SQLException {
+        SNAPSHOT.run(() -> {
+            Path scratch = null;
+            try {
+                scratch = Files.createTempDirectory("oakdonuts-snapshot");
+                try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+                    PreparedStatement backup = pc.prepare("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+                    backup.setString(1, scratch.toString());
+                    backup.execute();
+                }
+                Path partial = file.resolveSibling(file.getFileName() + ".part");
+                zip(BackupManager.databaseCopy(scratch), partial);
+                Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(file.getParent());
+            } catch (IOException ex) {
+                throw new SQLException("Cannot write snapshot " + file, ex);
+            } finally {
+                if (scratch != null) deleteQuietly(scratch);
+            }
+        });
+    }
+
+    /** Snapshot once per interval on a daemon thread. Replaces an earlier schedule. */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (interval <= 0) throw new IllegalArgumentException("interval must be positive: " + interval);
+        close();
+        scheduler = Executors.newSingleThreadScheduledExecutor(TaskExecutors.daemonThreads("db-snapshot"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshotNow();
+            } catch (SQLException | RuntimeException ex) {
+                // an exception would cancel all further runs; the previous snapshot is still whole
+                System.err.println("Database snapshot failed: " + ex);
+            }
+        }, interval, interval, unit);
+    }
+
+    /** Stop the schedule; takes no final snapshot */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private static void restore(String url, Path file) throws SQLException {
+        Path scratch = null;
+        try {
+            scratch = Files.createTempDirectory("oakdonuts-restore");
+            Path copy = scratch.resolve("db");
+            unzip(file, copy);
+            // createFrom is ignored (with a warning) if the database exists already
+            DriverManager.getConnection(url + ";createFrom=" + copy).close();
+        } catch (IOException ex) {
+            throw new SQLException("Cannot read snapshot " + file, ex);
+        } finally {
+            if (scratch != null) deleteQuietly(scratch);
+        }
+    }
+
+    /** Zip dir into target and sync it, so the rename never lands before the data */
+    private static void zip(Path dir, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+             Stream<Path> files = Files.walk(dir)) {
+            // Derby pages are mostly empty space; the fastest level already shrinks them a lot
+            zip.setLevel(Deflater.BEST_SPEED);
+            for (Path f : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                zip.putNextEntry(new ZipEntry(dir.relativize(f).toString().replace('\\', '/')));
+                Files.copy(f, zip);
+                zip.closeEntry();
+            }
+            zip.finish();
+            zip.flush();
+            channel.force(true);
+        }
+    }
+
+    /** Make a rename in dir durable; not every platform can open a directory (Windows cannot) */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // best effort: the snapshot itself is on disk
+        }
+    }
+
+    private static void unzip(Path file, Path dir) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file))) {
+            ZipEntry e;
+            while ((e = zip.getNextEntry()) != null) {
+                Path target = dir.resolve(e.getName()).normalize();
+                if (!target.startsWith(dir)) throw new IOException("Bad snapshot entry: " + e.getName());
+                Files.createDirectories(target.getParent());
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    copy(zip, out);
+                }
+            }
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+    }
+
+    private static void deleteQuietly(Path dir) {
+        try {
+            BackupManager.deleteRecursively(dir);
+        } catch (IOException ex) {
+            System.err.println("Could not delete " + dir + ": " + ex);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package oakdonuts;
+
+import oakdonuts.models.MenuItem;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Header: MenuCache.java
+ * In-memory copy of menu_items held as an immutable, versioned snapshot.
+ *
+ * Readers grab the current snapshot without locking and see a consistent
+ * menu for as long as they hold it. Writers build a new snapshot and swap it
+ * in atomically; each swap bumps the version. Items are copied on the way in,
+ * and items handed out by a snapshot are shared: treat them as read-only.
+ */
+public class MenuCache {
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    /** Versions only ever grow, even across invalidate() */
+    private final AtomicLong versions = new AtomicLong();
+
+    /** One consistent version of the menu */
+    public static final class Snapshot {
+        private final long version;
+        private final Map<Integer, MenuItem> byId;
+        private final List<MenuItem> items;
+
+        private Snapshot(long version, LinkedHashMap<Integer, MenuItem> byId) {
+            this.version = version;
+            this.byId = Collections.unmodifiableMap(byId);
+            this.items = Collections.unmodifiableList(new ArrayList<>(byId.values()));
+        }
+
+        public long getVersion() { return version; }
+
+        /** Menu item by id, or null if not on this version of the menu */
+        public MenuItem get(int itemId) { return byId.get(itemId); }
+
+        /** All items in load/insert order */
+        public List<MenuItem> getItems() { return items; }
+
+        public int size() { return items.size(); }
+    }
+
+    /** Version-0 empty menu, used when the menu could not be read */
+    public static Snapshot emptySnapshot() {
+        return new Snapshot(0, new LinkedHashMap<>());
+    }
+
+    /** Current snapshot, or null if the menu has not been loaded yet */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /** Install a freshly loaded menu */
+    public Snapshot replaceAll(List<MenuItem> items) {
+        return current.updateAndGet(old -> {
+            LinkedHashMap<Integer, MenuItem> byId = new LinkedHashMap<>();
+            for (MenuItem m : items) byId.put(m.getItemId(), copy(m));
+            return new Snapshot(versions.incrementAndGet(), byId);
+        });
+    }
+
+    /**
+     * Add or replace one item; the snapshot is left alone until the menu has
+     * been loaded. Returns the cache's copy of the item.
+     */
+    public MenuItem put(MenuItem m) {
+        MenuItem c = copy(m);
+        current.updateAndGet(old -> {
+            if (old == null) return null;
+            LinkedHashMap<Integer, MenuItem> byId = new LinkedHashMap<>(old.byId);
+            byId.put(c.getItemId(), c);
+            return new Snapshot(versions.incrementAndGet(), byId);
+        });
+        return c;
+    }
+
+    /** Remove one item; no-op until the menu has been loaded */
+    public void remove(int itemId) {
+        current.updateAndGet(old -> {
+            if (old == null || !old.byId.containsKey(itemId)) return old;
+            LinkedHashMap<Integer, MenuItem> byId = new LinkedHashMap<>(old.byId);
+            byId.remove(itemId);
+            return new Snapshot(versions.incrementAndGet(), byId);
+        });
+    }
+
+    /** Drop the snapshot so the next read reloads from the database */
+    public void invalidate() {
+        current.set(null);
+    }
+
+    private static MenuItem copy(MenuItem m) {
+        return new MenuItem(m.getItemId(), m.getName(), m.getPrice(), m.getDescription());
+    }
+}
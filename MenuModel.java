@@ -0,0 +1,145 @@
+package oakdonuts;
+
+import oakdonuts.models.ItemSales;
+import oakdonuts.models.MenuItem;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Header: MenuModel.java
+ * The menu as one Swing model, shared by the menu list and the item combo box.
+ *
+ * Items are kept in load order with an index by item id, so a saved or
+ * deleted item touches one entry and fires one event for it instead of the
+ * views being refilled. The combo box selection lives here too (JList keeps
+ * its own selection model). EDT only.
+ *
+ * With a search query set, the views show the best matches from a
+ * MenuSearchIndex instead, and the best match is selected.
+ */
+class MenuModel extends AbstractListModel<MenuItem> implements ComboBoxModel<MenuItem> {
+    /** Most matches shown for a search */
+    static final int SEARCH_LIMIT = 50;
+
+    private final List<MenuItem> items = new ArrayList<>();
+    private final Map<Integer, Integer> indexById = new HashMap<>();
+    private final MenuSearchIndex search = new MenuSearchIndex();
+    private String query = "";
+    /** Search results while a query is set, else null (all items shown) */
+    private List<MenuItem> matches;
+    private MenuItem selected;
+
+    @Override
+    public int getSize() { return matches != null ? matches.size() : items.size(); }
+
+    @Override
+    public MenuItem getElementAt(int index) { return matches != null ? matches.get(index) : items.get(index); }
+
+    @Override
+    public Object getSelectedItem() { return selected; }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (item == selected || (item != null && !(item instanceof MenuItem))) return;
+        selected = (MenuItem) item;
+        fireContentsChanged(this, -1, -1);
+    }
+
+    /** Replace the whole menu (initial load) */
+    void setAll(List<MenuItem> menu) {
+        int oldSize = getSize();
+        items.clear();
+        indexById.clear();
+        for (MenuItem m : menu) {
+            indexById.put(m.getItemId(), items.size());
+            items.add(m);
+        }
+        search.replaceAll(menu);
+        if (matches != null) matches = search.search(query, SEARCH_LIMIT);
+        replaced(oldSize);
+        reselect(selected == null ? null : selected.getItemId());
+    }
+
+    /** Show only the items matching the query (best first); blank shows the whole menu */
+    void setQuery(String text) {
+        query = text.trim();
+        int oldSize = getSize();
+        matches = query.isEmpty() ? null : search.search(query, SEARCH_LIMIT);
+        replaced(oldSize);
+        if (matches != null) setSelectedItem(matches.isEmpty() ? null : matches.get(0));
+    }
+
+    /** Units sold per item, to rank search results (see SalesReports.topItems) */
+    void setPopularity(List<ItemSales> sales) {
+        search.setPopularity(sales);
+        if (matches != null) refilter();
+    }
+
+    void addPopularity(int itemId, long units) {
+        search.addPopularity(itemId, units);
+    }
+
+    /** Insert a new item at the end, or replace the stored one in place */
+    void put(MenuItem m) {
+        search.put(m);
+        putItem(m);
+        if (matches != null) refilter();
+    }
+
+    void remove(int itemId) {
+        search.remove(itemId);
+        removeItem(itemId);
+        if (matches != null) refilter();
+    }
+
+    /** Search again after the menu changed, keeping the selection if it still matches */
+    private void refilter() {
+        int oldSize = getSize();
+        matches = search.search(query, SEARCH_LIMIT);
+        replaced(oldSize);
+        if (!matches.contains(selected)) setSelectedItem(matches.isEmpty() ? null : matches.get(0));
+    }
+
+    private void putItem(MenuItem m) {
+        boolean visible = matches == null;
+        Integer i = indexById.get(m.getItemId());
+        if (i == null) {
+            indexById.put(m.getItemId(), items.size());
+            items.add(m);
+            if (visible) fireIntervalAdded(this, items.size() - 1, items.size() - 1);
+            if (selected == null) setSelectedItem(m);
+        } else {
+            MenuItem old = items.set(i, m);
+            if (visible) fireContentsChanged(this, i, i);
+            if (selected == old) setSelectedItem(m);
+        }
+    }
+
+    private void removeItem(int itemId) {
+        Integer i = indexById.remove(itemId);
+        if (i == null) return;
+        MenuItem old = items.remove((int) i);
+        // later items moved up one place (deletes are rare; the menu is short)
+        for (int j = i; j < items.size(); j++) indexById.put(items.get(j).getItemId(), j);
+        if (matches == null) fireIntervalRemoved(this, i, i);
+        if (selected == old) setSelectedItem(items.isEmpty() ? null : items.get(Math.min(i, items.size() - 1)));
+    }
+
+    /** The shown list was swapped for another one */
+    private void replaced(int oldSize) {
+        if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+        if (getSize() > 0) fireIntervalAdded(this, 0, getSize() - 1);
+    }
+
+    /** Keep the same item selected across a reload, or fall back to the first */
+    private void reselect(Integer itemId) {
+        Integer i = itemId == null ? null : indexById.get(itemId);
+        if (i != null) selected = items.get(i);
+        else selected = items.isEmpty() ? null : items.get(0);
+        fireContentsChanged(this, -1, -1);
+    }
+}
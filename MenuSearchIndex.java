@@ -0,0 +1,373 @@
+package oakdonuts;
+
+import oakdonuts.models.ItemSales;
+import oakdonuts.models.MenuItem;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Header: MenuSearchIndex.java
+ * In-memory search over menu item names and descriptions, for filtering the
+ * menu on every keystroke.
+ *
+ * Text is split into lowercase, accent-free tokens. Each query word must
+ * match a token of the item, either exactly, as a prefix ("choc") or, for
+ * words of MIN_FUZZY_LENGTH or more, with one typo ("glazde"). Matches in
+ * the name count more than matches in the description, exact more than
+ * prefix more than typo; ties go to the more popular item, then by name.
+ *
+ * Tokens live in a sorted map (a prefix is one range of it) and typo
+ * candidates are found through each token's one-character deletions, so a
+ * lookup touches only the tokens and items that can match. put and remove
+ * update just the item's own tokens. Not thread-safe.
+ */
+public class MenuSearchIndex {
+    /** Shortest query word that is also matched with one typo */
+    public static final int MIN_FUZZY_LENGTH = 4;
+
+    // match kinds, as score weights
+    private static final int EXACT = 4;
+    private static final int PREFIX = 3;
+    private static final int FUZZY = 2;
+    // fields a token occurs in (bit set)
+    private static final byte NAME = 1;
+    private static final byte DESCRIPTION = 2;
+
+    private static final class Entry {
+        final MenuItem item;
+        final int slot;
+        final String[] tokens;
+        final String sortName;
+        long popularity;
+
+        Entry(MenuItem item, int slot, String[] tokens, long popularity) {
+            this.item = item;
+            this.slot = slot;
+            this.tokens = tokens;
+            this.sortName = item.getName() == null ? "" : item.getName().toLowerCase(Locale.ROOT);
+            this.popularity = popularity;
+        }
+    }
+
+    /** Items (by slot) containing one token, with the fields it occurs in */
+    private static final class Postings {
+        int[] slots = new int[2];
+        byte[] fields = new byte[2];
+        int size;
+
+        void add(int slot, byte field) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            slots[size] = slot;
+            fields[size++] = field;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    // order does not matter: move the last posting into the gap
+                    slots[i] = slots[--size];
+                    fields[i] = fields[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Map<Integer, Entry> byItemId = new HashMap<>();
+    private Entry[] slots = new Entry[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+    private final TreeMap<String, Postings> tokens = new TreeMap<>();
+    /** Each token (of MIN_FUZZY_LENGTH - 1 or more) and its one-character deletions, to the tokens */
+    private final Map<String, List<String>> fuzzyKeys = new HashMap<>();
+    /** Units sold per item id; kept for ids not indexed (yet) */
+    private final Map<Integer, Long> popularity = new HashMap<>();
+
+    // per-query scratch, indexed by slot; entries are valid where stamp == query
+    private int[] stamp = new int[16];
+    private int[] hits = new int[16];
+    private int[] score = new int[16];
+    private int[] termScore = new int[16];
+    private int query;
+    private int[] candidates = new int[16];
+    private int candidateCount;
+
+    public int size() { return byItemId.size(); }
+
+    /** Index every item of the menu, replacing what was indexed */
+    public void replaceAll(List<MenuItem> menu) {
+        byItemId.clear();
+        tokens.clear();
+        fuzzyKeys.clear();
+        Arrays.fill(slots, null);
+        slotCount = 0;
+        freeCount = 0;
+        for (MenuItem m : menu) put(m);
+    }
+
+    /** Index a new item, or re-index an edited one (matched by item id) */
+    public void put(MenuItem m) {
+        remove(m.getItemId());
+        Map<String, Byte> fields = new LinkedHashMap<>();
+        for (String t : tokenize(m.getName())) fields.merge(t, NAME, (a, b) -> (byte) (a | b));
+        for (String t : tokenize(m.getDescription())) fields.merge(t, DESCRIPTION, (a, b) -> (byte) (a | b));
+
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+        if (slot == slots.length) growSlots();
+        Entry e = new Entry(m, slot, fields.keySet().toArray(new String[0]),
+                            popularity.getOrDefault(m.getItemId(), 0L));
+        slots[slot] = e;
+        byItemId.put(m.getItemId(), e);
+        for (Map.Entry<String, Byte> f : fields.entrySet()) {
+            Postings p = tokens.get(f.getKey());
+            if (p == null) {
+                p = new Postings();
+                tokens.put(f.getKey(), p);
+                addFuzzyKeys(f.getKey());
+            }
+            p.add(slot, f.getValue());
+        }
+    }
+
+    public void remove(int itemId) {
+        Entry e = byItemId.remove(itemId);
+        if (e == null) return;
+        for (String t : e.tokens) {
+            Postings p = tokens.get(t);
+            p.remove(e.slot);
+            if (p.size == 0) {
+                tokens.remove(t);
+                removeFuzzyKeys(t);
+            }
+        }
+        slots[e.slot] = null;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = e.slot;
+    }
+
+    /** Replace all popularity figures, e.g. with SalesReports.topItems over recent weeks */
+    public void setPopularity(List<ItemSales> sales) {
+        popularity.clear();
+        for (Entry e : byItemId.values()) e.popularity = 0;
+        for (ItemSales s : sales) addPopularity(s.getItemId(), s.getQuantity());
+    }
+
+    /** Count units sold since the figures were set */
+    public void addPopularity(int itemId, long units) {
+        long total = popularity.merge(itemId, units, Long::sum);
+        Entry e = byItemId.get(itemId);
+        if (e != null) e.popularity = total;
+    }
+
+    /**
+     * Best matches for the query, best first, at most limit. A blank query
+     * returns the most popular items.
+     */
+    public List<MenuItem> search(String text, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        List<String> terms = tokenize(text);
+        query++;
+        candidateCount = 0;
+        if (terms.isEmpty()) {
+            for (Entry e : byItemId.values()) {
+                stamp[e.slot] = query;
+                score[e.slot] = 0;
+                addCandidate(e.slot);
+            }
+            return top(limit);
+        }
+        for (int t = 0; t < terms.size(); t++) {
+            String term = terms.get(t);
+            for (Map.Entry<String, Postings> m : tokens.subMap(term, true, term + Character.MAX_VALUE, true).entrySet()) {
+                match(m.getValue(), m.getKey().length() == term.length() ? EXACT : PREFIX, t);
+            }
+            if (term.length() >= MIN_FUZZY_LENGTH) {
+                for (String token : fuzzyMatches(term)) match(tokens.get(token), FUZZY, t);
+            }
+        }
+        // keep the items every word matched
+        int kept = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            if (hits[candidates[i]] == terms.size()) candidates[kept++] = candidates[i];
+        }
+        candidateCount = kept;
+        return top(limit);
+    }
+
+    /**
+     * Score the items of one matching token for query word t. The first word
+     * collects the candidates; later words only count for items that
+     * matched all words before them. Each word scores its best match.
+     */
+    private void match(Postings p, int kind, int t) {
+        for (int i = 0; i < p.size; i++) {
+            int slot = p.slots[i];
+            int w = weight(kind, p.fields[i]);
+            if (stamp[slot] != query) {
+                if (t > 0) continue;
+                stamp[slot] = query;
+                hits[slot] = 0;
+                score[slot] = 0;
+                addCandidate(slot);
+            }
+            if (hits[slot] == t) {
+                hits[slot] = t + 1;
+                score[slot] += w;
+                termScore[slot] = w;
+            } else if (hits[slot] == t + 1 && w > termScore[slot]) {
+                score[slot] += w - termScore[slot];
+                termScore[slot] = w;
+            }
+        }
+    }
+
+    private void addCandidate(int slot) {
+        if (candidateCount == candidates.length) candidates = Arrays.copyOf(candidates, candidateCount * 2);
+        candidates[candidateCount++] = slot;
+    }
+
+    private static int weight(int kind, byte fields) {
+        return (fields & NAME) != 0 ? kind * 2 : kind;
+    }
+
+    /** The limit best candidates, best first, by insertion into a short sorted array */
+    private List<MenuItem> top(int limit) {
+        int[] best = new int[Math.min(limit, candidateCount)];
+        int n = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates[i];
+            if (n == best.length && !better(slot, best[n - 1])) continue;
+            int j = n == best.length ? n - 1 : n++;
+            while (j > 0 && better(slot, best[j - 1])) {
+                best[j] = best[j - 1];
+                j--;
+            }
+            best[j] = slot;
+        }
+        List<MenuItem> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add(slots[best[i]].item);
+        return list;
+    }
+
+    private boolean better(int a, int b) {
+        if (score[a] != score[b]) return score[a] > score[b];
+        Entry x = slots[a], y = slots[b];
+        if (x.popularity != y.popularity) return x.popularity > y.popularity;
+        int c = x.sortName.compareTo(y.sortName);
+        return c != 0 ? c < 0 : x.item.getItemId() < y.item.getItemId();
+    }
+
+    /* ------------------ Typos ------------------ */
+
+    /**
+     * Tokens one edit (insert, delete, substitute or swap two neighbours)
+     * away from the word. Such a token and the word share a key: one of
+     * them, or the same one-character deletion of both.
+     */
+    private List<String> fuzzyMatches(String word) {
+        List<String> found = new ArrayList<>();
+        addWithinOneEdit(word, fuzzyKeys.get(word), found);
+        for (int i = 0; i < word.length(); i++) {
+            addWithinOneEdit(word, fuzzyKeys.get(deleteAt(word, i)), found);
+        }
+        return found;
+    }
+
+    private static void addWithinOneEdit(String word, List<String> keyed, List<String> found) {
+        if (keyed == null) return;
+        for (String token : keyed) {
+            // prefixes (and the word itself) were already matched more strongly
+            if (!token.startsWith(word) && !found.contains(token) && withinOneEdit(word, token)) found.add(token);
+        }
+    }
+
+    private void addFuzzyKeys(String token) {
+        if (token.length() < MIN_FUZZY_LENGTH - 1) return;
+        fuzzyKeys.computeIfAbsent(token, k -> new ArrayList<>(1)).add(token);
+        for (int i = 0; i < token.length(); i++) {
+            String key = deleteAt(token, i);
+            List<String> list = fuzzyKeys.computeIfAbsent(key, k -> new ArrayList<>(1));
+            if (!list.contains(token)) list.add(token);
+        }
+    }
+
+    private void removeFuzzyKeys(String token) {
+        if (token.length() < MIN_FUZZY_LENGTH - 1) return;
+        unkey(token, token);
+        for (int i = 0; i < token.length(); i++) unkey(deleteAt(token, i), token);
+    }
+
+    private void unkey(String key, String token) {
+        List<String> list = fuzzyKeys.get(key);
+        if (list == null) return;
+        list.remove(token);
+        if (list.isEmpty()) fuzzyKeys.remove(key);
+    }
+
+    private static String deleteAt(String s, int i) {
+        return s.substring(0, i) + s.substring(i + 1);
+    }
+
+    /** Optimal string alignment distance of exactly one */
+    static boolean withinOneEdit(String a, String b) {
+        int la = a.length(), lb = b.length();
+        if (Math.abs(la - lb) > 1 || a.equals(b)) return false;
+        int i = 0;
+        while (i < Math.min(la, lb) && a.charAt(i) == b.charAt(i)) i++;
+        if (la == lb) {
+            // one substitution, or two neighbours swapped
+            if (a.regionMatches(i + 1, b, i + 1, la - i - 1)) return true;
+            return i + 1 < la && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                && a.regionMatches(i + 2, b, i + 2, la - i - 2);
+        }
+        // one character inserted into the shorter string
+        return la < lb ? a.regionMatches(i, b, i + 1, la - i) : b.regionMatches(i, a, i + 1, lb - i);
+    }
+
+    /* ------------------ Text ------------------ */
+
+    /** Lowercase letter/digit runs with accents removed ("Crème Brûlée" -> [creme, brulee]) */
+    static List<String> tokenize(String text) {
+        List<String> list = new ArrayList<>();
+        if (text == null || text.isEmpty()) return list;
+        String s = text;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                s = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+                break;
+            }
+        }
+        s = s.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean word = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                list.add(s.substring(start, i));
+                start = -1;
+            }
+        }
+        return list;
+    }
+
+    private void growSlots() {
+        int n = slots.length * 2;
+        slots = Arrays.copyOf(slots, n);
+        stamp = Arrays.copyOf(stamp, n);
+        hits = Arrays.copyOf(hits, n);
+        score = Arrays.copyOf(score, n);
+        termScore = Arrays.copyOf(termScore, n);
+    }
+}
@@ -12,17 +12,17 @@ package oakdonuts.models;
 public class MenuItem {
     private int itemId;
     private String name;
-    private double price;
+    private long priceCents;
     private String description;
 
     /** Constructor */
     public MenuItem() {}
 
     /** Constructor */
-    public MenuItem(int itemId, String name, double price, String description) {
+    public MenuItem(int itemId, String name, Money price, String description) {
         this.itemId = itemId;
         this.name = name;
-        this.price = price;
+        this.priceCents = price.getCents();
         this.description = description;
     }
 
@@ -33,14 +33,15 @@ public class MenuItem {
     public String getName() { return name; }
     public void setName(String name) { this.name = name; }
 
-    public double getPrice() { return price; }
-    public void setPrice(double price) { this.price = price; }
+    public Money getPrice() { return Money.ofCents(priceCents); }
+    public long getPriceCents() { return priceCents; }
+    public void setPrice(Money price) { this.priceCents = price.getCents(); }
 
     public String getDescription() { return description; }
     public void setDescription(String description) { this.description = description; }
 
     @Override
     public String toString() {
-        return name + " ($" + String.format("%.2f", price) + ")";
+        return name + " ($" + Money.format(priceCents) + ")";
     }
 }
@@ -0,0 +1,167 @@
+package oakdonuts.metrics;
+
+import oakdonuts.utils.TaskExecutors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header: Metrics.java
+ * Process-wide registry of OperationStats, published over JMX.
+ *
+ * Each operation is registered once as oakdonuts:type=Operation,name=...
+ * (e.g. db.saveOrder, gui.saveOrder). startReporting() adds a daemon thread
+ * that closes an interval every few seconds: it fills the "Recent" MBean
+ * attributes and, if a directory is given, appends one CSV line per active
+ * operation to metrics-yyyyMMdd.csv there, keeping the newest files only.
+ */
+public final class Metrics {
+    private static final Metrics GLOBAL = new Metrics("oakdonuts");
+
+    private static final DateTimeFormatter FILE_DAY = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String CSV_HEADER =
+        "time,operation,calls,errors,calls_per_sec,p50_us,p99_us,p999_us,max_us";
+
+    private final String domain;
+    private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reporter;
+
+    public Metrics(String jmxDomain) {
+        this.domain = jmxDomain;
+    }
+
+    /** The registry used by DBHelper and the GUI */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /** Stats for the named operation, created and registered with JMX on first use */
+    public OperationStats stats(String name) {
+        OperationStats s = operations.get(name);
+        return s != null ? s : operations.computeIfAbsent(name, this::register);
+    }
+
+    private OperationStats register(String name) {
+        OperationStats s = new OperationStats(name);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(domain + ":type=Operation,name=" + ObjectName.quote(name));
+            if (!server.isRegistered(on)) server.registerMBean(s, on);
+        } catch (JMException | SecurityException ex) {
+            // still recorded, just not visible over JMX
+            System.err.println("Could not register MBean for " + name + ": " + ex);
+        }
+        return s;
+    }
+
+    /** All operations seen so far, by name */
+    public SortedMap<String, OperationStats> all() {
+        return new TreeMap<>(operations);
+    }
+
+    /**
+     * Close an interval every intervalSeconds. With a directory, each
+     * interval is also appended to a daily CSV file there, and only the
+     * newest keepFiles files are kept. Replaces earlier reporting.
+     */
+    public synchronized void startReporting(long intervalSeconds, Path directory, int keepFiles) throws IOException {
+        if (intervalSeconds <= 0) throw new IllegalArgumentException("interval must be positive: " + intervalSeconds);
+        stopReporting();
+        RollingCsv csv = directory != null ? new RollingCsv(directory, keepFiles) : null;
+        reporter = Executors.newSingleThreadScheduledExecutor(TaskExecutors.daemonThreads("metrics"));
+        long[] last = {System.nanoTime()};
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                report(csv, last);
+            } catch (RuntimeException ex) {
+                // an exception would cancel all further runs
+                System.err.println("Metrics reporting failed: " + ex);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void report(RollingCsv csv, long[] last) {
+        long now = System.nanoTime();
+        double seconds = (now - last[0]) / 1e9;
+        last[0] = now;
+        List<String> lines = new ArrayList<>();
+        String time = LocalDateTime.now().withNano(0).toString();
+        for (OperationStats s : all().values()) {
+            OperationStats.Interval i = s.roll(seconds);
+            if (i.calls > 0) lines.add(csvLine(time, s.getName(), i));
+        }
+        if (csv != null && !lines.isEmpty()) csv.append(lines);
+    }
+
+    /** Stop the reporter thread (recording itself never stops) */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    private static String csvLine(String time, String name, OperationStats.Interval i) {
+        return String.format(Locale.ROOT, "%s,%s,%d,%d,%.2f,%d,%d,%d,%d", time, name, i.calls, i.errors,
+            i.callsPerSecond(), i.p50Nanos / 1000, i.p99Nanos / 1000, i.p999Nanos / 1000, i.maxNanos / 1000);
+    }
+
+    /** metrics-yyyyMMdd.csv files in one directory, oldest deleted beyond keepFiles */
+    private static final class RollingCsv {
+        private final Path directory;
+        private final int keepFiles;
+
+        RollingCsv(Path directory, int keepFiles) throws IOException {
+            this.directory = Files.createDirectories(directory);
+            this.keepFiles = Math.max(1, keepFiles);
+        }
+
+        void append(List<String> lines) {
+            Path file = directory.resolve("metrics-" + LocalDate.now().format(FILE_DAY) + ".csv");
+            try {
+                boolean fresh = !Files.exists(file);
+                try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    if (fresh) {
+                        w.write(CSV_HEADER);
+                        w.newLine();
+                    }
+                    for (String line : lines) {
+                        w.write(line);
+                        w.newLine();
+                    }
+                }
+                if (fresh) prune();
+            } catch (IOException ex) {
+                // metrics must never take the register down
+                System.err.println("Could not write metrics to " + file + ": " + ex);
+            }
+        }
+
+        private void prune() throws IOException {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "metrics-*.csv")) {
+                for (Path p : ds) files.add(p);
+            }
+            Collections.sort(files); // yyyyMMdd names sort by day
+            for (int i = 0; i < files.size() - keepFiles; i++) Files.deleteIfExists(files.get(i));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package oakdonuts.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Header: Money.java
+ * Exact money amount stored as a whole number of cents.
+ *
+ * Models keep plain long cents internally so totals never allocate or drift;
+ * Money is the value handed across APIs, and BigDecimal is only used at the
+ * JDBC edge (DECIMAL(p,2) columns) and when parsing user input.
+ */
+public final class Money implements Comparable<Money> {
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /** From a DECIMAL column value; more than two decimals is an error, not a rounding */
+    public static Money of(BigDecimal amount) {
+        if (amount == null) return ZERO;
+        return ofCents(amount.setScale(2, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+    }
+
+    /** Parse user input such as "1.5" or "1.50" */
+    public static Money parse(String text) {
+        try {
+            return of(new BigDecimal(text.trim()));
+        } catch (ArithmeticException ex) {
+            throw new NumberFormatException("Not a valid money amount: " + text);
+        }
+    }
+
+    public long getCents() { return cents; }
+
+    /** For setBigDecimal on DECIMAL(p,2) columns */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public Money times(int quantity) {
+        return ofCents(Math.multiplyExact(cents, (long) quantity));
+    }
+
+    public boolean isZero() { return cents == 0; }
+
+    /** Amount as plain digits with two decimals, e.g. "1.50" or "-0.25" */
+    public static String format(long cents) {
+        long abs = Math.abs(cents);
+        long frac = abs % 100;
+        return (cents < 0 ? "-" : "") + (abs / 100) + (frac < 10 ? ".0" : ".") + frac;
+    }
+
+    @Override
+    public int compareTo(Money o) {
+        return Long.compare(cents, o.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    @Override
+    public String toString() {
+        return format(cents);
+    }
+}
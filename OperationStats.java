@@ -0,0 +1,180 @@
+package oakdonuts.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Header: OperationStats.java
+ * Call count, error count and latency distribution of one operation.
+ *
+ * Recording is lock-free and allocation-free (striped adders plus one
+ * histogram increment), so it is cheap enough to leave on at every
+ * register. Wrap the operation with time()/run(), or call record() directly
+ * when start and end happen on different threads.
+ */
+public class OperationStats implements OperationStatsMBean {
+    /** Work that returns a value and may throw a checked exception */
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /** Work without a result that may throw a checked exception */
+    public interface Run<E extends Exception> {
+        void run() throws E;
+    }
+
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /** Last completed reporting interval, replaced by Metrics' reporter thread */
+    private volatile Interval recent = Interval.EMPTY;
+    // guarded by this: totals at the start of the current interval
+    private long[] intervalStartBuckets = new long[LatencyHistogram.BUCKETS];
+    private long intervalStartCalls;
+    private long intervalStartErrors;
+
+    /** What happened to one operation during one reporting interval */
+    public static final class Interval {
+        static final Interval EMPTY = new Interval(0, 0, 0, new long[LatencyHistogram.BUCKETS]);
+
+        public final long calls;
+        public final long errors;
+        public final double seconds;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long p999Nanos;
+        public final long maxNanos;
+
+        Interval(long calls, long errors, double seconds, long[] buckets) {
+            this.calls = calls;
+            this.errors = errors;
+            this.seconds = seconds;
+            this.p50Nanos = LatencyHistogram.percentile(buckets, 0.50);
+            this.p99Nanos = LatencyHistogram.percentile(buckets, 0.99);
+            this.p999Nanos = LatencyHistogram.percentile(buckets, 0.999);
+            this.maxNanos = LatencyHistogram.percentile(buckets, 1.0);
+        }
+
+        public double callsPerSecond() {
+            return seconds > 0 ? calls / seconds : 0;
+        }
+    }
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+
+    /** Record one finished call */
+    public void record(long elapsedNanos, boolean success) {
+        calls.increment();
+        if (!success) errors.increment();
+        totalNanos.add(elapsedNanos);
+        maxNanos.accumulate(elapsedNanos);
+        histogram.record(elapsedNanos);
+    }
+
+    /** Run and time the call; a thrown exception counts as an error */
+    public <T, E extends Exception> T time(Call<T, E> call) throws E {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            T result = call.call();
+            ok = true;
+            return result;
+        } finally {
+            record(System.nanoTime() - start, ok);
+        }
+    }
+
+    /** Run and time the work; a thrown exception counts as an error */
+    public <E extends Exception> void run(Run<E> work) throws E {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            work.run();
+            ok = true;
+        } finally {
+            record(System.nanoTime() - start, ok);
+        }
+    }
+
+    /** Close the current reporting interval; only called by the reporter thread */
+    synchronized Interval roll(double seconds) {
+        long[] buckets = histogram.snapshot();
+        long c = calls.sum();
+        long e = errors.sum();
+        Interval i = new Interval(Math.max(0, c - intervalStartCalls), Math.max(0, e - intervalStartErrors), seconds,
+            LatencyHistogram.delta(buckets, intervalStartBuckets));
+        intervalStartBuckets = buckets;
+        intervalStartCalls = c;
+        intervalStartErrors = e;
+        recent = i;
+        return i;
+    }
+
+    /* ------------------ MBean ------------------ */
+
+    @Override
+    public long getCount() { return calls.sum(); }
+
+    @Override
+    public long getErrorCount() { return errors.sum(); }
+
+    @Override
+    public double getMeanMicros() {
+        long n = calls.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+    }
+
+    @Override
+    public long getP50Micros() { return micros(totalPercentile(0.50)); }
+
+    @Override
+    public long getP99Micros() { return micros(totalPercentile(0.99)); }
+
+    @Override
+    public long getP999Micros() { return micros(totalPercentile(0.999)); }
+
+    @Override
+    public long getMaxMicros() { return micros(maxNanos.get()); }
+
+    @Override
+    public double getRecentCallsPerSecond() { return recent.callsPerSecond(); }
+
+    @Override
+    public long getRecentP99Micros() { return micros(recent.p99Nanos); }
+
+    /**
+     * Start the totals over (intervals already reported are unaffected). The
+     * current interval starts over from zero too, else roll() would see the
+     * totals go backwards and report nothing until they caught up.
+     */
+    @Override
+    public synchronized void reset() {
+        calls.reset();
+        errors.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        histogram.reset();
+        Arrays.fill(intervalStartBuckets, 0);
+        intervalStartCalls = 0;
+        intervalStartErrors = 0;
+    }
+
+    // bucket upper bounds can overshoot the largest value actually seen
+    private long totalPercentile(double p) {
+        return Math.min(LatencyHistogram.percentile(histogram.snapshot(), p), maxNanos.get());
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
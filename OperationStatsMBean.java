@@ -0,0 +1,30 @@
+package oakdonuts.metrics;
+
+/**
+ * Header: OperationStatsMBean.java
+ * JMX view of one instrumented operation (see OperationStats).
+ *
+ * Totals cover the time since start or the last reset; "Recent" values cover
+ * the last reporting interval and stay 0 until Metrics reporting is started.
+ */
+public interface OperationStatsMBean {
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    double getRecentCallsPerSecond();
+
+    long getRecentP99Micros();
+
+    void reset();
+}
@@ -0,0 +1,219 @@
+package oakdonuts;
+
+import oakdonuts.metrics.Metrics;
+import oakdonuts.metrics.OperationStats;
+import oakdonuts.utils.TaskExecutors;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Header: OrderArchiver.java
+ * Moves cold orders out of orders/order_items into orders_archive and
+ * order_items_archive, so the live tables and their indexes only hold
+ * recent business.
+ *
+ * Orders go in batches of up to 512, each its own short transaction that
+ * row-locks only the orders it moves (far below Derby's lock escalation
+ * threshold), with a pause between batches, so registers keep saving while
+ * it runs. Order ids and transaction ids are kept: DBHelper's getOrder,
+ * getOrderByTransactionId and getOrders read both places, and saving or
+ * deleting an archived order moves it back first (see Restore). Paging and
+ * streaming reads (getOrdersPage, forEachOrder) cover live orders only.
+ * Sales rollups are not touched: an archived order is still a sale.
+ */
+public class OrderArchiver implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_PAUSE_MS = 50;
+    /** Largest batch: one IN list per statement (see DBHelper.inList) */
+    public static final int MAX_BATCH_SIZE = 512;
+
+    private static final OperationStats ARCHIVE_BATCH = Metrics.global().stats("db.archiveBatch");
+
+    private final DBHelper db;
+    private final int batchSize;
+    private final long pauseMillis;
+    private ScheduledExecutorService scheduler;
+
+    public OrderArchiver(DBHelper db) {
+        this(db, DEFAULT_BATCH_SIZE, DEFAULT_PAUSE_MS);
+    }
+
+    public OrderArchiver(DBHelper db, int batchSize, long pauseMillis) {
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batch size must be 1.." + MAX_BATCH_SIZE + ": " + batchSize);
+        }
+        if (pauseMillis < 0) throw new IllegalArgumentException("pause must not be negative: " + pauseMillis);
+        this.db = db;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Archive every order from before the start of the day afterDays ago
+     * (1 keeps today and yesterday live).
+     * @return the number of orders moved
+     */
+    public int archiveOlderThan(int afterDays) throws SQLException {
+        if (afterDays <= 0) throw new IllegalArgumentException("age must be at least one day: " + afterDays);
+        return archiveBefore(Timestamp.valueOf(LocalDate.now().minusDays(afterDays).atStartOfDay()));
+    }
+
+    /**
+     * Archive every order dated before cutoff, batch by batch, until none is
+     * left. Undated orders stay live.
+     * @return the number of orders moved
+     */
+    public int archiveBefore(Timestamp cutoff) throws SQLException {
+        StampedLock lock = db.archiveLock();
+        int total = 0;
+        int[] picked = new int[1];
+        while (true) {
+            int moved;
+            try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+                // taken before any row is locked: a reader holding the lock may be waiting for rows
+                long stamp = lock.writeLock();
+                try {
+                    moved = ARCHIVE_BATCH.time(() -> {
+                        int[] n = new int[1];
+                        DBHelper.retryRolledBack(() -> n[0] = moveBatch(pc, cutoff, picked));
+                        return n[0];
+                    });
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+            total += moved;
+            if (picked[0] < batchSize) return total;
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while archiving orders", ex);
+            }
+        }
+    }
+
+    /**
+     * Move up to batchSize orders in one transaction.
+     * @param picked set to the number of candidates found (fewer than batchSize: nothing left)
+     * @return the number of orders moved
+     */
+    private int moveBatch(ConnectionPool.PooledConnection pc, Timestamp cutoff, int[] picked) throws SQLException {
+        // compile statements before the transaction starts (see ConnectionPool); one IN
+        // width for every batch, short batches repeat their last id
+        String in = DBHelper.inList(batchSize);
+        // WITH RS keeps the share locks on the picked headers until commit, so their
+        // dates cannot change before they are moved; headers are locked first, like writers do
+        PreparedStatement pick = pc.prepare(
+            "SELECT order_id FROM orders WHERE order_date < ? FETCH FIRST ? ROWS ONLY WITH RS");
+        PreparedStatement copyHeaders = pc.prepare(
+            "INSERT INTO orders_archive (order_id, transaction_id, order_date, total) " +
+            "SELECT order_id, transaction_id, order_date, total FROM orders WHERE order_id IN " + in);
+        PreparedStatement copyLines = pc.prepare(
+            "INSERT INTO order_items_archive (order_item_id, order_id, item_id, quantity, line_price) " +
+            "SELECT order_item_id, order_id, item_id, quantity, line_price FROM order_items WHERE order_id IN " + in);
+        PreparedStatement deleteLines = pc.prepare("DELETE FROM order_items WHERE order_id IN " + in);
+        PreparedStatement deleteHeaders = pc.prepare("DELETE FROM orders WHERE order_id IN " + in);
+
+        Connection conn = pc.raw();
+        conn.setAutoCommit(false);
+        try {
+            int[] ids = new int[batchSize];
+            int n = 0;
+            pick.setTimestamp(1, cutoff);
+            pick.setInt(2, batchSize);
+            try (ResultSet rs = pick.executeQuery()) {
+                while (rs.next()) ids[n++] = rs.getInt(1);
+            }
+            picked[0] = n;
+            if (n == 0) {
+                conn.commit();
+                return 0;
+            }
+            for (PreparedStatement ps : new PreparedStatement[]{copyHeaders, copyLines, deleteLines}) {
+                DBHelper.bindIds(ps, ids, 0, n);
+                ps.executeUpdate();
+            }
+            DBHelper.bindIds(deleteHeaders, ids, 0, n);
+            int moved = deleteHeaders.executeUpdate();
+            conn.commit();
+            return moved;
+        } catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Archive orders older than afterDays on a daemon thread, first after
+     * one interval and then once per interval. Replaces an earlier schedule.
+     */
+    public synchronized void start(int afterDays, long interval, TimeUnit unit) {
+        if (afterDays <= 0) throw new IllegalArgumentException("age must be at least one day: " + afterDays);
+        if (interval <= 0) throw new IllegalArgumentException("interval must be positive: " + interval);
+        close();
+        scheduler = Executors.newSingleThreadScheduledExecutor(TaskExecutors.daemonThreads("order-archiver"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archiveOlderThan(afterDays);
+            } catch (SQLException | RuntimeException ex) {
+                // an exception would cancel all further runs; the next run picks up where this stopped
+                System.err.println("Order archiving failed: " + ex);
+            }
+        }, interval, interval, unit);
+    }
+
+    /** Stop the schedule; a batch in progress is rolled back */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Moves archived orders back into the live tables, ids unchanged, inside
+     * a writer's transaction (DBHelper saves and deletes). Like SalesRollups,
+     * one instance per transaction, created before it starts. The order goes
+     * back to the archive with the next run if it is still old enough.
+     */
+    static final class Restore {
+        private final PreparedStatement lockArchived;
+        private final PreparedStatement copyHeader;
+        private final PreparedStatement copyLines;
+        private final PreparedStatement deleteLines;
+        private final PreparedStatement deleteHeader;
+
+        Restore(ConnectionPool.PooledConnection pc) throws SQLException {
+            // no-op update: two writers restoring the same order take turns
+            lockArchived = pc.prepare("UPDATE orders_archive SET total = total WHERE order_id=?");
+            copyHeader = pc.prepare(
+                "INSERT INTO orders (order_id, transaction_id, order_date, total) " +
+                "SELECT order_id, transaction_id, order_date, total FROM orders_archive WHERE order_id=?");
+            copyLines = pc.prepare(
+                "INSERT INTO order_items (order_item_id, order_id, item_id, quantity, line_price) " +
+                "SELECT order_item_id, order_id, item_id, quantity, line_price FROM order_items_archive WHERE order_id=?");
+            deleteLines = pc.prepare("DELETE FROM order_items_archive WHERE order_id=?");
+            deleteHeader = pc.prepare("DELETE FROM orders_archive WHERE order_id=?");
+        }
+
+        /** @return false if the order is not in the archive */
+        boolean restore(int orderId) throws SQLException {
+            lockArchived.setInt(1, orderId);
+            if (lockArchived.executeUpdate() == 0) return false;
+            for (PreparedStatement ps : new PreparedStatement[]{copyHeader, copyLines, deleteLines, deleteHeader}) {
+                ps.setInt(1, orderId);
+                ps.executeUpdate();
+            }
+            return true;
+        }
+    }
+}
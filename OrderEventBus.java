@@ -0,0 +1,327 @@
+package oakdonuts;
+
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Header: OrderEventBus.java
+ * Order saves and deletes, published after commit to any number of
+ * in-process consumers (kitchen display, fryer queue, loyalty counter)
+ * without them polling Derby.
+ *
+ * Events go into a ring of preallocated slots, numbered by an ever-growing
+ * sequence. Publishers claim a sequence with one atomic increment, fill the
+ * slot and mark it available; there is no lock on the way. Each
+ * subscription runs its handler on its own daemon thread, follows the ring
+ * at its own pace and waits in its own way (see WaitStrategy). A slot is
+ * reused only once every subscription is past it, so a consumer that falls
+ * a whole ring behind holds up the committing thread: handlers must keep up
+ * and hand slow work elsewhere.
+ *
+ * DBHelper.orderEvents() creates the bus on first use and feeds it as a
+ * DataChangeListener, so events come in commit order per publisher thread.
+ */
+public final class OrderEventBus implements DataChangeListener, AutoCloseable {
+    public static final int DEFAULT_SIZE = 4096;
+
+    public enum Type { SAVED, DELETED }
+
+    /**
+     * One ring slot, overwritten in place by later events: valid only inside
+     * Handler.onEvent. Copy what must outlive the call.
+     */
+    public static final class Event {
+        private Type type;
+        private int orderId;
+        private String transactionId;
+        private Timestamp orderDate;
+        private Money total;
+        private int lineCount;
+        private int[] itemIds = new int[8];
+        private String[] itemNames = new String[8];
+        private int[] quantities = new int[8];
+
+        public Type getType() { return type; }
+        public int getOrderId() { return orderId; }
+        /** Null for DELETED */
+        public String getTransactionId() { return transactionId; }
+        /** Null for DELETED */
+        public Timestamp getOrderDate() { return orderDate; }
+        /** Null for DELETED */
+        public Money getTotal() { return total; }
+        /** Lines of the saved order (0 for DELETED) */
+        public int getLineCount() { return lineCount; }
+        public int getItemId(int line) { return itemIds[line]; }
+        public String getItemName(int line) { return itemNames[line]; }
+        public int getQuantity(int line) { return quantities[line]; }
+
+        private void saved(Order order) {
+            type = Type.SAVED;
+            orderId = order.getOrderId();
+            transactionId = order.getTransactionId();
+            orderDate = order.getOrderDate();
+            total = order.getTotal();
+            List<OrderItem> items = order.getItems();
+            int n = items.size();
+            if (n > itemIds.length) {
+                // grown once for the largest order seen, then reused
+                int size = Integer.highestOneBit(n - 1) << 1;
+                itemIds = new int[size];
+                itemNames = new String[size];
+                quantities = new int[size];
+            }
+            for (int i = 0; i < n; i++) {
+                OrderItem oi = items.get(i);
+                itemIds[i] = oi.getMenuItem().getItemId();
+                itemNames[i] = oi.getMenuItem().getName();
+                quantities[i] = oi.getQuantity();
+            }
+            // drop names of a bigger earlier order, so they can be collected
+            for (int i = n; i < lineCount; i++) itemNames[i] = null;
+            lineCount = n;
+        }
+
+        private void deleted(int id) {
+            type = Type.DELETED;
+            orderId = id;
+            transactionId = null;
+            orderDate = null;
+            total = null;
+            for (int i = 0; i < lineCount; i++) itemNames[i] = null;
+            lineCount = 0;
+        }
+    }
+
+    /** Consumer callback; runs on the subscription's thread */
+    public interface Handler {
+        /**
+         * @param sequence the event's position on the bus, one higher for each event
+         * @param endOfBatch true for the last event currently available, e.g. to repaint once
+         */
+        void onEvent(Event event, long sequence, boolean endOfBatch);
+    }
+
+    /** How an idle subscription waits for the next event: lower latency costs more CPU */
+    public enum WaitStrategy {
+        /** Spin on a core; lowest latency, one core fully busy */
+        BUSY_SPIN {
+            @Override
+            void idle(OrderEventBus bus, Subscription s, long sequence, int attempt) {
+                Thread.onSpinWait();
+            }
+        },
+        /** Spin briefly, then yield to other threads */
+        YIELDING {
+            @Override
+            void idle(OrderEventBus bus, Subscription s, long sequence, int attempt) {
+                if (attempt < SPIN_TRIES) Thread.onSpinWait();
+                else Thread.yield();
+            }
+        },
+        /** Spin, yield, then sleep in short naps; near-idle CPU, latency up to a nap */
+        SLEEPING {
+            @Override
+            void idle(OrderEventBus bus, Subscription s, long sequence, int attempt) {
+                if (attempt < SPIN_TRIES) Thread.onSpinWait();
+                else if (attempt < 2 * SPIN_TRIES) Thread.yield();
+                else LockSupport.parkNanos(NAP_NANOS);
+            }
+        },
+        /** Sleep until a publisher signals; no CPU while idle, wake-up takes a thread switch */
+        BLOCKING {
+            @Override
+            void idle(OrderEventBus bus, Subscription s, long sequence, int attempt) {
+                bus.lock.lock();
+                try {
+                    bus.blockedSubscribers++;
+                    try {
+                        // checked under the lock the publisher signals with: no missed wake-up
+                        while (s.running && !bus.isAvailable(sequence)) bus.published.awaitUninterruptibly();
+                    } finally {
+                        bus.blockedSubscribers--;
+                    }
+                } finally {
+                    bus.lock.unlock();
+                }
+            }
+        };
+
+        private static final int SPIN_TRIES = 100;
+        private static final long NAP_NANOS = 50_000;
+
+        /** Called while the event at sequence is not available yet; may return early */
+        abstract void idle(OrderEventBus bus, Subscription s, long sequence, int attempt);
+    }
+
+    /** One consumer following the bus; close it to stop its thread */
+    public final class Subscription implements AutoCloseable {
+        /** Highest sequence fully handled; the publishers' gate */
+        private final AtomicLong handled;
+        private final Handler handler;
+        private final WaitStrategy wait;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Subscription(String name, Handler handler, WaitStrategy wait, long start) {
+            this.handled = new AtomicLong(start - 1);
+            this.handler = handler;
+            this.wait = wait;
+            this.thread = new Thread(this::run, "order-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /** Highest sequence this subscription has handled */
+        public long getSequence() {
+            return handled.get();
+        }
+
+        private void run() {
+            long next = handled.get() + 1;
+            while (running) {
+                int attempt = 0;
+                while (!isAvailable(next)) {
+                    if (!running) return;
+                    wait.idle(OrderEventBus.this, this, next, attempt++);
+                }
+                // take everything already published in one go
+                long last = next;
+                while (isAvailable(last + 1)) last++;
+                for (long seq = next; seq <= last; seq++) {
+                    try {
+                        handler.onEvent(ring[(int) seq & mask], seq, seq == last);
+                    } catch (RuntimeException ex) {
+                        // one bad event must not stop the consumer
+                        System.err.println("Order event handler " + thread.getName() + " failed: " + ex);
+                    }
+                }
+                handled.set(last);
+                next = last + 1;
+            }
+        }
+
+        /** Stop after the event being handled, if any */
+        @Override
+        public void close() {
+            running = false;
+            subscriptions.remove(this);
+            signalBlocked();
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private final Event[] ring;
+    private final int mask;
+    /** Sequence at each slot once published; -1 while the first lap is unpublished */
+    private final AtomicLongArray available;
+    /** Next sequence to claim */
+    private final AtomicLong claimed = new AtomicLong();
+    /** Lowest handled sequence seen by the last full check (stale is safe: it only grows) */
+    private volatile long gateCache = -1;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    /** Guarded by lock; publishers only take the lock when this is non-zero */
+    private volatile int blockedSubscribers;
+
+    public OrderEventBus() {
+        this(DEFAULT_SIZE);
+    }
+
+    /** @param size ring slots, a power of two */
+    public OrderEventBus(int size) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("ring size must be a power of two: " + size);
+        }
+        ring = new Event[size];
+        for (int i = 0; i < size; i++) ring[i] = new Event();
+        mask = size - 1;
+        available = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) available.set(i, -1);
+    }
+
+    /**
+     * Start a consumer thread that gets every event published from now on.
+     * @param name used in the thread name
+     */
+    public Subscription subscribe(String name, Handler handler, WaitStrategy wait) {
+        // registered before its thread starts, so publishers already wait for it
+        Subscription s = new Subscription(name, handler, wait, claimed.get());
+        subscriptions.add(s);
+        s.thread.start();
+        return s;
+    }
+
+    @Override
+    public void orderSaved(Order order) {
+        long seq = claim();
+        ring[(int) seq & mask].saved(order);
+        publish(seq);
+    }
+
+    @Override
+    public void orderDeleted(int orderId) {
+        long seq = claim();
+        ring[(int) seq & mask].deleted(orderId);
+        publish(seq);
+    }
+
+    /** Highest sequence claimed by a publisher so far (-1 before the first event) */
+    public long getSequence() {
+        return claimed.get() - 1;
+    }
+
+    /** Stop all subscriptions */
+    @Override
+    public void close() {
+        for (Subscription s : subscriptions) s.close();
+    }
+
+    /** Take the next sequence, waiting until every subscription has left its slot */
+    private long claim() {
+        long seq = claimed.getAndIncrement();
+        long wrap = seq - ring.length;
+        if (wrap <= gateCache) return seq;
+        long gate;
+        while (wrap > (gate = lowestHandled(seq - 1))) {
+            // a subscription is a whole ring behind
+            LockSupport.parkNanos(1_000);
+        }
+        gateCache = gate;
+        return seq;
+    }
+
+    private long lowestHandled(long upTo) {
+        long min = upTo;
+        for (Subscription s : subscriptions) min = Math.min(min, s.handled.get());
+        return min;
+    }
+
+    private void publish(long seq) {
+        available.set((int) seq & mask, seq);
+        if (blockedSubscribers > 0) signalBlocked();
+    }
+
+    private boolean isAvailable(long seq) {
+        return available.get((int) seq & mask) == seq;
+    }
+
+    private void signalBlocked() {
+        lock.lock();
+        try {
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package oakdonuts;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import oakdonuts.metrics.Metrics;
+import oakdonuts.metrics.OperationStats;
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+import oakdonuts.utils.DateUtils;
+import oakdonuts.utils.Json;
+import oakdonuts.utils.TaskExecutors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header: OrderHttpServer.java
+ * JSON-over-HTTP access to the menu and orders, for kiosks, online ordering
+ * and kitchen displays, using the same DBHelper as the Swing client.
+ *
+ *   GET    /menu                      menu items
+ *   GET    /orders?limit=&cursor=     order headers, newest first, paged
+ *   POST   /orders                    {"items":[{"itemId":1,"quantity":2}]}
+ *   GET    /orders/{id}               one order with its items
+ *   DELETE /orders/{id}
+ *
+ * Each request runs on its own virtual thread (JDK 21+; a fixed pool
+ * otherwise), so a request blocked on Derby ties up no platform thread and
+ * concurrency is bounded by DBHelper's connection pool. The menu is served
+ * from the menu snapshot and its JSON is reused until the menu changes.
+ * Requests are timed as http.* operations (see Metrics).
+ */
+public class OrderHttpServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final int BACKLOG = 1024;
+    private static final int FALLBACK_THREADS = 64;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int STOP_DELAY_SECONDS = 2;
+    /** Cursor date part for an order without a date */
+    private static final String UNDATED = "undated";
+
+    private static final OperationStats GET_MENU = stats("getMenu");
+    private static final OperationStats LIST_ORDERS = stats("listOrders");
+    private static final OperationStats CREATE_ORDER = stats("createOrder");
+    private static final OperationStats GET_ORDER = stats("getOrder");
+    private static final OperationStats DELETE_ORDER = stats("deleteOrder");
+    private static final OperationStats BAD_ROUTE = stats("notFound");
+
+    private final DBHelper db;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /** Serialized menu and the snapshot version it was built from */
+    private volatile CachedMenu menuJson;
+
+    private static final class CachedMenu {
+        final long version;
+        final byte[] body;
+
+        CachedMenu(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    /** A request that cannot be served, answered with status and message */
+    private static final class HttpError extends Exception {
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /** Bind to the port on all interfaces; port 0 picks a free one */
+    public OrderHttpServer(DBHelper db, int port) throws IOException {
+        this(db, new InetSocketAddress(port));
+    }
+
+    public OrderHttpServer(DBHelper db, InetSocketAddress address) throws IOException {
+        this.db = db;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = TaskExecutors.newTaskExecutor("http", FALLBACK_THREADS);
+        server.setExecutor(executor);
+        server.createContext("/menu", this::handleMenu);
+        server.createContext("/orders", this::handleOrders);
+        server.createContext("/", ex -> respond(ex, BAD_ROUTE, () -> {
+            throw new HttpError(404, "No such resource: " + ex.getRequestURI().getPath());
+        }));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /** The bound port (useful with port 0) */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stop accepting requests and give running ones a moment to finish */
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static OperationStats stats(String operation) {
+        return Metrics.global().stats("http." + operation);
+    }
+
+    /* ------------------ Routing ------------------ */
+
+    private void handleMenu(HttpExchange ex) throws IOException {
+        respond(ex, GET_MENU, () -> {
+            requirePath(ex, "/menu");
+            requireMethod(ex, "GET");
+            return new Response(200, menuBody());
+        });
+    }
+
+    private void handleOrders(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        String method = ex.getRequestMethod();
+        if (path.equals("/orders") || path.equals("/orders/")) {
+            if (method.equals("POST")) respond(ex, CREATE_ORDER, () -> createOrder(ex));
+            else respond(ex, LIST_ORDERS, () -> {
+                requireMethod(ex, "GET");
+                return listOrders(ex);
+            });
+            return;
+        }
+        respond(ex, method.equals("DELETE") ? DELETE_ORDER : GET_ORDER, () -> {
+            int orderId = parseOrderId(path.substring("/orders/".length()));
+            if (method.equals("DELETE")) {
+                if (!db.deleteOrder(orderId)) throw new HttpError(404, "No order " + orderId);
+                return new Response(204, null);
+            }
+            requireMethod(ex, "GET");
+            Order o = db.getOrder(orderId);
+            if (o == null) throw new HttpError(404, "No order " + orderId);
+            return new Response(200, utf8(orderJson(new StringBuilder(256), o, true)));
+        });
+    }
+
+    /* ------------------ Handlers ------------------ */
+
+    private byte[] menuBody() throws SQLException {
+        MenuCache.Snapshot snap = db.getMenuSnapshot();
+        CachedMenu cached = menuJson;
+        if (cached != null && cached.version == snap.getVersion()) return cached.body;
+        StringBuilder sb = new StringBuilder(64 + snap.size() * 96).append('[');
+        for (MenuItem m : snap.getItems()) {
+            if (sb.length() > 1) sb.append(',');
+            menuItemJson(sb, m);
+        }
+        byte[] body = utf8(sb.append(']'));
+        // racing rebuilds produce the same bytes for the same version
+        menuJson = new CachedMenu(snap.getVersion(), body);
+        return body;
+    }
+
+    private Response listOrders(HttpExchange ex) throws SQLException, HttpError {
+        Map<String, String> query = query(ex);
+        int limit = DEFAULT_PAGE_SIZE;
+        if (query.containsKey("limit")) {
+            try {
+                limit = Integer.parseInt(query.get("limit"));
+            } catch (NumberFormatException nfe) {
+                throw new HttpError(400, "limit must be a number");
+            }
+            if (limit <= 0 || limit > MAX_PAGE_SIZE) throw new HttpError(400, "limit must be 1.." + MAX_PAGE_SIZE);
+        }
+        Order after = query.containsKey("cursor") ? parseCursor(query.get("cursor")) : null;
+        List<Order> page = db.getOrdersPage(after, limit);
+
+        StringBuilder sb = new StringBuilder(64 + page.size() * 112).append("{\"orders\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) sb.append(',');
+            orderJson(sb, page.get(i), false);
+        }
+        sb.append("],\"next\":");
+        // a short page is the last one
+        Json.string(sb, page.size() == limit ? cursorOf(page.get(page.size() - 1)) : null);
+        return new Response(200, utf8(sb.append('}')));
+    }
+
+    private Response createOrder(HttpExchange ex) throws IOException, SQLException, HttpError {
+        Object doc;
+        try {
+            doc = Json.parse(new String(readBody(ex), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException bad) {
+            throw new HttpError(400, bad.getMessage());
+        }
+        Object lines = doc instanceof Map ? ((Map<?, ?>) doc).get("items") : null;
+        if (!(lines instanceof List) || ((List<?>) lines).isEmpty()) {
+            throw new HttpError(400, "Expected {\"items\":[{\"itemId\":..,\"quantity\":..}, ...]}");
+        }
+        // items are priced from one consistent version of the menu
+        MenuCache.Snapshot menu = db.getMenuSnapshot();
+        Order order = new Order();
+        for (Object line : (List<?>) lines) {
+            if (!(line instanceof Map)) throw new HttpError(400, "Each item must be an object");
+            int itemId = positiveInt((Map<?, ?>) line, "itemId");
+            int quantity = positiveInt((Map<?, ?>) line, "quantity");
+            MenuItem m = menu.get(itemId);
+            if (m == null) throw new HttpError(400, "Unknown menu item " + itemId);
+            order.addItem(new OrderItem(m, quantity));
+        }
+        order.setOrderDate(DateUtils.now());
+        order.setTransactionId(db.generateNextTransactionId());
+        db.saveOrder(order);
+
+        Response r = new Response(order.getOrderId() != 0 ? 201 : 202,
+            utf8(orderJson(new StringBuilder(256), order, true)));
+        // with the order journal on, the id is assigned when the order reaches Derby
+        if (order.getOrderId() != 0) r.location = "/orders/" + order.getOrderId();
+        return r;
+    }
+
+    /* ------------------ JSON ------------------ */
+
+    private static void menuItemJson(StringBuilder sb, MenuItem m) {
+        sb.append("{\"itemId\":").append(m.getItemId()).append(",\"name\":");
+        Json.string(sb, m.getName()).append(",\"price\":").append(m.getPrice()).append(",\"description\":");
+        Json.string(sb, m.getDescription()).append('}');
+    }
+
+    private static StringBuilder orderJson(StringBuilder sb, Order o, boolean withItems) {
+        sb.append("{\"orderId\":");
+        if (o.getOrderId() != 0) sb.append(o.getOrderId());
+        else sb.append("null");
+        sb.append(",\"transactionId\":");
+        Json.string(sb, o.getTransactionId()).append(",\"orderDate\":");
+        Json.string(sb, o.getOrderDate() != null ? o.getOrderDate().toLocalDateTime().toString() : null);
+        sb.append(",\"total\":").append(o.getTotal());
+        if (withItems) {
+            sb.append(",\"items\":[");
+            List<OrderItem> items = o.getItems();
+            for (int i = 0; i < items.size(); i++) {
+                OrderItem oi = items.get(i);
+                if (i > 0) sb.append(',');
+                sb.append("{\"itemId\":").append(oi.getMenuItem().getItemId()).append(",\"name\":");
+                Json.string(sb, oi.getMenuItem().getName()).append(",\"quantity\":").append(oi.getQuantity())
+                    .append(",\"linePrice\":").append(oi.getLinePrice()).append('}');
+            }
+            sb.append(']');
+        }
+        return sb.append('}');
+    }
+
+    /* ------------------ Request parsing ------------------ */
+
+    /** Keyset cursor of getOrdersPage: order date (epoch millis and nanos, or "undated") and id */
+    private static String cursorOf(Order last) {
+        Timestamp t = last.getOrderDate();
+        if (t == null) return UNDATED + "." + last.getOrderId();
+        return t.getTime() + "." + t.getNanos() + "." + last.getOrderId();
+    }
+
+    private static Order parseCursor(String cursor) throws HttpError {
+        String[] parts = cursor.split("\\.");
+        try {
+            Order after = new Order();
+            if (parts.length == 2 && parts[0].equals(UNDATED)) {
+                after.setOrderId(Integer.parseInt(parts[1]));
+                return after;
+            }
+            if (parts.length != 3) throw new NumberFormatException();
+            Timestamp t = new Timestamp(Long.parseLong(parts[0]));
+            t.setNanos(Integer.parseInt(parts[1]));
+            after.setOrderDate(t);
+            after.setOrderId(Integer.parseInt(parts[2]));
+            return after;
+        } catch (IllegalArgumentException bad) {
+            throw new HttpError(400, "Invalid cursor");
+        }
+    }
+
+    private static int parseOrderId(String text) throws HttpError {
+        try {
+            int id = Integer.parseInt(text);
+            if (id > 0) return id;
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new HttpError(404, "No order " + text);
+    }
+
+    private static int positiveInt(Map<?, ?> obj, String key) throws HttpError {
+        Object v = obj.get(key);
+        if (v instanceof BigDecimal) {
+            try {
+                int n = ((BigDecimal) v).intValueExact();
+                if (n > 0) return n;
+            } catch (ArithmeticException ignored) {
+                // reported below
+            }
+        }
+        throw new HttpError(400, key + " must be a positive whole number");
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> params = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static byte[] readBody(HttpExchange ex) throws IOException, HttpError {
+        try (InputStream in = ex.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (out.size() + n > MAX_BODY_BYTES) throw new HttpError(413, "Request body too large");
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void requireMethod(HttpExchange ex, String method) throws HttpError {
+        if (!ex.getRequestMethod().equals(method)) throw new HttpError(405, "Method not allowed");
+    }
+
+    private static void requirePath(HttpExchange ex, String path) throws HttpError {
+        if (!ex.getRequestURI().getPath().equals(path)) {
+            throw new HttpError(404, "No such resource: " + ex.getRequestURI().getPath());
+        }
+    }
+
+    /* ------------------ Responses ------------------ */
+
+    private interface Handler {
+        Response handle() throws Exception;
+    }
+
+    private static final class Response {
+        final int status;
+        final byte[] body;
+        String location;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Run the handler, map failures to a status (400s for bad requests, 503
+     * when the database is busy, 500 otherwise) and send the response.
+     * Server-side failures count as errors in the stats.
+     */
+    private static void respond(HttpExchange ex, OperationStats stats, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        Response r;
+        try {
+            r = handler.handle();
+        } catch (HttpError e) {
+            r = error(e.status, e.getMessage());
+        } catch (SQLTransientException e) {
+            r = error(503, "Busy, try again: " + e.getMessage());
+        } catch (SQLException e) {
+            // constraint violations are the client's conflict, anything else is ours
+            r = error(e.getSQLState() != null && e.getSQLState().startsWith("23") ? 409 : 500, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            r = error(500, "Internal error");
+        }
+        try {
+            if (r.location != null) ex.getResponseHeaders().set("Location", r.location);
+            if (r.body == null) {
+                ex.sendResponseHeaders(r.status, -1);
+            } else {
+                ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                ex.sendResponseHeaders(r.status, r.body.length);
+                try (OutputStream out = ex.getResponseBody()) {
+                    out.write(r.body);
+                }
+            }
+        } finally {
+            ex.close();
+            stats.record(System.nanoTime() - start, r.status < 500);
+        }
+    }
+
+    private static Response error(int status, String message) {
+        StringBuilder sb = new StringBuilder(64).append("{\"error\":");
+        return new Response(status, utf8(Json.string(sb, message).append('}')));
+    }
+
+    private static byte[] utf8(CharSequence s) {
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
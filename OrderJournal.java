@@ -0,0 +1,515 @@
+package oakdonuts;
+
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+import oakdonuts.utils.TaskExecutors;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Header: OrderJournal.java
+ * Append-only, checksummed journal of finalized orders with write-behind to Derby.
+ *
+ * saveOrder appends the new order to a memory-mapped file and returns at
+ * once; a background writer drains the journal into Derby in batches and
+ * advances a checkpoint in the file header. Entries past the checkpoint are
+ * replayed when the journal is opened, so an acknowledged order survives a
+ * crash even if Derby never saw it.
+ *
+ * File layout: header [magic][version][checkpoint offset], then records
+ * [length][crc32][payload], always followed by a zero length marker.
+ * Replay is idempotent: transaction ids are unique, so an entry that was
+ * committed but not yet checkpointed is recognized and saved as an update.
+ * An entry that can never be written (a constraint violation, e.g. its menu
+ * item was deleted) is appended to file.dead, in the same record format,
+ * before the checkpoint moves past it; readDeadLetters() decodes them.
+ */
+class OrderJournal implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    public static final String DEFAULT_FILE = "oddb-orders.journal";
+
+    private static final int MAGIC = 0x4F444A31; // "ODJ1"
+    /** 2: amounts stored as long cents */
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int CHECKPOINT_AT = 8;
+    private static final int RECORD_OVERHEAD = 8;
+    private static final int MAX_BATCH = 200;
+    private static final long RESOLVE_TIMEOUT_MS = 30_000;
+
+    private final DBHelper db;
+    private final Path deadLetters;
+    private final FileChannel channel;
+    private final MappedByteBuffer buf;
+    private final boolean forceEachAppend;
+
+    /** Guarded by this: next append position and first unapplied record */
+    private int writePos;
+    private int appliedPos;
+    /** Guarded by this: entries set aside in deadLetters, and how many flush() has reported */
+    private int setAside;
+    private int setAsideReported;
+
+    /** Orders acknowledged but not yet in Derby, by transaction id */
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private static final class Pending {
+        final CountDownLatch applied = new CountDownLatch(1);
+        /** The caller's lines at append time; they get their ids in resolvePending */
+        final List<OrderItem> items;
+        volatile int orderId;
+        volatile int[] itemIds;
+        /** Why the order was set aside instead of written; null if it was written */
+        volatile SQLException failure;
+
+        Pending(List<OrderItem> items) { this.items = items; }
+    }
+
+    /** Decoded entry plus the journal position just past it */
+    private static final class Entry {
+        final Order order;
+        final int end;
+
+        Entry(Order order, int end) {
+            this.order = order;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Open (or create) the journal, replay unapplied entries into Derby and
+     * start the background writer.
+     *
+     * @param forceEachAppend msync every append before acknowledging; without
+     *                        it an OS crash (not an app crash) can lose the tail
+     */
+    OrderJournal(DBHelper db, Path file, int capacity, boolean forceEachAppend) throws IOException, SQLException {
+        this.db = db;
+        this.forceEachAppend = forceEachAppend;
+        this.deadLetters = deadLetterFile(file);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, (int) channel.size()));
+
+            if (buf.getInt(0) == MAGIC && buf.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unsupported order journal version " + buf.getInt(4) + " in " + file);
+            }
+            if (buf.getInt(0) != MAGIC) {
+                buf.putInt(0, MAGIC);
+                buf.putInt(4, FORMAT_VERSION);
+                buf.putLong(CHECKPOINT_AT, HEADER_SIZE);
+                buf.putInt(HEADER_SIZE, 0);
+                buf.force();
+            }
+            appliedPos = (int) buf.getLong(CHECKPOINT_AT);
+            writePos = scanEnd(appliedPos);
+
+            // replay before taking new orders
+            List<Entry> batch;
+            while (!(batch = readBatch()).isEmpty()) {
+                apply(batch);
+            }
+        } catch (IOException | SQLException | RuntimeException ex) {
+            // unapplied entries stay in the file for the next open
+            channel.close();
+            throw ex;
+        }
+
+        writer = TaskExecutors.daemonThreads("order-journal").newThread(this::drainLoop);
+        writer.start();
+    }
+
+    /**
+     * Append a new order (orderId 0, transaction id set) and acknowledge it.
+     * Returns false if the journal is full; the caller must then save directly.
+     */
+    boolean append(Order order) throws SQLException {
+        byte[] payload = encode(order);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        synchronized (this) {
+            if (!running) return false;
+            int need = RECORD_OVERHEAD + payload.length + 4;
+            if (writePos + need > buf.capacity()) return false;
+
+            pending.put(order.getTransactionId(), new Pending(new ArrayList<>(order.getItems())));
+            ByteBuffer out = buf.duplicate();
+            out.position(writePos + RECORD_OVERHEAD);
+            out.put(payload);
+            out.putInt(0);
+            buf.putInt(writePos + 4, (int) crc.getValue());
+            // length last: a torn append reads as end-of-journal
+            buf.putInt(writePos, payload.length);
+            if (forceEachAppend) buf.force();
+            writePos += RECORD_OVERHEAD + payload.length;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * If this order was journaled and is not yet in Derby, wait for the writer
+     * to apply it and copy the generated order and line ids onto it. Lets a
+     * cashier re-save (edit) an order that is still in the journal; edits made
+     * meanwhile are then saved as a diff against the applied rows. Throws the
+     * writer's error if the order was set aside instead; saving it again then
+     * journals it anew.
+     */
+    void resolvePending(Order order) throws SQLException {
+        if (order.getOrderId() != 0 || order.getTransactionId() == null) return;
+        Pending p = pending.get(order.getTransactionId());
+        if (p == null) return;
+        try {
+            if (!p.applied.await(RESOLVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientException("Journaled order " + order.getTransactionId() + " not yet written to the database");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientException("Interrupted waiting for the order journal", ex);
+        }
+        if (p.failure != null) {
+            throw new SQLException("Journaled order " + order.getTransactionId() + " could not be written and was set aside in "
+                + deadLetters + ": " + p.failure.getMessage(), p.failure.getSQLState(), p.failure);
+        }
+        if (p.orderId == 0) return;
+        order.setOrderId(p.orderId);
+        int[] ids = p.itemIds;
+        for (int i = 0; ids != null && i < ids.length && i < p.items.size(); i++) {
+            OrderItem oi = p.items.get(i);
+            if (oi.isNew()) oi.setOrderItemId(ids[i]);
+        }
+    }
+
+    /**
+     * Block until everything appended so far has been written to Derby.
+     * Fails if entries were set aside in the dead letter file since the
+     * previous flush.
+     */
+    void flush() throws SQLException {
+        for (Map.Entry<String, Pending> e : pending.entrySet()) {
+            try {
+                if (!e.getValue().applied.await(RESOLVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new SQLTransientException("Order journal did not drain within " + RESOLVE_TIMEOUT_MS + " ms");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientException("Interrupted waiting for the order journal", ex);
+            }
+        }
+        int unreported;
+        synchronized (this) {
+            unreported = setAside - setAsideReported;
+            setAsideReported = setAside;
+        }
+        if (unreported > 0) {
+            throw new SQLException(unreported + " journaled order(s) could not be written and were set aside in " + deadLetters);
+        }
+    }
+
+    /* ------------------ background writer ------------------ */
+
+    private void drainLoop() {
+        long backoff = 10;
+        while (running || hasUnapplied()) {
+            try {
+                List<Entry> batch;
+                synchronized (this) {
+                    if (running && appliedPos == writePos) wait(100);
+                    batch = readBatch();
+                }
+                if (batch.isEmpty()) continue;
+                apply(batch);
+                backoff = 10;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException ex) {
+                // database busy or down: keep the entries and retry (or replay on next start)
+                ex.printStackTrace();
+                if (!running) return;
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, 5000);
+            }
+        }
+    }
+
+    private synchronized boolean hasUnapplied() {
+        return appliedPos != writePos;
+    }
+
+    /** Write a batch to Derby, then checkpoint past it */
+    private void apply(List<Entry> batch) throws SQLException {
+        List<Order> orders = new ArrayList<>(batch.size());
+        for (Entry e : batch) orders.add(e.order);
+        SQLException[] failures = new SQLException[orders.size()];
+        try {
+            db.saveOrderGroup(orders);
+        } catch (SQLException ex) {
+            // find out which entries were already applied (replay) or can never apply
+            for (int i = 0; i < orders.size(); i++) failures[i] = applyOne(orders.get(i));
+        }
+        setAside(orders, failures);
+        checkpoint(batch.get(batch.size() - 1).end);
+        for (int i = 0; i < orders.size(); i++) {
+            Order o = orders.get(i);
+            Pending p = pending.remove(o.getTransactionId());
+            if (p != null) {
+                p.failure = failures[i];
+                int[] ids = new int[o.getItems().size()];
+                for (int j = 0; j < ids.length; j++) ids[j] = o.getItems().get(j).getOrderItemId();
+                p.itemIds = ids;
+                p.orderId = o.getOrderId();
+                p.applied.countDown();
+            }
+        }
+    }
+
+    /**
+     * Write one order on its own.
+     * @return the constraint violation that keeps it out for good, or null once it is in Derby
+     */
+    private SQLException applyOne(Order o) throws SQLException {
+        try {
+            db.saveOrderGroup(Collections.singletonList(o));
+            return null;
+        } catch (SQLException ex) {
+            // constraint violation (e.g. menu item gone): retrying cannot help
+            if (!isConstraintViolation(ex)) throw ex;
+            if (!"23505".equals(ex.getSQLState())) return ex;
+            try {
+                return alreadyApplied(o) ? null : ex;
+            } catch (SQLException again) {
+                if (isConstraintViolation(again)) return again;
+                throw again;
+            }
+        }
+    }
+
+    private static boolean isConstraintViolation(SQLException ex) {
+        return ex.getSQLState() != null && ex.getSQLState().startsWith("23");
+    }
+
+    /**
+     * For a duplicate transaction id: the order was committed before the
+     * last checkpoint (replay), or journaled again by a re-save that came
+     * after it was applied. Give o the stored ids, line by line in insertion
+     * order, and save it as an update, so it ends up as journaled either way.
+     * @return false if there is no such order after all
+     */
+    private boolean alreadyApplied(Order o) throws SQLException {
+        Order stored = db.getOrderByTransactionId(o.getTransactionId());
+        if (stored == null) return false;
+        o.setOrderId(stored.getOrderId());
+        List<OrderItem> storedItems = stored.getItems();
+        List<OrderItem> items = new ArrayList<>(o.getItems());
+        for (int i = 0; i < items.size() && i < storedItems.size(); i++) {
+            items.get(i).setOrderItemId(storedItems.get(i).getOrderItemId());
+        }
+        for (int i = items.size(); i < storedItems.size(); i++) {
+            // stored lines the journaled order no longer has
+            OrderItem gone = storedItems.get(i);
+            o.addItem(gone);
+            o.removeItem(gone);
+        }
+        try {
+            db.saveOrderGroup(Collections.singletonList(o));
+        } catch (SQLException ex) {
+            o.setOrderId(0);
+            for (OrderItem oi : items) oi.setOrderItemId(0);
+            throw ex;
+        }
+        return true;
+    }
+
+    /** Append the failed orders to the dead letter file, durably, before the checkpoint passes them */
+    private void setAside(List<Order> orders, SQLException[] failures) throws SQLException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int count = 0;
+        for (int i = 0; i < orders.size(); i++) {
+            if (failures[i] == null) continue;
+            byte[] payload = encode(orders.get(i));
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            ByteBuffer header = ByteBuffer.allocate(RECORD_OVERHEAD).putInt(payload.length).putInt((int) crc.getValue());
+            records.write(header.array(), 0, RECORD_OVERHEAD);
+            records.write(payload, 0, payload.length);
+            System.err.println("Order journal: setting aside " + orders.get(i).getTransactionId() + " in "
+                + deadLetters + ": " + failures[i].getMessage());
+            count++;
+        }
+        if (count == 0) return;
+        try (FileChannel out = FileChannel.open(deadLetters, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = ByteBuffer.wrap(records.toByteArray());
+            while (bytes.hasRemaining()) out.write(bytes);
+            out.force(true);
+        } catch (IOException ex) {
+            // keep the entries in the journal: the batch is retried
+            throw new SQLException("Cannot write the order journal's dead letters to " + deadLetters, ex);
+        }
+        synchronized (this) {
+            setAside += count;
+        }
+    }
+
+    /** Where the journal in file sets aside the orders it cannot write */
+    static Path deadLetterFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".dead");
+    }
+
+    /** Orders set aside in a journal's dead letter file (file.dead), to be fixed and saved again */
+    static List<Order> readDeadLetters(Path file) throws IOException, SQLException {
+        List<Order> orders = new ArrayList<>();
+        if (!Files.exists(file)) return orders;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (in.remaining() >= RECORD_OVERHEAD) {
+            int len = in.getInt();
+            int crc = in.getInt();
+            if (len <= 0 || len > in.remaining()) break; // torn tail
+            byte[] payload = new byte[len];
+            in.get(payload);
+            CRC32 check = new CRC32();
+            check.update(payload, 0, len);
+            if ((int) check.getValue() != crc) break;
+            orders.add(decode(payload));
+        }
+        return orders;
+    }
+
+    private synchronized void checkpoint(int pos) {
+        appliedPos = pos;
+        if (appliedPos == writePos) {
+            // fully drained: rewind so the journal never fills up in normal use
+            appliedPos = writePos = HEADER_SIZE;
+            buf.putInt(HEADER_SIZE, 0);
+        }
+        buf.putLong(CHECKPOINT_AT, appliedPos);
+        buf.force();
+    }
+
+    /** Decode up to MAX_BATCH records starting at the checkpoint */
+    private synchronized List<Entry> readBatch() throws SQLException {
+        List<Entry> batch = new ArrayList<>();
+        int pos = appliedPos;
+        while (pos < writePos && batch.size() < MAX_BATCH) {
+            int len = buf.getInt(pos);
+            byte[] payload = new byte[len];
+            ByteBuffer in = buf.duplicate();
+            in.position(pos + RECORD_OVERHEAD);
+            in.get(payload);
+            pos += RECORD_OVERHEAD + len;
+            batch.add(new Entry(decode(payload), pos));
+        }
+        return batch;
+    }
+
+    /** End of the valid records starting at pos: stops at the zero marker or a bad checksum */
+    private int scanEnd(int pos) {
+        while (pos + RECORD_OVERHEAD <= buf.capacity()) {
+            int len = buf.getInt(pos);
+            if (len <= 0 || pos + RECORD_OVERHEAD + len > buf.capacity()) break;
+            byte[] payload = new byte[len];
+            ByteBuffer in = buf.duplicate();
+            in.position(pos + RECORD_OVERHEAD);
+            in.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, len);
+            if ((int) crc.getValue() != buf.getInt(pos + 4)) break;
+            pos += RECORD_OVERHEAD + len;
+        }
+        if (pos + 4 <= buf.capacity()) buf.putInt(pos, 0);
+        return pos;
+    }
+
+    /* ------------------ record format ------------------ */
+
+    private static byte[] encode(Order order) throws SQLException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 16 * order.getItems().size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(order.getTransactionId());
+            out.writeLong(order.getOrderDate() != null ? order.getOrderDate().getTime() : Long.MIN_VALUE);
+            out.writeLong(order.getTotalCents());
+            out.writeInt(order.getItems().size());
+            for (OrderItem oi : order.getItems()) {
+                out.writeInt(oi.getMenuItem().getItemId());
+                out.writeLong(oi.getMenuItem().getPriceCents());
+                out.writeInt(oi.getQuantity());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new SQLException("Cannot encode order " + order.getTransactionId(), ex);
+        }
+    }
+
+    private static Order decode(byte[] payload) throws SQLException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            Order o = new Order();
+            o.setTransactionId(in.readUTF());
+            long date = in.readLong();
+            o.setOrderDate(date != Long.MIN_VALUE ? new Timestamp(date) : null);
+            long totalCents = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int itemId = in.readInt();
+                long priceCents = in.readLong();
+                int qty = in.readInt();
+                o.addItem(new OrderItem(new MenuItem(itemId, null, Money.ofCents(priceCents), null), qty));
+            }
+            o.setTotal(Money.ofCents(totalCents));
+            return o;
+        } catch (IOException ex) {
+            throw new SQLException("Corrupt order journal record", ex);
+        }
+    }
+
+    /** Stop taking appends, drain what is journaled (best effort) and close the file */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            buf.force();
+            channel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
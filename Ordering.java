@@ -3,20 +3,43 @@ package oakdonuts.models;
 /**
  * Header: OrderItem.java
  * Model: single line item on an order
+ *
+ * A line with orderItemId 0 has never been saved; a saved line whose
+ * quantity or menu item changed is dirty until the order is saved again.
+ * A line read back from the database keeps the price it was sold at, so
+ * menu price changes never reprice history.
  */
 public class OrderItem {
     private int orderItemId;
     private int orderId;
     private MenuItem menuItem;
     private int quantity;
-    private double linePrice;
+    private long linePriceCents;
+    /** Price of one unit on this line; a quantity change reprices at it */
+    private long unitPriceCents;
+
+    /** Order this line belongs to; told about line price changes */
+    private Order owner;
+    /** Changed since last save (only meaningful once orderItemId != 0) */
+    private boolean dirty;
 
     public OrderItem() {}
 
     public OrderItem(MenuItem menuItem, int quantity) {
         this.menuItem = menuItem;
         this.quantity = quantity;
-        this.linePrice = menuItem.getPrice() * quantity;
+        dirty = true;
+        this.unitPriceCents = menuItem.getPriceCents();
+        this.linePriceCents = Math.multiplyExact(unitPriceCents, (long) quantity);
+    }
+
+    /** A stored line, at the line price it was saved with rather than today's menu price */
+    public OrderItem(MenuItem menuItem, int quantity, long linePriceCents) {
+        this.menuItem = menuItem;
+        this.quantity = quantity;
+        dirty = true;
+        this.linePriceCents = linePriceCents;
+        this.unitPriceCents = (quantity != 0) ? linePriceCents / quantity : menuItem.getPriceCents();
     }
 
     // getters/setters
@@ -27,13 +50,34 @@ public class OrderItem {
     public void setOrderId(int orderId) { this.orderId = orderId; }
 
     public MenuItem getMenuItem() { return menuItem; }
-    public void setMenuItem(MenuItem menuItem) { this.menuItem = menuItem; }
+    /** Swap the item on this line; the line is repriced at the new item's menu price */
+    public void setMenuItem(MenuItem menuItem) {
+        long old = linePriceCents;
+        this.menuItem = menuItem;
+        this.unitPriceCents = (menuItem != null) ? menuItem.getPriceCents() : 0;
+        dirty = true;
+        this.linePriceCents = Math.multiplyExact(unitPriceCents, (long) quantity);
+        if (owner != null) owner.lineChanged(linePriceCents - old);
+    }
 
     public int getQuantity() { return quantity; }
     public void setQuantity(int quantity) {
+        long old = linePriceCents;
         this.quantity = quantity;
-        this.linePrice = (menuItem != null) ? menuItem.getPrice() * quantity : 0.0;
+        dirty = true;
+        this.linePriceCents = Math.multiplyExact(unitPriceCents, (long) quantity);
+        if (owner != null) owner.lineChanged(linePriceCents - old);
     }
 
-    public double getLinePrice() { return linePrice; }
+    public Money getLinePrice() { return Money.ofCents(linePriceCents); }
+    public long getLinePriceCents() { return linePriceCents; }
+
+    /** Never saved: needs an INSERT */
+    public boolean isNew() { return orderItemId == 0; }
+    /** Saved line changed since: needs an UPDATE */
+    public boolean isDirty() { return dirty && orderItemId != 0; }
+    /** Called once the line has been written */
+    public void markClean() { dirty = false; }
+
+    void setOwner(Order owner) { this.owner = owner; }
 }
@@ -0,0 +1,166 @@
+package oakdonuts;
+
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+
+import javax.swing.table.AbstractTableModel;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Header: OrdersTableModel.java
+ * Saved orders for the GUI table, newest first, updated row by row.
+ *
+ * Rows are held oldest first, sorted by (order date, order id), so the
+ * usual change, a new order from the register, is an append; other saves
+ * and deletes find their row by binary search. Only rows newer than the
+ * oldest loaded row are added live: older ones belong to pages that have
+ * not been fetched yet, and arrive with them. EDT only.
+ */
+class OrdersTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"OrderId", "Transaction", "Date", "Total"};
+
+    /** Immutable copy of an order header, taken when the order is loaded or saved */
+    static final class Row {
+        final int orderId;
+        final String transactionId;
+        final Timestamp orderDate;
+        final Money total;
+
+        Row(Order o) {
+            orderId = o.getOrderId();
+            transactionId = o.getTransactionId();
+            orderDate = o.getOrderDate();
+            total = o.getTotal();
+        }
+    }
+
+    /** Reverse of DBHelper's newest-first order, so undated orders (NULL sorts high in Derby) come last */
+    private static final Comparator<Row> OLDEST_FIRST = Comparator
+        .comparing((Row r) -> r.orderDate, Comparator.nullsLast(Comparator.<Timestamp>naturalOrder()))
+        .thenComparingInt(r -> r.orderId);
+
+    private final List<Row> rows = new ArrayList<>();
+    private final Map<Integer, Row> byId = new HashMap<>();
+
+    @Override
+    public int getRowCount() { return rows.size(); }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int column) { return COLUMNS[column]; }
+
+    @Override
+    public Object getValueAt(int rowIndex, int column) {
+        Row r = rowAt(rowIndex);
+        switch (column) {
+            case 0: return r.orderId;
+            case 1: return r.transactionId;
+            case 2: return r.orderDate;
+            default: return r.total;
+        }
+    }
+
+    int orderIdAt(int rowIndex) { return rowAt(rowIndex).orderId; }
+
+    /**
+     * Cursor for the next (older) page: the oldest loaded order, or null if
+     * nothing is loaded.
+     */
+    Order oldest() {
+        if (rows.isEmpty()) return null;
+        Row r = rows.get(0);
+        Order o = new Order(r.transactionId, r.orderDate);
+        o.setOrderId(r.orderId);
+        return o;
+    }
+
+    /**
+     * Show the newest page (newest first, as getOrdersPage returns it).
+     * Rows saved while the page was being read, newer than all of it, stay.
+     */
+    void setNewestPage(List<Order> page) {
+        List<Row> keep = new ArrayList<>();
+        Row newest = page.isEmpty() ? null : new Row(page.get(0));
+        for (int i = rows.size() - 1; i >= 0 && (newest == null || OLDEST_FIRST.compare(rows.get(i), newest) > 0); i--) {
+            keep.add(rows.get(i));
+        }
+        rows.clear();
+        byId.clear();
+        for (int i = page.size() - 1; i >= 0; i--) add(new Row(page.get(i)));
+        for (int i = keep.size() - 1; i >= 0; i--) {
+            if (!byId.containsKey(keep.get(i).orderId)) add(keep.get(i));
+        }
+        fireTableDataChanged();
+    }
+
+    /** Add an older page (newest first) below the loaded rows; orders already shown are skipped */
+    void appendOlderPage(List<Order> page) {
+        List<Row> older = new ArrayList<>(page.size());
+        for (int i = page.size() - 1; i >= 0; i--) {
+            Row r = new Row(page.get(i));
+            if (!byId.containsKey(r.orderId)) older.add(r);
+        }
+        if (older.isEmpty()) return;
+        for (Row r : older) byId.put(r.orderId, r);
+        rows.addAll(0, older);
+        fireTableRowsInserted(rows.size() - older.size(), rows.size() - 1);
+    }
+
+    /** An order was inserted or updated */
+    void orderSaved(Row r) {
+        Row old = byId.get(r.orderId);
+        if (old != null) {
+            int i = indexOf(old);
+            if (OLDEST_FIRST.compare(old, r) == 0) {
+                rows.set(i, r);
+                byId.put(r.orderId, r);
+                fireTableRowsUpdated(viewIndex(i), viewIndex(i));
+                return;
+            }
+            // moved in time: take it out and add it back where it now belongs
+            removeAt(i);
+        }
+        if (!rows.isEmpty() && OLDEST_FIRST.compare(r, rows.get(0)) < 0) return; // not loaded yet
+        int i = -(Collections.binarySearch(rows, r, OLDEST_FIRST) + 1);
+        rows.add(i, r);
+        byId.put(r.orderId, r);
+        fireTableRowsInserted(viewIndex(i), viewIndex(i));
+    }
+
+    void orderDeleted(int orderId) {
+        Row old = byId.get(orderId);
+        if (old != null) removeAt(indexOf(old));
+    }
+
+    private void add(Row r) {
+        rows.add(r);
+        byId.put(r.orderId, r);
+    }
+
+    private void removeAt(int i) {
+        int view = viewIndex(i);
+        byId.remove(rows.remove(i).orderId);
+        fireTableRowsDeleted(view, view);
+    }
+
+    private int indexOf(Row r) {
+        return Collections.binarySearch(rows, r, OLDEST_FIRST);
+    }
+
+    /** Table row for a list index (the table shows newest first) */
+    private int viewIndex(int i) {
+        return rows.size() - 1 - i;
+    }
+
+    private Row rowAt(int rowIndex) {
+        return rows.get(rows.size() - 1 - rowIndex);
+    }
+}
@@ -0,0 +1,31 @@
+package oakdonuts.models;
+
+import java.sql.Timestamp;
+
+/**
+ * Header: SalesBucket.java
+ * Model: orders and revenue for one hour or one day (read-only)
+ */
+public class SalesBucket {
+    private final Timestamp start;
+    private final int orderCount;
+    private final Money revenue;
+
+    public SalesBucket(Timestamp start, int orderCount, Money revenue) {
+        this.start = start;
+        this.orderCount = orderCount;
+        this.revenue = revenue;
+    }
+
+    /** First instant of the hour or day */
+    public Timestamp getStart() { return start; }
+
+    public int getOrderCount() { return orderCount; }
+
+    public Money getRevenue() { return revenue; }
+
+    @Override
+    public String toString() {
+        return start + ": " + orderCount + " orders, $" + revenue;
+    }
+}
@@ -0,0 +1,180 @@
+package oakdonuts;
+
+import oakdonuts.models.ItemSales;
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
+import oakdonuts.models.SalesBucket;
+import oakdonuts.utils.TaskExecutors;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Header: SalesReports.java
+ * Sales questions answered from the rollup tables (see SalesRollups).
+ *
+ * Every query reads one row per hour, day or day/item in the requested
+ * period, so its cost depends on the period asked for, not on how much
+ * order history is stored. Periods are half-open: from inclusive, to
+ * exclusive.
+ */
+public class SalesReports {
+    private final DBHelper db;
+
+    public SalesReports(DBHelper db) {
+        this.db = db;
+    }
+
+    /** Orders and revenue per hour, oldest first; hours without sales are omitted */
+    public List<SalesBucket> hourly(Timestamp from, Timestamp to) throws SQLException {
+        return buckets("SELECT sales_hour, order_count, revenue FROM sales_hourly " +
+            "WHERE sales_hour >= ? AND sales_hour < ? AND order_count > 0 ORDER BY sales_hour", from, to);
+    }
+
+    /** Orders and revenue per day, oldest first; days without sales are omitted */
+    public List<SalesBucket> daily(LocalDate from, LocalDate to) throws SQLException {
+        return buckets("SELECT sales_day, order_count, revenue FROM sales_daily " +
+            "WHERE sales_day >= ? AND sales_day < ? AND order_count > 0 ORDER BY sales_day", Date.valueOf(from), Date.valueOf(to));
+    }
+
+    private List<SalesBucket> buckets(String sql, Object from, Object to) throws SQLException {
+        List<SalesBucket> list = new ArrayList<>();
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+            PreparedStatement ps = pc.prepare(sql);
+            ps.setObject(1, from);
+            ps.setObject(2, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(new SalesBucket(rs.getTimestamp(1), rs.getInt(2), Money.of(rs.getBigDecimal(3))));
+                }
+            }
+        }
+        return list;
+    }
+
+    /** Best sellers by units sold over the days [from, to), at most limit items */
+    public List<ItemSales> topItems(LocalDate from, LocalDate to, int limit) throws SQLException {
+        List<ItemSales> list = new ArrayList<>();
+        if (limit <= 0) return list;
+        MenuCache.Snapshot menu = db.getMenuSnapshot();
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+            PreparedStatement ps = pc.prepare(
+                "SELECT item_id, SUM(quantity), SUM(revenue) FROM sales_item_daily " +
+                "WHERE sales_day >= ? AND sales_day < ? GROUP BY item_id HAVING SUM(quantity) > 0 " +
+                "ORDER BY 2 DESC, 3 DESC, 1 FETCH FIRST ? ROWS ONLY");
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int itemId = rs.getInt(1);
+                    // names come from the cached menu instead of a join with menu_items
+                    MenuItem m = menu.get(itemId);
+                    String name = m != null ? m.getName() : "Item #" + itemId;
+                    list.add(new ItemSales(itemId, name, rs.getLong(2), Money.of(rs.getBigDecimal(3))));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Recompute all rollups from orders and order_items, live and archived,
+     * one day per task on up to parallelism pooled connections (more than
+     * the pool size only queues). Registers can keep saving: each day is replaced in a short
+     * transaction that briefly holds writers back.
+     * @return the number of days rebuilt
+     */
+    public int rebuild(int parallelism) throws SQLException {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        LocalDate[] range = clearOutsideOrderDays();
+        if (range == null) return 0;
+
+        List<LocalDate> days = new ArrayList<>();
+        for (LocalDate d = range[0]; !d.isAfter(range[1]); d = d.plusDays(1)) days.add(d);
+
+        ExecutorService workers = Executors.newFixedThreadPool(
+            Math.min(parallelism, days.size()), TaskExecutors.daemonThreads("rollup-rebuild"));
+        try {
+            List<Future<?>> results = new ArrayList<>(days.size());
+            for (LocalDate day : days) {
+                results.add(workers.submit(() -> {
+                    try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+                        SalesRollups.rebuildDay(pc, day);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : results) f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while rebuilding sales rollups", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            throw new SQLException(cause);
+        } finally {
+            workers.shutdownNow();
+        }
+        return days.size();
+    }
+
+    /**
+     * Find the first and last day that has orders, archived or not, and
+     * delete rollup rows outside it, holding a share lock on orders so no
+     * order lands outside the range meanwhile.
+     * @return {first, last} day, or null if there are no dated orders
+     */
+    private LocalDate[] clearOutsideOrderDays() throws SQLException {
+        try (ConnectionPool.PooledConnection pc = db.pool().borrow()) {
+            PreparedStatement lock = pc.prepare("LOCK TABLE orders IN SHARE MODE");
+            PreparedStatement span = pc.prepare("SELECT MIN(order_date), MAX(order_date) FROM " +
+                "(SELECT order_date FROM orders UNION ALL SELECT order_date FROM orders_archive) o");
+            PreparedStatement[] clear = {
+                pc.prepare("DELETE FROM sales_hourly WHERE sales_hour < ? OR sales_hour >= ?"),
+                pc.prepare("DELETE FROM sales_daily WHERE sales_day < ? OR sales_day >= ?"),
+                pc.prepare("DELETE FROM sales_item_daily WHERE sales_day < ? OR sales_day >= ?")
+            };
+
+            Connection conn = pc.raw();
+            conn.setAutoCommit(false);
+            try {
+                lock.execute();
+                LocalDate[] range = null;
+                try (ResultSet rs = span.executeQuery()) {
+                    rs.next();
+                    Timestamp min = rs.getTimestamp(1);
+                    if (min != null) {
+                        range = new LocalDate[]{
+                            min.toLocalDateTime().toLocalDate(),
+                            rs.getTimestamp(2).toLocalDateTime().toLocalDate()
+                        };
+                    }
+                }
+                // no orders at all: an empty range removes every row
+                LocalDate first = range != null ? range[0] : LocalDate.of(9999, 12, 31);
+                LocalDate end = range != null ? range[1].plusDays(1) : LocalDate.of(1, 1, 1);
+                clear[0].setTimestamp(1, Timestamp.valueOf(first.atStartOfDay()));
+                clear[0].setTimestamp(2, Timestamp.valueOf(end.atStartOfDay()));
+                for (int i = 1; i < clear.length; i++) {
+                    clear[i].setDate(1, Date.valueOf(first));
+                    clear[i].setDate(2, Date.valueOf(end));
+                }
+                for (PreparedStatement ps : clear) ps.executeUpdate();
+                conn.commit();
+                return range;
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package oakdonuts;
+
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Header: SalesRollups.java
+ * Keeps sales_hourly, sales_daily and sales_item_daily in step with orders.
+ *
+ * One instance is used per write transaction: removeStored(), addStored()
+ * and addOrder() collect the net effect of the transaction per hour, day
+ * and day/item, and apply() writes it just before commit with one upsert
+ * per touched rollup row. Rows are updated in key order so two registers touching the same
+ * hours cannot deadlock, and their row locks are only held from apply() to
+ * commit. A row whose count drops to zero is deleted, so edits and deletes
+ * leave the same rows a rebuild would. Rebuilds recompute whole days from orders/order_items and their
+ * archive tables with set-based INSERT ... SELECT statements. Archiving an
+ * order does not change the rollups: it is still a sale.
+ */
+final class SalesRollups {
+    /** Start of the order's hour, computed by Derby (local time, like the Java side) */
+    private static final String HOUR_OF_ORDER =
+        "{fn TIMESTAMPADD(SQL_TSI_HOUR, HOUR(o.order_date), TIMESTAMP(DATE(o.order_date), TIME('00:00:00')))}";
+
+    private final PreparedStatement lockOrder;
+    private final PreparedStatement readOrder;
+    private final PreparedStatement readLines;
+    private final PreparedStatement updHour;
+    private final PreparedStatement insHour;
+    private final PreparedStatement delHour;
+    private final PreparedStatement updDay;
+    private final PreparedStatement insDay;
+    private final PreparedStatement delDay;
+    private final PreparedStatement updItem;
+    private final PreparedStatement insItem;
+    private final PreparedStatement delItem;
+
+    /** Net change per key: {order count or quantity, cents} */
+    private final TreeMap<LocalDateTime, long[]> hours = new TreeMap<>();
+    private final TreeMap<LocalDate, long[]> days = new TreeMap<>();
+    private final TreeMap<ItemDay, long[]> items = new TreeMap<>();
+
+    private static final class ItemDay implements Comparable<ItemDay> {
+        final LocalDate day;
+        final int itemId;
+
+        ItemDay(LocalDate day, int itemId) {
+            this.day = day;
+            this.itemId = itemId;
+        }
+
+        @Override
+        public int compareTo(ItemDay o) {
+            int c = day.compareTo(o.day);
+            return c != 0 ? c : Integer.compare(itemId, o.itemId);
+        }
+    }
+
+    /** Prepares everything up front; call before the transaction starts (see ConnectionPool) */
+    SalesRollups(ConnectionPool.PooledConnection pc) throws SQLException {
+        // no-op update that takes the header's row lock before the old values are read
+        lockOrder = pc.prepare("UPDATE orders SET total = total WHERE order_id=?");
+        readOrder = pc.prepare("SELECT order_date, total FROM orders WHERE order_id=?");
+        // lines without an item are left out, as rebuilds do
+        readLines = pc.prepare(
+            "SELECT item_id, quantity, line_price FROM order_items WHERE order_id=? AND item_id IS NOT NULL");
+        updHour = pc.prepare(
+            "UPDATE sales_hourly SET order_count = order_count + ?, revenue = revenue + ? WHERE sales_hour=?");
+        insHour = pc.prepare("INSERT INTO sales_hourly (sales_hour, order_count, revenue) VALUES (?, ?, ?)");
+        delHour = pc.prepare("DELETE FROM sales_hourly WHERE sales_hour=? AND order_count <= 0");
+        updDay = pc.prepare(
+            "UPDATE sales_daily SET order_count = order_count + ?, revenue = revenue + ? WHERE sales_day=?");
+        insDay = pc.prepare("INSERT INTO sales_daily (sales_day, order_count, revenue) VALUES (?, ?, ?)");
+        delDay = pc.prepare("DELETE FROM sales_daily WHERE sales_day=? AND order_count <= 0");
+        updItem = pc.prepare(
+            "UPDATE sales_item_daily SET quantity = quantity + ?, revenue = revenue + ? WHERE sales_day=? AND item_id=?");
+        insItem = pc.prepare("INSERT INTO sales_item_daily (sales_day, item_id, quantity, revenue) VALUES (?, ?, ?, ?)");
+        delItem = pc.prepare("DELETE FROM sales_item_daily WHERE sales_day=? AND item_id=? AND quantity <= 0");
+    }
+
+    /**
+     * Count a new order as it is being inserted: its header and every line
+     * are written from these same model values in this transaction.
+     */
+    void addOrder(Order order) {
+        if (order.getOrderDate() == null) return; // undated orders are not reported
+        LocalDateTime at = order.getOrderDate().toLocalDateTime();
+        addHeader(at, 1, order.getTotalCents());
+        for (OrderItem oi : order.getItems()) {
+            addLine(at.toLocalDate(), oi.getMenuItem().getItemId(), oi.getQuantity(), oi.getLinePriceCents());
+        }
+    }
+
+    /**
+     * Lock the stored order and subtract it as currently stored, so the
+     * transaction can then change or delete it.
+     * @return false if there is no such order
+     */
+    boolean removeStored(int orderId) throws SQLException {
+        lockOrder.setInt(1, orderId);
+        if (lockOrder.executeUpdate() == 0) return false;
+        countStored(orderId, -1);
+        return true;
+    }
+
+    /**
+     * Count a changed order as stored once its writes are done, after
+     * removeStored took out the old version: both read the same rows, so
+     * lines the save left alone cancel out exactly.
+     */
+    void addStored(int orderId) throws SQLException {
+        countStored(orderId, 1);
+    }
+
+    private void countStored(int orderId, int sign) throws SQLException {
+        LocalDateTime at;
+        readOrder.setInt(1, orderId);
+        try (ResultSet rs = readOrder.executeQuery()) {
+            if (!rs.next()) return;
+            Timestamp date = rs.getTimestamp(1);
+            if (date == null) return;
+            at = date.toLocalDateTime();
+            addHeader(at, sign, sign * Money.of(rs.getBigDecimal(2)).getCents());
+        }
+        readLines.setInt(1, orderId);
+        try (ResultSet rs = readLines.executeQuery()) {
+            while (rs.next()) {
+                addLine(at.toLocalDate(), rs.getInt(1), sign * rs.getInt(2), sign * Money.of(rs.getBigDecimal(3)).getCents());
+            }
+        }
+    }
+
+    private void addHeader(LocalDateTime at, int count, long cents) {
+        add(hours.computeIfAbsent(at.truncatedTo(ChronoUnit.HOURS), k -> new long[2]), count, cents);
+        add(days.computeIfAbsent(at.toLocalDate(), k -> new long[2]), count, cents);
+    }
+
+    private void addLine(LocalDate day, int itemId, int quantity, long cents) {
+        add(items.computeIfAbsent(new ItemDay(day, itemId), k -> new long[2]), quantity, cents);
+    }
+
+    private static void add(long[] acc, long n, long cents) {
+        acc[0] += n;
+        acc[1] += cents;
+    }
+
+    /** Write the collected changes; runs inside the caller's transaction */
+    void apply() throws SQLException {
+        for (Map.Entry<LocalDateTime, long[]> e : hours.entrySet()) {
+            upsert(updHour, insHour, delHour, e.getValue(), Timestamp.valueOf(e.getKey()));
+        }
+        for (Map.Entry<LocalDate, long[]> e : days.entrySet()) {
+            upsert(updDay, insDay, delDay, e.getValue(), Date.valueOf(e.getKey()));
+        }
+        for (Map.Entry<ItemDay, long[]> e : items.entrySet()) {
+            upsert(updItem, insItem, delItem, e.getValue(), Date.valueOf(e.getKey().day), e.getKey().itemId);
+        }
+        hours.clear();
+        days.clear();
+        items.clear();
+    }
+
+    /**
+     * Add to the row with this key, creating it if this is the key's first
+     * sale, and drop it once nothing is left in it (as a rebuild would not
+     * create it)
+     */
+    private static void upsert(PreparedStatement upd, PreparedStatement ins, PreparedStatement del, long[] delta,
+                               Object... key) throws SQLException {
+        if (delta[0] == 0 && delta[1] == 0) return; // e.g. an edit that kept the same lines
+        BigDecimal amount = Money.ofCents(delta[1]).toBigDecimal();
+        while (true) {
+            upd.setLong(1, delta[0]);
+            upd.setBigDecimal(2, amount);
+            for (int i = 0; i < key.length; i++) upd.setObject(3 + i, key[i]);
+            if (upd.executeUpdate() > 0) {
+                if (delta[0] < 0) {
+                    for (int i = 0; i < key.length; i++) del.setObject(1 + i, key[i]);
+                    del.executeUpdate();
+                }
+                return;
+            }
+
+            for (int i = 0; i < key.length; i++) ins.setObject(1 + i, key[i]);
+            ins.setLong(key.length + 1, delta[0]);
+            ins.setBigDecimal(key.length + 2, amount);
+            try {
+                ins.executeUpdate();
+                return;
+            } catch (SQLException ex) {
+                // another register created the row first: add to it instead
+                if (!"23505".equals(ex.getSQLState())) throw ex;
+            }
+        }
+    }
+
+    // ---- rebuilding from orders ----
+
+    /**
+     * Recompute every rollup row from scratch (used by the schema migration,
+     * which runs before the archive tables exist: live orders only)
+     */
+    static void rebuildAll(Statement st) throws SQLException {
+        st.executeUpdate("DELETE FROM sales_hourly");
+        st.executeUpdate("DELETE FROM sales_daily");
+        st.executeUpdate("DELETE FROM sales_item_daily");
+        String dated = "o.order_date IS NOT NULL";
+        st.executeUpdate(insertHourly(dated, false));
+        st.executeUpdate(insertDaily(dated, false));
+        st.executeUpdate(insertItemDaily(dated, false));
+    }
+
+    /**
+     * Replace the rollup rows of one day with values recomputed from orders,
+     * live and archived. Runs in its own transaction and takes share locks on
+     * orders and order_items, so writers of any day (and the archiver, which
+     * locks the live rows it moves first) wait until it commits and no sale
+     * is counted twice or lost.
+     */
+    static void rebuildDay(ConnectionPool.PooledConnection pc, LocalDate day) throws SQLException {
+        rebuildDays(pc, day, day);
+    }
+
+    /**
+     * rebuildDay for every day from first to last (inclusive) in one pass,
+     * which is much cheaper than day by day for long spans such as an
+     * imported history; writers wait for the whole span.
+     */
+    static void rebuildDays(ConnectionPool.PooledConnection pc, LocalDate first, LocalDate last) throws SQLException {
+        String inDays = "o.order_date >= ? AND o.order_date < ?";
+        PreparedStatement lockOrders = pc.prepare("LOCK TABLE orders IN SHARE MODE");
+        PreparedStatement lockLines = pc.prepare("LOCK TABLE order_items IN SHARE MODE");
+        PreparedStatement clearHours = pc.prepare("DELETE FROM sales_hourly WHERE sales_hour >= ? AND sales_hour < ?");
+        PreparedStatement clearDays = pc.prepare("DELETE FROM sales_daily WHERE sales_day >= ? AND sales_day <= ?");
+        PreparedStatement clearItems = pc.prepare("DELETE FROM sales_item_daily WHERE sales_day >= ? AND sales_day <= ?");
+        PreparedStatement hourly = pc.prepare(insertHourly(inDays, true));
+        PreparedStatement daily = pc.prepare(insertDaily(inDays, true));
+        PreparedStatement itemDaily = pc.prepare(insertItemDaily(inDays, true));
+
+        Timestamp from = Timestamp.valueOf(first.atStartOfDay());
+        Timestamp to = Timestamp.valueOf(last.plusDays(1).atStartOfDay());
+        Date firstDay = Date.valueOf(first);
+        Date lastDay = Date.valueOf(last);
+
+        Connection conn = pc.raw();
+        conn.setAutoCommit(false);
+        try {
+            // same lock order as writers: orders first, then order_items
+            lockOrders.execute();
+            lockLines.execute();
+            clearHours.setTimestamp(1, from);
+            clearHours.setTimestamp(2, to);
+            clearHours.executeUpdate();
+            clearDays.setDate(1, firstDay);
+            clearDays.setDate(2, lastDay);
+            clearDays.executeUpdate();
+            clearItems.setDate(1, firstDay);
+            clearItems.setDate(2, lastDay);
+            clearItems.executeUpdate();
+            for (PreparedStatement ps : new PreparedStatement[]{hourly, daily, itemDaily}) {
+                // the range once for orders, once for orders_archive
+                for (int i = 1; i <= 4; i += 2) {
+                    ps.setTimestamp(i, from);
+                    ps.setTimestamp(i + 1, to);
+                }
+                ps.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Orders as "o" (order_id, order_date, total) restricted by where; with
+     * the archive, archived orders are included, the condition being applied
+     * to each table so both date indexes can be used.
+     */
+    private static String orders(String where, boolean archive) {
+        String live = "SELECT o.order_id, o.order_date, o.total FROM orders o WHERE " + where;
+        if (!archive) return "(" + live + ") o";
+        return "(" + live + " UNION ALL " +
+            "SELECT o.order_id, o.order_date, o.total FROM orders_archive o WHERE " + where + ") o";
+    }
+
+    /**
+     * Dated order lines as "oi" (order_date, item_id, quantity, line_price),
+     * like orders(). Derby would scan all lines and hash-join them to the
+     * orders in range; the hints make it read those orders by date and probe
+     * each one's lines, which is faster for a day and for the whole history.
+     */
+    private static String lines(String where, boolean archive) {
+        String live = "SELECT o.order_date, oi.item_id, oi.quantity, oi.line_price FROM " +
+            "--DERBY-PROPERTIES joinOrder=FIXED\n orders o JOIN order_items oi " +
+            "--DERBY-PROPERTIES joinStrategy=NESTEDLOOP, index=idx_order_items_order\n " +
+            "ON o.order_id = oi.order_id WHERE " + where + " AND oi.item_id IS NOT NULL";
+        if (!archive) return "(" + live + ") oi";
+        return "(" + live + " UNION ALL " +
+            "SELECT o.order_date, oi.item_id, oi.quantity, oi.line_price FROM " +
+            "--DERBY-PROPERTIES joinOrder=FIXED\n orders_archive o JOIN order_items_archive oi " +
+            "--DERBY-PROPERTIES joinStrategy=NESTEDLOOP, constraint=fk_archived_order\n " +
+            "ON o.order_id = oi.order_id WHERE " + where + " AND oi.item_id IS NOT NULL) oi";
+    }
+
+    private static String insertHourly(String where, boolean archive) {
+        return "INSERT INTO sales_hourly (sales_hour, order_count, revenue) " +
+            "SELECT " + HOUR_OF_ORDER + ", COUNT(*), COALESCE(SUM(o.total), 0) FROM " + orders(where, archive) +
+            " GROUP BY " + HOUR_OF_ORDER;
+    }
+
+    private static String insertDaily(String where, boolean archive) {
+        return "INSERT INTO sales_daily (sales_day, order_count, revenue) " +
+            "SELECT DATE(o.order_date), COUNT(*), COALESCE(SUM(o.total), 0) FROM " + orders(where, archive) +
+            " GROUP BY DATE(o.order_date)";
+    }
+
+    private static String insertItemDaily(String where, boolean archive) {
+        return "INSERT INTO sales_item_daily (sales_day, item_id, quantity, revenue) " +
+            "SELECT DATE(oi.order_date), oi.item_id, COALESCE(SUM(oi.quantity), 0), COALESCE(SUM(oi.line_price), 0) " +
+            "FROM " + lines(where, archive) + " GROUP BY DATE(oi.order_date), oi.item_id";
+    }
+}
@@ -0,0 +1,243 @@
+package oakdonuts;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Header: SchemaMigrator.java
+ * Versioned, idempotent schema setup for the store database.
+ *
+ * The applied version is kept in schema_version. On startup only steps newer
+ * than that version run, each in its own transaction together with its
+ * schema_version row. Steps look at DatabaseMetaData before creating
+ * anything, so a database created before versioning existed is adopted
+ * without errors instead of relying on CREATE TABLE failing.
+ */
+class SchemaMigrator {
+    /** One migration step; runs inside a transaction */
+    interface Step {
+        void apply(Statement st, DatabaseMetaData md) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private final List<Migration> migrations = new ArrayList<>();
+
+    /** Register the next step; versions must be added in increasing order */
+    SchemaMigrator add(int version, String description, Step step) {
+        if (!migrations.isEmpty() && migrations.get(migrations.size() - 1).version >= version) {
+            throw new IllegalArgumentException("migration " + version + " is out of order");
+        }
+        migrations.add(new Migration(version, description, step));
+        return this;
+    }
+
+    /** The Oak Donuts schema, oldest step first */
+    static SchemaMigrator oakDonuts() {
+        return new SchemaMigrator()
+            .add(1, "menu_items, orders, order_items", (st, md) -> {
+                if (!tableExists(md, "MENU_ITEMS")) {
+                    st.executeUpdate(
+                        "CREATE TABLE menu_items (" +
+                        "item_id INTEGER NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1)," +
+                        "name VARCHAR(100)," +
+                        "price DECIMAL(6,2)," +
+                        "description VARCHAR(255))"
+                    );
+                }
+                if (!tableExists(md, "ORDERS")) {
+                    st.executeUpdate(
+                        "CREATE TABLE orders (" +
+                        "order_id INTEGER NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY," +
+                        "transaction_id VARCHAR(50) UNIQUE," +
+                        "order_date TIMESTAMP," +
+                        "total DECIMAL(8,2))"
+                    );
+                }
+                if (!tableExists(md, "ORDER_ITEMS")) {
+                    st.executeUpdate(
+                        "CREATE TABLE order_items (" +
+                        "order_item_id INTEGER NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY," +
+                        "order_id INTEGER," +
+                        "item_id INTEGER," +
+                        "quantity INTEGER," +
+                        "line_price DECIMAL(8,2)," +
+                        "CONSTRAINT fk_order FOREIGN KEY (order_id) REFERENCES orders(order_id)," +
+                        "CONSTRAINT fk_item FOREIGN KEY (item_id) REFERENCES menu_items(item_id))"
+                    );
+                }
+            })
+            .add(2, "per-day transaction id counters", (st, md) -> {
+                if (!tableExists(md, "TXN_COUNTERS")) {
+                    st.executeUpdate(
+                        "CREATE TABLE txn_counters (" +
+                        "business_day CHAR(8) NOT NULL PRIMARY KEY," +
+                        "next_seq INTEGER NOT NULL)"
+                    );
+                }
+            })
+            // newest-first keyset paging over orders (Derby cannot scan an index backwards)
+            .add(3, "orders by date index", (st, md) -> {
+                if (!indexExists(md, "ORDERS", "IDX_ORDERS_DATE")) {
+                    st.executeUpdate("CREATE INDEX idx_orders_date ON orders (order_date DESC, order_id DESC)");
+                }
+            })
+            // the fk_order backing index already covers order_id lookups; this one also
+            // serves the newest-lines-of-an-order read after batched inserts. The UNIQUE
+            // index on transaction_id already serves 'OD-yyyyMMdd-%' prefix scans.
+            .add(4, "order lines by order index", (st, md) -> {
+                if (!indexExists(md, "ORDER_ITEMS", "IDX_ORDER_ITEMS_ORDER")) {
+                    st.executeUpdate("CREATE INDEX idx_order_items_order ON order_items (order_id, order_item_id DESC)");
+                }
+            })
+            // kept current by every order write; filled here from the orders already stored
+            .add(5, "sales rollups per hour, day and item", (st, md) -> {
+                if (!tableExists(md, "SALES_HOURLY")) {
+                    st.executeUpdate(
+                        "CREATE TABLE sales_hourly (" +
+                        "sales_hour TIMESTAMP NOT NULL PRIMARY KEY," +
+                        "order_count INTEGER NOT NULL," +
+                        "revenue DECIMAL(12,2) NOT NULL)"
+                    );
+                }
+                if (!tableExists(md, "SALES_DAILY")) {
+                    st.executeUpdate(
+                        "CREATE TABLE sales_daily (" +
+                        "sales_day DATE NOT NULL PRIMARY KEY," +
+                        "order_count INTEGER NOT NULL," +
+                        "revenue DECIMAL(12,2) NOT NULL)"
+                    );
+                }
+                if (!tableExists(md, "SALES_ITEM_DAILY")) {
+                    st.executeUpdate(
+                        "CREATE TABLE sales_item_daily (" +
+                        "sales_day DATE NOT NULL," +
+                        "item_id INTEGER NOT NULL," +
+                        "quantity INTEGER NOT NULL," +
+                        "revenue DECIMAL(12,2) NOT NULL," +
+                        "PRIMARY KEY (sales_day, item_id))"
+                    );
+                }
+                SalesRollups.rebuildAll(st);
+            })
+            // cold orders moved out of the live tables by OrderArchiver; ids are kept, so
+            // the live identity columns must also accept them when an order is restored
+            .add(6, "order archive tables", (st, md) -> {
+                if (!tableExists(md, "ORDERS_ARCHIVE")) {
+                    st.executeUpdate(
+                        "CREATE TABLE orders_archive (" +
+                        "order_id INTEGER NOT NULL PRIMARY KEY," +
+                        "transaction_id VARCHAR(50) UNIQUE," +
+                        "order_date TIMESTAMP," +
+                        "total DECIMAL(8,2))"
+                    );
+                }
+                if (!tableExists(md, "ORDER_ITEMS_ARCHIVE")) {
+                    st.executeUpdate(
+                        "CREATE TABLE order_items_archive (" +
+                        "order_item_id INTEGER NOT NULL PRIMARY KEY," +
+                        "order_id INTEGER NOT NULL," +
+                        "item_id INTEGER," +
+                        "quantity INTEGER," +
+                        "line_price DECIMAL(8,2)," +
+                        "CONSTRAINT fk_archived_order FOREIGN KEY (order_id) REFERENCES orders_archive(order_id)," +
+                        "CONSTRAINT fk_archived_item FOREIGN KEY (item_id) REFERENCES menu_items(item_id))"
+                    );
+                }
+                if (!indexExists(md, "ORDERS_ARCHIVE", "IDX_ORDERS_ARCHIVE_DATE")) {
+                    st.executeUpdate("CREATE INDEX idx_orders_archive_date ON orders_archive (order_date DESC, order_id DESC)");
+                }
+                st.executeUpdate("ALTER TABLE orders ALTER COLUMN order_id SET GENERATED BY DEFAULT");
+                st.executeUpdate("ALTER TABLE order_items ALTER COLUMN order_item_id SET GENERATED BY DEFAULT");
+            });
+    }
+
+    /**
+     * Bring the database up to the latest version.
+     * @return the number of steps applied (0 on an up-to-date database)
+     */
+    int migrate(Connection conn) throws SQLException {
+        DatabaseMetaData md = conn.getMetaData();
+        try (Statement st = conn.createStatement()) {
+            if (!tableExists(md, "SCHEMA_VERSION")) {
+                st.executeUpdate(
+                    "CREATE TABLE schema_version (" +
+                    "version INTEGER NOT NULL PRIMARY KEY," +
+                    "description VARCHAR(200)," +
+                    "applied_at TIMESTAMP)"
+                );
+            }
+        }
+
+        int current = currentVersion(conn);
+        int applied = 0;
+        for (Migration m : migrations) {
+            if (m.version <= current) continue;
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement();
+                 PreparedStatement mark = conn.prepareStatement(
+                     "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, CURRENT_TIMESTAMP)")) {
+                m.step.apply(st, md);
+                mark.setInt(1, m.version);
+                mark.setString(2, m.description);
+                mark.executeUpdate();
+                conn.commit();
+                applied++;
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw new SQLException("Schema migration " + m.version + " (" + m.description + ") failed: "
+                    + ex.getMessage(), ex.getSQLState(), ex);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return applied;
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    static boolean tableExists(DatabaseMetaData md, String table) throws SQLException {
+        try (ResultSet rs = md.getTables(null, md.getConnection().getSchema(), table, new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    /** Name of the table's primary key constraint (system-generated unless named), or null if it has none */
+    static String primaryKeyName(Connection conn, String table) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT c.constraintname FROM sys.sysconstraints c " +
+                "JOIN sys.systables t ON c.tableid = t.tableid " +
+                "JOIN sys.sysschemas s ON t.schemaid = s.schemaid " +
+                "WHERE c.type = 'P' AND t.tablename = ? AND s.schemaname = CURRENT SCHEMA")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    static boolean indexExists(DatabaseMetaData md, String table, String index) throws SQLException {
+        try (ResultSet rs = md.getIndexInfo(null, md.getConnection().getSchema(), table, false, true)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,438 @@
+package oakdonuts;
+
+import oakdonuts.models.ItemSales;
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.models.SalesBucket;
+import oakdonuts.utils.DateUtils;
+import oakdonuts.utils.TaskExecutors;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Header: StorePartitions.java
+ * Orders of many stores, each store (or each store and month) in its own
+ * Derby database, for a franchise server that would otherwise keep every
+ * location in one ever-growing oddb.
+ *
+ * Partition databases are named base-STORE or base-STORE-yyyyMM under
+ * derby.system.home and opened on first use, each with its own DBHelper:
+ * order ids, line ids and transaction ids are allocated inside the
+ * partition, so an order is identified by its partition plus its id.
+ * Writes go to one partition. Cross-store reads ask every existing
+ * partition that can hold matches in parallel and merge the answers:
+ * orders newest first (a k-way merge of the per-partition lists, which
+ * already come sorted), sales summed per day or per item.
+ */
+public class StorePartitions implements AutoCloseable {
+    /** How orders are split */
+    public enum Scheme {
+        /** One database per store */
+        STORE,
+        /** One database per store and calendar month of the order date */
+        STORE_MONTH
+    }
+
+    /** Where an order lives; month is null with Scheme.STORE */
+    public static final class Partition {
+        private final String store;
+        private final YearMonth month;
+
+        private Partition(String store, YearMonth month) {
+            this.store = store;
+            this.month = month;
+        }
+
+        public String getStore() { return store; }
+
+        public YearMonth getMonth() { return month; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Partition)) return false;
+            Partition p = (Partition) o;
+            return store.equals(p.store) && Objects.equals(month, p.month);
+        }
+
+        @Override
+        public int hashCode() {
+            return store.hashCode() * 31 + Objects.hashCode(month);
+        }
+
+        @Override
+        public String toString() {
+            return month == null ? store : store + "-" + month.format(MONTH);
+        }
+    }
+
+    /** An order from a cross-store read, with the partition its ids belong to */
+    public static final class StoreOrder {
+        private final Partition partition;
+        private final Order order;
+
+        StoreOrder(Partition partition, Order order) {
+            this.partition = partition;
+            this.order = order;
+        }
+
+        public Partition getPartition() { return partition; }
+
+        public String getStore() { return partition.getStore(); }
+
+        public Order getOrder() { return order; }
+    }
+
+    /** Work done against one partition's helper */
+    private interface PartitionTask<T> {
+        T call(DBHelper db) throws SQLException;
+    }
+
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern STORE_NAME = Pattern.compile("[A-Za-z0-9_]+");
+
+    /** Newest first, like DBHelper's order lists (undated orders first, as Derby sorts NULL high) */
+    private static final Comparator<StoreOrder> NEWEST_FIRST = Comparator
+        .comparing((StoreOrder so) -> so.order.getOrderDate(), Comparator.nullsFirst(Comparator.<Timestamp>reverseOrder()))
+        .thenComparing(so -> so.partition.toString())
+        .thenComparing(so -> so.order.getOrderId(), Comparator.reverseOrder());
+
+    private final String baseName;
+    private final Scheme scheme;
+    private final int poolSize;
+    private final ConcurrentHashMap<Partition, DBHelper> open = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final Pattern partitionDir;
+
+    /**
+     * @param baseName database name prefix, e.g. "oddb" for oddb-store12
+     * @param poolSize connections per partition (opened lazily, see ConnectionPool)
+     */
+    public StorePartitions(String baseName, Scheme scheme, int poolSize) {
+        if (!STORE_NAME.matcher(baseName).matches()) throw new IllegalArgumentException("bad database name: " + baseName);
+        if (poolSize <= 0) throw new IllegalArgumentException("pool size must be positive: " + poolSize);
+        this.baseName = baseName;
+        this.scheme = scheme;
+        this.poolSize = poolSize;
+        this.workers = TaskExecutors.newTaskExecutor("partition-query", DBHelper.DEFAULT_POOL_SIZE);
+        this.partitionDir = Pattern.compile(Pattern.quote(baseName) + "-" +
+            (scheme == Scheme.STORE ? "([A-Za-z0-9_]+)" : "([A-Za-z0-9_]+)-(\\d{6})"));
+    }
+
+    public Scheme getScheme() {
+        return scheme;
+    }
+
+    /* ------------------ Routing ------------------ */
+
+    /** The partition holding the store's orders dated at (now if null) */
+    public Partition partitionOf(String store, Timestamp at) {
+        if (!STORE_NAME.matcher(store).matches()) throw new IllegalArgumentException("bad store name: " + store);
+        if (scheme == Scheme.STORE) return new Partition(store, null);
+        Timestamp t = at != null ? at : DateUtils.now();
+        return new Partition(store, YearMonth.from(t.toLocalDateTime()));
+    }
+
+    /**
+     * The partition's helper, creating its database on first use. A new
+     * month of a store starts with the menu of the store's nearest month
+     * (the latest earlier one, else the earliest later one), item ids
+     * included, so lines keep referring to the same items; edit a store's
+     * menu in its current month.
+     */
+    public DBHelper partition(Partition p) throws SQLException {
+        DBHelper db = open.get(p);
+        if (db != null) return db;
+        synchronized (open) {
+            db = open.get(p);
+            if (db == null) {
+                Partition menuFrom = scheme == Scheme.STORE_MONTH ? menuSource(p) : null;
+                db = new DBHelper("jdbc:derby:" + baseName + "-" + p + ";create=true", poolSize,
+                                  DBHelper.DEFAULT_WAIT_TIMEOUT_MS);
+                if (menuFrom != null) {
+                    try {
+                        db.replaceMenu(partition(menuFrom).getAllMenuItems());
+                    } catch (SQLException ex) {
+                        // a month left with the sample menu would fail on the store's items
+                        discard(p, db);
+                        throw ex;
+                    }
+                }
+                open.put(p, db);
+            }
+            return db;
+        }
+    }
+
+    /** For a month partition that does not exist yet: the store's month to copy the menu from, or null */
+    private Partition menuSource(Partition p) throws SQLException {
+        Partition before = null;
+        Partition after = null;
+        for (Partition q : partitions()) {
+            if (!q.store.equals(p.store)) continue;
+            if (q.month.equals(p.month)) return null; // exists already
+            if (q.month.isBefore(p.month)) {
+                if (before == null || q.month.isAfter(before.month)) before = q;
+            } else if (after == null || q.month.isBefore(after.month)) {
+                after = q;
+            }
+        }
+        return before != null ? before : after;
+    }
+
+    /** Close and delete a partition database that was just created */
+    private void discard(Partition p, DBHelper db) {
+        db.close();
+        Path dir = home().resolve(baseName + "-" + p);
+        BackupManager.shutdown(dir);
+        try {
+            BackupManager.deleteRecursively(dir);
+        } catch (IOException ex) {
+            System.err.println("Could not delete partition " + dir + ": " + ex);
+        }
+    }
+
+    /**
+     * Save a new order in the store's partition for its date. An order
+     * without a date is dated now and, without a transaction id, gets the
+     * partition's next. Existing orders are saved with saveOrder(Partition,
+     * Order): their ids only mean something in their own partition.
+     * @return the partition the order's ids now belong to
+     */
+    public Partition saveOrder(String store, Order order) throws SQLException {
+        if (order.getOrderId() != 0) {
+            throw new IllegalArgumentException("order " + order.getOrderId() + " exists: save it with its partition");
+        }
+        if (order.getOrderDate() == null) order.setOrderDate(DateUtils.now());
+        Partition p = partitionOf(store, order.getOrderDate());
+        DBHelper db = partition(p);
+        if (order.getTransactionId() == null) order.setTransactionId(db.generateNextTransactionId());
+        db.saveOrder(order);
+        return p;
+    }
+
+    /**
+     * Save an order in the partition it was read from (see StoreOrder) or
+     * first saved to; a new order is routed by p's store and its date like
+     * saveOrder(String, Order). With Scheme.STORE_MONTH an existing order
+     * must stay dated in p's month: moving it is a delete and a new save.
+     * @return the partition the order's ids belong to
+     */
+    public Partition saveOrder(Partition p, Order order) throws SQLException {
+        if (order.getOrderId() == 0) return saveOrder(p.store, order);
+        if (p.month != null && (order.getOrderDate() == null
+                || !p.month.equals(YearMonth.from(order.getOrderDate().toLocalDateTime())))) {
+            throw new IllegalArgumentException("order " + order.getOrderId() + " of " + p + " is dated outside its month");
+        }
+        if (!exists(p)) throw new SQLException("No partition " + p + " holding order " + order.getOrderId(), "02000");
+        partition(p).saveOrder(order);
+        return p;
+    }
+
+    /** Null if there is no such order */
+    public Order getOrder(Partition p, int orderId) throws SQLException {
+        return exists(p) ? partition(p).getOrder(orderId) : null;
+    }
+
+    /** @return false if there was no such order */
+    public boolean deleteOrder(Partition p, int orderId) throws SQLException {
+        return exists(p) && partition(p).deleteOrder(orderId);
+    }
+
+    /* ------------------ Cross-store reads ------------------ */
+
+    /** Every live order of every store, newest first, without lines (like DBHelper.getAllOrders) */
+    public List<StoreOrder> getAllOrders() throws SQLException {
+        return mergeNewestFirst(scatter(partitions(), DBHelper::getAllOrders));
+    }
+
+    /** Orders of every store dated in [from, to), with their lines, newest first */
+    public List<StoreOrder> getOrders(Timestamp from, Timestamp to) throws SQLException {
+        List<Partition> parts = partitions();
+        if (scheme == Scheme.STORE_MONTH) {
+            YearMonth first = YearMonth.from(from.toLocalDateTime());
+            // to is exclusive: a range ending at midnight on the 1st does not reach into that month
+            YearMonth last = YearMonth.from(to.toLocalDateTime().minusNanos(1));
+            parts.removeIf(p -> p.month.isBefore(first) || p.month.isAfter(last));
+        }
+        return mergeNewestFirst(scatter(parts, db -> db.getOrders(from, to)));
+    }
+
+    /** Orders and revenue per day across all stores, oldest first; days without sales are omitted */
+    public List<SalesBucket> daily(LocalDate from, LocalDate to) throws SQLException {
+        TreeMap<Timestamp, long[]> sums = new TreeMap<>();
+        for (PartitionResult<List<SalesBucket>> r : scatter(overlapping(from, to), db -> new SalesReports(db).daily(from, to))) {
+            for (SalesBucket b : r.value) {
+                long[] s = sums.computeIfAbsent(b.getStart(), k -> new long[2]);
+                s[0] += b.getOrderCount();
+                s[1] += b.getRevenue().getCents();
+            }
+        }
+        List<SalesBucket> list = new ArrayList<>(sums.size());
+        for (Map.Entry<Timestamp, long[]> e : sums.entrySet()) {
+            list.add(new SalesBucket(e.getKey(), Math.toIntExact(e.getValue()[0]), Money.ofCents(e.getValue()[1])));
+        }
+        return list;
+    }
+
+    /**
+     * Best sellers across all stores over the days [from, to). Each store
+     * keeps its own menu, so items are matched by name; the item id is the
+     * one in the first partition that sold it.
+     */
+    public List<ItemSales> topItems(LocalDate from, LocalDate to, int limit) throws SQLException {
+        if (limit <= 0) return new ArrayList<>();
+        Map<String, ItemSales> byName = new HashMap<>();
+        for (PartitionResult<List<ItemSales>> r : scatter(overlapping(from, to),
+                db -> new SalesReports(db).topItems(from, to, Integer.MAX_VALUE))) {
+            for (ItemSales s : r.value) {
+                byName.merge(s.getName(), s, (a, b) -> new ItemSales(a.getItemId(), a.getName(),
+                    a.getQuantity() + b.getQuantity(), a.getRevenue().plus(b.getRevenue())));
+            }
+        }
+        List<ItemSales> list = new ArrayList<>(byName.values());
+        // same order as SalesReports.topItems, then by name for a stable answer
+        list.sort(Comparator.comparingLong(ItemSales::getQuantity).reversed()
+            .thenComparing(ItemSales::getRevenue, Comparator.reverseOrder())
+            .thenComparing(ItemSales::getName));
+        return list.size() > limit ? new ArrayList<>(list.subList(0, limit)) : list;
+    }
+
+    /**
+     * Every partition with a database, opened or found on disk under
+     * derby.system.home (a query never creates one).
+     */
+    public List<Partition> partitions() throws SQLException {
+        Set<Partition> found = new HashSet<>(open.keySet());
+        Path home = home();
+        if (Files.isDirectory(home)) {
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(home, baseName + "-*")) {
+                for (Path dir : dirs) {
+                    Matcher m = partitionDir.matcher(dir.getFileName().toString());
+                    if (!m.matches() || !Files.exists(dir.resolve("service.properties"))) continue;
+                    found.add(new Partition(m.group(1),
+                        scheme == Scheme.STORE ? null : YearMonth.parse(m.group(2), MONTH)));
+                }
+            } catch (IOException ex) {
+                throw new SQLException("Cannot list partitions in " + home, ex);
+            }
+        }
+        List<Partition> list = new ArrayList<>(found);
+        list.sort(Comparator.comparing(Partition::toString));
+        return list;
+    }
+
+    private static Path home() {
+        return Paths.get(System.getProperty("derby.system.home", System.getProperty("user.dir")));
+    }
+
+    /** Close every opened partition */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        synchronized (open) {
+            for (DBHelper db : open.values()) db.close();
+            open.clear();
+        }
+    }
+
+    private boolean exists(Partition p) throws SQLException {
+        return open.containsKey(p) || partitions().contains(p);
+    }
+
+    /** Partitions that can hold sales on the days [from, to) */
+    private List<Partition> overlapping(LocalDate from, LocalDate to) throws SQLException {
+        List<Partition> parts = partitions();
+        if (scheme == Scheme.STORE_MONTH) {
+            YearMonth first = YearMonth.from(from);
+            YearMonth last = YearMonth.from(to.minusDays(1));
+            parts.removeIf(p -> p.month.isBefore(first) || p.month.isAfter(last));
+        }
+        return parts;
+    }
+
+    private static final class PartitionResult<T> {
+        final Partition partition;
+        final T value;
+
+        PartitionResult(Partition partition, T value) {
+            this.partition = partition;
+            this.value = value;
+        }
+    }
+
+    /** Run the task on every given partition in parallel; the first failure fails the whole read */
+    private <T> List<PartitionResult<T>> scatter(List<Partition> parts, PartitionTask<T> task) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>(parts.size());
+        try {
+            for (Partition p : parts) {
+                DBHelper db = partition(p);
+                futures.add(workers.submit(() -> task.call(db)));
+            }
+            List<PartitionResult<T>> results = new ArrayList<>(parts.size());
+            for (int i = 0; i < parts.size(); i++) results.add(new PartitionResult<>(parts.get(i), futures.get(i).get()));
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while reading partitions", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            throw new SQLException(cause);
+        } finally {
+            for (Future<T> f : futures) f.cancel(true);
+        }
+    }
+
+    /** k-way merge of per-partition lists that are each newest first already */
+    private static List<StoreOrder> mergeNewestFirst(List<PartitionResult<List<Order>>> results) {
+        int total = 0;
+        for (PartitionResult<List<Order>> r : results) total += r.value.size();
+        List<StoreOrder> merged = new ArrayList<>(total);
+        // one cursor per partition, ordered by its current head
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, results.size()),
+            (a, b) -> NEWEST_FIRST.compare(a.head, b.head));
+        for (PartitionResult<List<Order>> r : results) {
+            Cursor c = new Cursor(r.partition, r.value);
+            if (c.advance()) heads.add(c);
+        }
+        while (!heads.isEmpty()) {
+            Cursor c = heads.poll();
+            merged.add(c.head);
+            if (c.advance()) heads.add(c);
+        }
+        return merged;
+    }
+
+    private static final class Cursor {
+        final Partition partition;
+        final Iterator<Order> rest;
+        StoreOrder head;
+
+        Cursor(Partition partition, List<Order> orders) {
+            this.partition = partition;
+            this.rest = orders.iterator();
+        }
+
+        boolean advance() {
+            if (!rest.hasNext()) return false;
+            head = new StoreOrder(partition, rest.next());
+            return true;
+        }
+    }
+}
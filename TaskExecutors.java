@@ -0,0 +1,37 @@
+package oakdonuts.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small factory for background executors.
+ * Uses one virtual thread per task when the running JDK has them (21+),
+ * otherwise a fixed pool of daemon platform threads.
+ */
+public class TaskExecutors {
+    /**
+     * @param name            thread name prefix
+     * @param fallbackThreads pool size when virtual threads are unavailable
+     */
+    public static ExecutorService newTaskExecutor(String name, int fallbackThreads) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(fallbackThreads, daemonThreads(name));
+        }
+    }
+
+    /** Daemon threads named name-1, name-2, ... */
+    public static ThreadFactory daemonThreads(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package oakdonuts;
+
+import oakdonuts.utils.DateUtils;
+
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Header: TransactionIdAllocator.java
+ * Hands out OD-yyyyMMdd-nnnn transaction ids without querying orders per call.
+ *
+ * Blocks of per-day sequence numbers are reserved from the txn_counters table
+ * in a short transaction; ids inside a block are handed out with a single
+ * atomic increment. Every DBHelper sharing the database reserves disjoint
+ * blocks, so concurrent registers never receive the same id. Numbers left in
+ * a block when the app stops are simply skipped (ids stay unique, not dense).
+ */
+public class TransactionIdAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    private final ConnectionPool pool;
+    private final int blockSize;
+    private final AtomicReference<Block> current = new AtomicReference<>();
+
+    /** Range [next, end) of sequence numbers reserved for one day */
+    private static final class Block {
+        final String day;
+        final AtomicInteger next;
+        final int end;
+
+        Block(String day, int start, int end) {
+            this.day = day;
+            this.next = new AtomicInteger(start);
+            this.end = end;
+        }
+    }
+
+    public TransactionIdAllocator(ConnectionPool pool, int blockSize) {
+        if (blockSize <= 0) throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        this.pool = pool;
+        this.blockSize = blockSize;
+    }
+
+    /** Next transaction id for today; only touches the database when a block runs out */
+    public String next() throws SQLException {
+        String day = DateUtils.today();
+        while (true) {
+            Block b = current.get();
+            if (b != null && b.day.equals(day)) {
+                int seq = b.next.getAndIncrement();
+                if (seq < b.end) return DateUtils.generateTransactionId(day, seq);
+            }
+            refill(b, day);
+        }
+    }
+
+    /** Reserve today's first block now if there is none yet, so next() does not wait for it */
+    public void prefetch() throws SQLException {
+        String day = DateUtils.today();
+        Block b = current.get();
+        if (b == null || !b.day.equals(day)) refill(b, day);
+    }
+
+    /** Reserve a new block unless another thread already replaced the exhausted one */
+    private synchronized void refill(Block seen, String day) throws SQLException {
+        if (current.get() != seen) return;
+        int start = reserve(day);
+        current.set(new Block(day, start, start + blockSize));
+    }
+
+    /** Atomically advance the day's counter by one block and return the block start */
+    private int reserve(String day) throws SQLException {
+        try (ConnectionPool.PooledConnection pc = pool.borrow()) {
+            PreparedStatement bump = pc.prepare(
+                "UPDATE txn_counters SET next_seq = next_seq + ? WHERE business_day = ?");
+            PreparedStatement read = pc.prepare("SELECT next_seq FROM txn_counters WHERE business_day = ?");
+            PreparedStatement insert = pc.prepare("INSERT INTO txn_counters (business_day, next_seq) VALUES (?, ?)");
+            PreparedStatement existing = pc.prepare("SELECT transaction_id FROM orders WHERE transaction_id LIKE ?");
+
+            Connection conn = pc.raw();
+            conn.setAutoCommit(false);
+            try {
+                while (true) {
+                    bump.setInt(1, blockSize);
+                    bump.setString(2, day);
+                    if (bump.executeUpdate() == 1) {
+                        read.setString(1, day);
+                        try (ResultSet rs = read.executeQuery()) {
+                            rs.next();
+                            int start = rs.getInt(1) - blockSize;
+                            conn.commit();
+                            return start;
+                        }
+                    }
+
+                    // first block of the day: continue after any ids already issued today
+                    int start = highestIssuedSequence(existing, day) + 1;
+                    insert.setString(1, day);
+                    insert.setInt(2, start + blockSize);
+                    try {
+                        insert.executeUpdate();
+                        conn.commit();
+                        return start;
+                    } catch (SQLException ex) {
+                        // another register created today's row first: take a block from it instead
+                        if (!"23505".equals(ex.getSQLState())) throw ex;
+                    }
+                }
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /** Largest sequence among orders already stored for the day (0 if none); runs once per day */
+    private static int highestIssuedSequence(PreparedStatement existing, String day) throws SQLException {
+        String prefix = "OD-" + day + "-";
+        existing.setString(1, prefix + "%");
+        int max = 0;
+        try (ResultSet rs = existing.executeQuery()) {
+            while (rs.next()) {
+                try {
+                    max = Math.max(max, Integer.parseInt(rs.getString(1).substring(prefix.length())));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        return max;
+    }
+}
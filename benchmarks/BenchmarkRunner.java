@@ -0,0 +1,172 @@
+package oakdonuts.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Header: BenchmarkRunner.java
+ * Minimal JMH-style harness: warmup and measured iterations of fixed length.
+ *
+ * Each iteration calls the operation back to back until its time is up and
+ * scores it as average time per operation. Every measured call is also
+ * timed on its own (up to MAX_SAMPLES calls) for latency percentiles.
+ * Results from operations are written to a volatile sink so the JIT cannot
+ * drop the work.
+ */
+final class BenchmarkRunner {
+    /** One benchmarked operation; its result is consumed by the sink */
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    /** Latency samples kept per benchmark (the first ones measured) */
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationNanos;
+
+    /** Score and latency distribution of one benchmark with one set of parameters */
+    static final class Result {
+        final String benchmark;
+        final Map<String, String> params;
+        final long ops;
+        /** Mean and standard deviation of the per-iteration averages, ns/op */
+        final double score;
+        final double scoreStdev;
+        final double opsPerSecond;
+        final long p50;
+        final long p99;
+        final long p999;
+        final long max;
+
+        Result(String benchmark, Map<String, String> params, long ops, double score, double scoreStdev,
+               double opsPerSecond, long[] sorted) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.ops = ops;
+            this.score = score;
+            this.scoreStdev = scoreStdev;
+            this.opsPerSecond = opsPerSecond;
+            this.p50 = percentile(sorted, 0.50);
+            this.p99 = percentile(sorted, 0.99);
+            this.p999 = percentile(sorted, 0.999);
+            this.max = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            if (sorted.length == 0) return 0;
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+        }
+
+        /** One JSON object; times in nanoseconds */
+        String toJson() {
+            StringBuilder sb = new StringBuilder("{\"benchmark\":\"").append(benchmark).append("\",\"params\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> e : params.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append('"').append(e.getKey()).append("\":\"").append(e.getValue()).append('"');
+            }
+            return sb.append("},\"mode\":\"avgt\",\"unit\":\"ns/op\"")
+                .append(",\"score\":").append(String.format(Locale.ROOT, "%.1f", score))
+                .append(",\"scoreStdev\":").append(String.format(Locale.ROOT, "%.1f", scoreStdev))
+                .append(",\"opsPerSecond\":").append(String.format(Locale.ROOT, "%.1f", opsPerSecond))
+                .append(",\"ops\":").append(ops)
+                .append(",\"p50\":").append(p50)
+                .append(",\"p99\":").append(p99)
+                .append(",\"p999\":").append(p999)
+                .append(",\"max\":").append(max)
+                .append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s %-22s %14.1f ns/op  p50 %10d  p99 %10d  p999 %10d  (%d ops)",
+                benchmark, params, score, p50, p99, p999, ops);
+        }
+    }
+
+    BenchmarkRunner(int warmupIterations, int measureIterations, long iterationMillis) {
+        if (measureIterations <= 0) throw new IllegalArgumentException("need at least one measured iteration");
+        this.warmupIterations = Math.max(0, warmupIterations);
+        this.measureIterations = measureIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    Result run(String benchmark, Map<String, String> params, Op op) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) iterate(op, null);
+
+        Samples samples = new Samples();
+        double[] perIteration = new double[measureIterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < measureIterations; i++) {
+            long start = System.nanoTime();
+            long ops = iterate(op, samples);
+            long elapsed = System.nanoTime() - start;
+            perIteration[i] = (double) elapsed / ops;
+            totalOps += ops;
+            totalNanos += elapsed;
+        }
+
+        double mean = 0;
+        for (double v : perIteration) mean += v;
+        mean /= perIteration.length;
+        double var = 0;
+        for (double v : perIteration) var += (v - mean) * (v - mean);
+        double stdev = perIteration.length > 1 ? Math.sqrt(var / (perIteration.length - 1)) : 0;
+
+        return new Result(benchmark, new LinkedHashMap<>(params), totalOps, mean, stdev,
+            totalOps * 1e9 / totalNanos, samples.sorted());
+    }
+
+    /** Run the operation until the iteration time is used up (at least once) */
+    private long iterate(Op op, Samples samples) throws Exception {
+        long end = System.nanoTime() + iterationNanos;
+        long ops = 0;
+        long now;
+        do {
+            long t0 = System.nanoTime();
+            sink = op.run();
+            now = System.nanoTime();
+            if (samples != null) samples.add(now - t0);
+            ops++;
+        } while (now < end);
+        return ops;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long nanos) {
+            if (size == values.length) {
+                if (size == MAX_SAMPLES) return;
+                values = Arrays.copyOf(values, Math.min(MAX_SAMPLES, size * 2));
+            }
+            values[size++] = nanos;
+        }
+
+        long[] sorted() {
+            long[] s = Arrays.copyOf(values, size);
+            Arrays.sort(s);
+            return s;
+        }
+    }
+
+    /** Results as a JSON array, one benchmark/params combination per element */
+    static String toJson(List<Result> results) {
+        List<String> parts = new ArrayList<>(results.size());
+        for (Result r : results) parts.add("  " + r.toJson());
+        return "[\n" + String.join(",\n", parts) + "\n]\n";
+    }
+}
@@ -0,0 +1,311 @@
+package oakdonuts.bench;
+
+import oakdonuts.DBHelper;
+import oakdonuts.metrics.LatencyHistogram;
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+import oakdonuts.utils.DateUtils;
+import oakdonuts.utils.TaskExecutors;
+
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Header: LoadGenerator.java
+ * Drives DBHelper with concurrent simulated cashiers to size hardware.
+ *
+ * A Workload (generated from an arrival curve, or read from a trace file)
+ * is played against a fresh database: a dispatcher releases each event at
+ * its trace time divided by --speed, and a pool of --cashiers threads
+ * executes them. Open-loop on purpose: when the cashiers fall behind,
+ * customers keep arriving and queue up, as they would at the counter.
+ *
+ * Reported per operation: throughput, service time (the DBHelper calls
+ * only) and response time (from the scheduled arrival, so queueing delay
+ * is included), plus key collisions, deadlocks and lock timeouts.
+ *
+ * Usage:
+ *   run a synthetic day (06:00-12:00, 7-9am rush at 4x the base rate):
+ *     java -cp out:bench-out:derby.jar oakdonuts.bench.LoadGenerator --speed=20
+ *          [--cashiers=8] [--rate=120] [--open=06:00] [--close=12:00] [--spikes=07:00-09:00x4,...]
+ *          [--menu=40] [--edit=0.05] [--delete=0.02] [--list=0.1] [--seed=42]
+ *          [--record=day.tsv] [--url=jdbc:derby:...] [--pool=N] [--group-commit-us=N]
+ *   capture a real day from the store's database, then replay it at 10x:
+ *     ... LoadGenerator --mode=capture --from-url=jdbc:derby:oddb --day=2026-10-16 --trace=day.tsv
+ *     ... LoadGenerator --trace=day.tsv --speed=10
+ */
+public class LoadGenerator {
+    private static final String DEFAULT_URL = "jdbc:derby:memory:loadgen;create=true";
+    private static final int LIST_PAGE = 50;
+    private static final long PROGRESS_EVERY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MAX_ERRORS_SHOWN = 5;
+
+    /** Outcome counters and latencies of one kind of operation */
+    private static final class OpStats {
+        final LatencyHistogram service = new LatencyHistogram();
+        final LatencyHistogram response = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder collisions = new LongAdder();
+        final LongAdder deadlocks = new LongAdder();
+        final LongAdder lockTimeouts = new LongAdder();
+        final LongAdder otherErrors = new LongAdder();
+        /** Edits/deletes whose order never got saved or was already deleted */
+        final LongAdder skipped = new LongAdder();
+    }
+
+    private final DBHelper db;
+    private final Workload workload;
+    private final double speed;
+    private final int cashiers;
+    private final Map<Workload.Kind, OpStats> stats = new EnumMap<>(Workload.Kind.class);
+    /** Trace menu id -> the stored item it became */
+    private final Map<Integer, MenuItem> menu = new HashMap<>();
+    /** Order id of each create, by ref; completed exceptionally if the create failed */
+    private final List<CompletableFuture<Integer>> orderIds = new ArrayList<>();
+    private final LongAdder errorsShown = new LongAdder();
+
+    private LoadGenerator(DBHelper db, Workload workload, double speed, int cashiers) {
+        this.db = db;
+        this.workload = workload;
+        this.speed = speed;
+        this.cashiers = cashiers;
+        for (Workload.Kind k : Workload.Kind.values()) stats.put(k, new OpStats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = OrderBenchmarks.parseArgs(args);
+        if ("capture".equals(opts.get("mode"))) {
+            capture(opts);
+            return;
+        }
+        Workload workload = opts.containsKey("trace")
+            ? Workload.read(Paths.get(opts.get("trace")))
+            : Workload.generate(shape(opts));
+        if (opts.containsKey("record")) workload.write(Paths.get(opts.get("record")));
+
+        String url = opts.getOrDefault("url", DEFAULT_URL);
+        int cashiers = Integer.parseInt(opts.getOrDefault("cashiers", "8"));
+        double speed = Double.parseDouble(opts.getOrDefault("speed", "1"));
+        if (speed <= 0 || cashiers <= 0) throw new IllegalArgumentException("speed and cashiers must be positive");
+        int poolSize = Integer.parseInt(opts.getOrDefault("pool", String.valueOf(DBHelper.DEFAULT_POOL_SIZE)));
+
+        DBHelper db = new DBHelper(url, poolSize, 60_000);
+        try {
+            long groupCommit = Long.parseLong(opts.getOrDefault("group-commit-us", "0"));
+            if (groupCommit > 0) db.enableGroupCommit(groupCommit, 64);
+            new LoadGenerator(db, workload, speed, cashiers).run();
+        } finally {
+            db.close();
+            if (url.startsWith("jdbc:derby:memory:")) {
+                OrderBenchmarks.drop(url.substring("jdbc:derby:".length()).split(";")[0], false);
+            }
+        }
+    }
+
+    private static Workload.Shape shape(Map<String, String> opts) {
+        Workload.Shape s = new Workload.Shape();
+        if (opts.containsKey("open")) s.open = LocalTime.parse(opts.get("open"));
+        if (opts.containsKey("close")) s.close = LocalTime.parse(opts.get("close"));
+        s.baseRatePerHour = Double.parseDouble(opts.getOrDefault("rate", "120"));
+        for (String spike : opts.getOrDefault("spikes", "07:00-09:00x4").split(",")) {
+            if (!spike.trim().isEmpty()) s.spikes.add(Workload.Spike.parse(spike.trim()));
+        }
+        s.menuSize = Integer.parseInt(opts.getOrDefault("menu", "40"));
+        s.editRate = Double.parseDouble(opts.getOrDefault("edit", "0.05"));
+        s.deleteRate = Double.parseDouble(opts.getOrDefault("delete", "0.02"));
+        s.listRate = Double.parseDouble(opts.getOrDefault("list", "0.1"));
+        s.seed = Long.parseLong(opts.getOrDefault("seed", "42"));
+        return s;
+    }
+
+    /** Write the orders of one day in an existing database as a trace */
+    private static void capture(Map<String, String> opts) throws Exception {
+        String url = opts.get("from-url");
+        String trace = opts.get("trace");
+        if (url == null || trace == null || !opts.containsKey("day")) {
+            throw new IllegalArgumentException("capture needs --from-url, --day and --trace");
+        }
+        DBHelper source = new DBHelper(url, 2, 60_000);
+        try {
+            Workload w = Workload.capture(source, LocalDate.parse(opts.get("day")));
+            w.write(Paths.get(trace));
+            System.out.printf("Captured %d orders over %.1f min to %s%n", w.events.size(),
+                w.durationMillis() / 60_000.0, trace);
+        } finally {
+            source.close();
+        }
+    }
+
+    /* ------------------ Run ------------------ */
+
+    private void run() throws Exception {
+        loadMenu();
+        for (Workload.Event e : workload.events) {
+            if (e.kind == Workload.Kind.CREATE) {
+                while (orderIds.size() <= e.ref) orderIds.add(new CompletableFuture<>());
+            }
+        }
+        System.out.printf("Replaying %d events (%.1f min of trace) at %.1fx with %d cashiers%n",
+            workload.events.size(), workload.durationMillis() / 60_000.0, speed, cashiers);
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(cashiers, cashiers, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), TaskExecutors.daemonThreads("cashier"));
+        int maxBacklog = 0;
+        long start = System.nanoTime();
+        long lastProgress = start;
+        for (Workload.Event e : workload.events) {
+            long due = start + (long) (e.atMillis * 1_000_000.0 / speed);
+            for (long wait; (wait = due - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+            pool.execute(() -> execute(e, due));
+            maxBacklog = Math.max(maxBacklog, pool.getQueue().size());
+            if (System.nanoTime() - lastProgress > PROGRESS_EVERY_NANOS) {
+                lastProgress = System.nanoTime();
+                System.out.printf("  trace %s, %d waiting%n", clock(e.atMillis), pool.getQueue().size());
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        report(seconds, maxBacklog);
+    }
+
+    /** Store the trace's menu and remember which stored item each trace id became */
+    private void loadMenu() throws SQLException {
+        for (MenuItem m : workload.menu) {
+            MenuItem stored = new MenuItem(0, m.getName(), m.getPrice(), m.getDescription());
+            db.insertMenuItem(stored);
+            menu.put(m.getItemId(), stored);
+        }
+    }
+
+    private void execute(Workload.Event e, long dueNanos) {
+        OpStats s = stats.get(e.kind);
+        long begin = System.nanoTime();
+        try {
+            boolean done;
+            switch (e.kind) {
+                case CREATE: done = create(e); break;
+                case EDIT: done = edit(e); break;
+                case DELETE: done = delete(e); break;
+                default: done = db.getOrdersPage(null, LIST_PAGE) != null; break;
+            }
+            long end = System.nanoTime();
+            if (!done) {
+                s.skipped.increment();
+                return;
+            }
+            s.ok.increment();
+            s.service.record(end - begin);
+            s.response.record(end - dueNanos);
+        } catch (Exception ex) {
+            if (e.kind == Workload.Kind.CREATE) orderIds.get(e.ref).completeExceptionally(ex);
+            classify(s, ex);
+        }
+    }
+
+    private boolean create(Workload.Event e) throws SQLException {
+        Order o = new Order(db.generateNextTransactionId(), DateUtils.now());
+        for (int i = 0; i < e.itemIds.length; i++) o.addItem(new OrderItem(menuItem(e.itemIds[i]), e.quantities[i]));
+        db.saveOrder(o);
+        orderIds.get(e.ref).complete(o.getOrderId());
+        return true;
+    }
+
+    /** Load the stored order like the register does and change it into the event's lines */
+    private boolean edit(Workload.Event e) throws SQLException {
+        Integer id = orderId(e.ref);
+        Order o = id != null ? db.getOrder(id) : null;
+        if (o == null) return false;
+        List<OrderItem> lines = new ArrayList<>(o.getItems());
+        for (int i = 0; i < Math.max(lines.size(), e.itemIds.length); i++) {
+            OrderItem old = i < lines.size() ? lines.get(i) : null;
+            if (i >= e.itemIds.length) {
+                o.removeItem(old);
+            } else if (old != null && old.getMenuItem().getItemId() == menuItem(e.itemIds[i]).getItemId()) {
+                old.setQuantity(e.quantities[i]);
+            } else {
+                if (old != null) o.removeItem(old);
+                o.addItem(new OrderItem(menuItem(e.itemIds[i]), e.quantities[i]));
+            }
+        }
+        db.saveOrder(o);
+        return true;
+    }
+
+    private boolean delete(Workload.Event e) throws SQLException {
+        Integer id = orderId(e.ref);
+        if (id == null) return false;
+        db.deleteOrder(id);
+        return true;
+    }
+
+    /** Id of a created order, waiting for its save if needed; null if the create failed */
+    private Integer orderId(int ref) {
+        if (ref >= orderIds.size()) return null;
+        try {
+            return orderIds.get(ref).join();
+        } catch (CompletionException | CancellationException failed) {
+            return null;
+        }
+    }
+
+    private MenuItem menuItem(int traceId) {
+        MenuItem m = menu.get(traceId);
+        if (m == null) throw new IllegalArgumentException("trace uses item " + traceId + " which is not on its menu");
+        return m;
+    }
+
+    /** Count a failure by SQLState: 23505 key collision, 40001 deadlock, 40XL1/40XL2 lock timeout */
+    private void classify(OpStats s, Exception ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (!(t instanceof SQLException)) continue;
+            String state = ((SQLException) t).getSQLState();
+            if ("23505".equals(state)) { s.collisions.increment(); return; }
+            if ("40001".equals(state)) { s.deadlocks.increment(); return; }
+            if ("40XL1".equals(state) || "40XL2".equals(state)) { s.lockTimeouts.increment(); return; }
+        }
+        s.otherErrors.increment();
+        errorsShown.increment();
+        if (errorsShown.sum() <= MAX_ERRORS_SHOWN) System.err.println("  error: " + ex);
+    }
+
+    /* ------------------ Report ------------------ */
+
+    private void report(double seconds, int maxBacklog) throws SQLException {
+        System.out.printf("%nFinished in %.1f s (trace time %.1f s at %.1fx), peak backlog %d%n%n",
+            seconds, workload.durationMillis() / 1000.0, speed, maxBacklog);
+        System.out.printf("%-7s %8s %8s %22s %28s %6s %6s %7s %6s %6s%n", "op", "ok", "ops/s",
+            "service p50/p99/p999", "response p50/p99/p999/max", "dupkey", "dlock", "locktmo", "error", "skip");
+        long created = 0, deleted = 0;
+        for (Map.Entry<Workload.Kind, OpStats> en : stats.entrySet()) {
+            OpStats s = en.getValue();
+            long[] svc = s.service.snapshot();
+            long[] rsp = s.response.snapshot();
+            System.out.printf(Locale.ROOT, "%-7s %8d %8.1f %22s %28s %6d %6d %7d %6d %6d%n",
+                en.getKey().name().toLowerCase(), s.ok.sum(), s.ok.sum() / seconds,
+                millis(svc, 0.50) + "/" + millis(svc, 0.99) + "/" + millis(svc, 0.999),
+                millis(rsp, 0.50) + "/" + millis(rsp, 0.99) + "/" + millis(rsp, 0.999) + "/" + millis(rsp, 1.0),
+                s.collisions.sum(), s.deadlocks.sum(), s.lockTimeouts.sum(), s.otherErrors.sum(), s.skipped.sum());
+            if (en.getKey() == Workload.Kind.CREATE) created = s.ok.sum();
+            if (en.getKey() == Workload.Kind.DELETE) deleted = s.ok.sum();
+        }
+        long[] stored = {0};
+        db.forEachOrder(o -> stored[0]++);
+        System.out.printf("%nOrders stored: %d (expected %d)%nLatencies in ms.%n", stored[0], created - deleted);
+    }
+
+    private static String millis(long[] histogram, double p) {
+        return String.format(Locale.ROOT, "%.1f", LatencyHistogram.percentile(histogram, p) / 1e6);
+    }
+
+    private static String clock(long traceMillis) {
+        return LocalTime.ofSecondOfDay(Math.min(86_399, traceMillis / 1000)).toString();
+    }
+}
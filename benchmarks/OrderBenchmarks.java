@@ -0,0 +1,255 @@
+package oakdonuts.bench;
+
+import oakdonuts.DBHelper;
+import oakdonuts.MenuSearchIndex;
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+import oakdonuts.utils.DateUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Header: OrderBenchmarks.java
+ * Checkout-path benchmarks for DBHelper and the order model.
+ *
+ * For each dataset size a fresh Derby database (in-memory by default) is
+ * loaded with that many orders of realistic shape, then every DB benchmark
+ * runs against it. Results are printed and written as JSON so runs can be
+ * diffed over time.
+ *
+ * Usage:
+ *   java -cp out:derby.jar oakdonuts.bench.OrderBenchmarks
+ *        [--sizes=1000,10000,100000,1000000] [--warmup=2] [--iterations=5]
+ *        [--time-ms=1000] [--store=memory|disk] [--only=regex] [--out=file.json]
+ */
+public class OrderBenchmarks {
+    /** Shape of generated orders: lines per order and quantity per line */
+    private static final int MAX_LINES = 8;
+    private static final int MAX_QUANTITY = 6;
+    private static final int MENU_SIZE = 30;
+    private static final int LOAD_CHUNK = 10_000;
+    /** Stored orders kept loaded for the update benchmark */
+    private static final int UPDATE_POOL = 1_000;
+    /** Random order ids per getOrders call (about a shift's receipts) */
+    private static final int HYDRATE_BATCH = 200;
+    /** Results asked for per menu search (the GUI shows up to 50) */
+    private static final int SEARCH_RESULTS = 50;
+
+    private final BenchmarkRunner runner;
+    private final String only;
+    private final List<BenchmarkRunner.Result> results = new ArrayList<>();
+
+    private OrderBenchmarks(BenchmarkRunner runner, String only) {
+        this.runner = runner;
+        this.only = only;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parseArgs(args);
+        int[] sizes = Arrays.stream(opts.getOrDefault("sizes", "1000,10000,100000,1000000").split(","))
+            .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        BenchmarkRunner runner = new BenchmarkRunner(
+            Integer.parseInt(opts.getOrDefault("warmup", "2")),
+            Integer.parseInt(opts.getOrDefault("iterations", "5")),
+            Long.parseLong(opts.getOrDefault("time-ms", "1000")));
+        boolean disk = "disk".equals(opts.getOrDefault("store", "memory"));
+        Path out = Paths.get(opts.getOrDefault("out",
+            "bench-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json"));
+
+        OrderBenchmarks bench = new OrderBenchmarks(runner, opts.get("only"));
+        bench.modelBenchmarks();
+        for (int size : sizes) bench.databaseBenchmarks(size, disk);
+
+        Files.write(out, BenchmarkRunner.toJson(bench.results).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--") || !a.contains("=")) throw new IllegalArgumentException("expected --name=value: " + a);
+            opts.put(a.substring(2, a.indexOf('=')), a.substring(a.indexOf('=') + 1));
+        }
+        return opts;
+    }
+
+    private void bench(String name, Map<String, String> params, BenchmarkRunner.Op op) throws Exception {
+        if (only != null && !name.matches(only)) return;
+        BenchmarkRunner.Result r = runner.run(name, params, op);
+        results.add(r);
+        System.out.println(r);
+    }
+
+    /** Order.addItem, recalcTotal and menu search; no database involved */
+    private void modelBenchmarks() throws Exception {
+        List<MenuItem> menu = new ArrayList<>();
+        for (int i = 1; i <= MENU_SIZE; i++) menu.add(new MenuItem(i, "Item " + i, Money.ofCents(99 + 25 * i), null));
+
+        for (int lines : new int[]{1, 4, MAX_LINES * 2}) {
+            Random rnd = new Random(7);
+            bench("orderAddItems", Collections.singletonMap("lines", String.valueOf(lines)), () -> {
+                Order o = new Order("OD-bench", null);
+                for (int i = 0; i < lines; i++) {
+                    o.addItem(new OrderItem(menu.get(rnd.nextInt(menu.size())), 1 + rnd.nextInt(MAX_QUANTITY)));
+                }
+                return o.getTotalCents();
+            });
+
+            Order loaded = new Order("OD-bench", null);
+            for (int i = 0; i < lines; i++) loaded.addItem(new OrderItem(menu.get(i % menu.size()), 1 + i % MAX_QUANTITY));
+            bench("orderRecalcTotal", Collections.singletonMap("lines", String.valueOf(lines)), () -> {
+                loaded.recalcTotal();
+                return loaded.getTotalCents();
+            });
+        }
+
+        // typing into the menu search: every prefix of a few queries, one search per keystroke
+        for (int items : new int[]{MENU_SIZE, 5_000}) {
+            MenuSearchIndex index = new MenuSearchIndex();
+            index.replaceAll(searchCatalog(items));
+            List<String> keystrokes = new ArrayList<>();
+            for (String q : new String[]{"glazed donut", "choc", "pumpkin spice latte", "cruler"}) {
+                for (int i = 1; i <= q.length(); i++) keystrokes.add(q.substring(0, i));
+            }
+            int[] next = {0};
+            bench("menuSearch", Collections.singletonMap("items", String.valueOf(items)), () ->
+                index.search(keystrokes.get(next[0]++ % keystrokes.size()), SEARCH_RESULTS).size());
+        }
+    }
+
+    /** A multi-store catalog: base items crossed with sizes, flavours and store-specific variants */
+    private static List<MenuItem> searchCatalog(int size) {
+        String[] base = {"Glazed Donut", "Chocolate Frosted", "Sprinkles", "Boston Cream", "Maple Bar",
+            "Old Fashioned", "Jelly Filled", "Apple Fritter", "Coffee", "Latte", "Hot Chocolate",
+            "Blueberry Cake", "Cinnamon Twist", "French Cruller", "Bear Claw", "Lemon Filled"};
+        String[] variants = {"Mini", "Large", "Dozen", "Vegan", "Gluten Free", "Pumpkin Spice", "Iced", "Decaf"};
+        Random rnd = new Random(11);
+        List<MenuItem> menu = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = i < base.length ? base[i]
+                : variants[rnd.nextInt(variants.length)] + " " + base[rnd.nextInt(base.length)] + " (store " + (i % 40) + ")";
+            menu.add(new MenuItem(i + 1, name, Money.ofCents(99 + rnd.nextInt(600)), rnd.nextBoolean() ? "seasonal special" : null));
+        }
+        return menu;
+    }
+
+    private void databaseBenchmarks(int size, boolean disk) throws Exception {
+        Path dir = disk ? Files.createTempDirectory("od-bench") : null;
+        String name = disk ? dir.resolve("bench" + size).toString() : "memory:bench" + size;
+        DBHelper db = new DBHelper("jdbc:derby:" + name + ";create=true", DBHelper.DEFAULT_POOL_SIZE, 60_000);
+        try {
+            Random rnd = new Random(42);
+            long t0 = System.nanoTime();
+            List<MenuItem> menu = loadMenu(db);
+            int[] orderIds = loadOrders(db, menu, size, rnd);
+            System.out.printf("-- %d orders loaded into %s in %d ms%n", size, disk ? "disk" : "memory",
+                (System.nanoTime() - t0) / 1_000_000);
+
+            Map<String, String> params = Collections.singletonMap("orders", String.valueOf(size));
+
+            bench("generateNextTransactionId", params, db::generateNextTransactionId);
+            bench("getAllMenuItems", params, db::getAllMenuItems);
+            bench("getOrderItems", params, () -> db.getOrderItems(orderIds[rnd.nextInt(orderIds.length)]));
+            bench("getAllOrders", params, db::getAllOrders);
+            List<Integer> batch = new ArrayList<>(HYDRATE_BATCH);
+            bench("getOrders", params, () -> {
+                batch.clear();
+                for (int i = 0; i < HYDRATE_BATCH; i++) batch.add(orderIds[rnd.nextInt(orderIds.length)]);
+                return db.getOrders(batch);
+            });
+
+            bench("saveOrderNew", params, () -> {
+                Order o = newOrder(menu, rnd, db.generateNextTransactionId(), DateUtils.now());
+                db.saveOrder(o);
+                return o.getOrderId();
+            });
+
+            // typical edit at the register: one line's quantity changes
+            List<Order> stored = loadForUpdate(db, orderIds, rnd);
+            bench("saveOrderUpdate", params, () -> {
+                Order o = stored.get(rnd.nextInt(stored.size()));
+                OrderItem line = o.getItems().get(rnd.nextInt(o.getItems().size()));
+                line.setQuantity(line.getQuantity() % MAX_QUANTITY + 1);
+                db.saveOrder(o);
+                return o.getTotalCents();
+            });
+        } finally {
+            db.close();
+            drop(name, disk);
+            if (dir != null) deleteRecursively(dir);
+        }
+    }
+
+    /** The seeded menu plus generated items, MENU_SIZE in total */
+    private static List<MenuItem> loadMenu(DBHelper db) throws SQLException {
+        for (int i = db.getAllMenuItems().size() + 1; i <= MENU_SIZE; i++) {
+            db.insertMenuItem(new MenuItem(0, "Bench donut " + i, Money.ofCents(99 + 25 * i), "generated"));
+        }
+        return db.getAllMenuItems();
+    }
+
+    /** Store size orders spread over the past year; returns their ids */
+    private static int[] loadOrders(DBHelper db, List<MenuItem> menu, int size, Random rnd) throws SQLException {
+        int[] ids = new int[size];
+        Map<String, Integer> seqPerDay = new HashMap<>();
+        LocalDateTime start = LocalDate.now().minusDays(365).atStartOfDay();
+        List<Order> chunk = new ArrayList<>(LOAD_CHUNK);
+        int stored = 0;
+        for (int i = 0; i < size; i++) {
+            LocalDateTime at = start.plusSeconds((long) (rnd.nextDouble() * 364 * 86_400));
+            String day = at.toLocalDate().format(DateTimeFormatter.BASIC_ISO_DATE);
+            int seq = seqPerDay.merge(day, 1, Integer::sum);
+            chunk.add(newOrder(menu, rnd, DateUtils.generateTransactionId(day, seq), Timestamp.valueOf(at)));
+            if (chunk.size() == LOAD_CHUNK || i == size - 1) {
+                db.saveOrders(chunk, 1_000);
+                for (Order o : chunk) ids[stored++] = o.getOrderId();
+                chunk.clear();
+            }
+        }
+        return ids;
+    }
+
+    private static Order newOrder(List<MenuItem> menu, Random rnd, String txnId, Timestamp at) {
+        Order o = new Order(txnId, at);
+        // most orders are small: 1-2 lines common, up to MAX_LINES
+        int lines = Math.min(MAX_LINES, 1 + (int) (-Math.log(1 - rnd.nextDouble()) * 1.5));
+        for (int i = 0; i < lines; i++) {
+            o.addItem(new OrderItem(menu.get(rnd.nextInt(menu.size())), 1 + rnd.nextInt(MAX_QUANTITY)));
+        }
+        return o;
+    }
+
+    private static List<Order> loadForUpdate(DBHelper db, int[] orderIds, Random rnd) throws SQLException {
+        List<Integer> ids = new ArrayList<>(UPDATE_POOL);
+        for (int i = 0; i < Math.min(UPDATE_POOL, orderIds.length); i++) ids.add(orderIds[rnd.nextInt(orderIds.length)]);
+        return db.getOrders(ids);
+    }
+
+    /** Drop the in-memory database or shut the on-disk one down */
+    static void drop(String name, boolean disk) {
+        try {
+            DriverManager.getConnection("jdbc:derby:" + name + (disk ? ";shutdown=true" : ";drop=true")).close();
+        } catch (SQLException expected) {
+            // Derby reports a successful drop/shutdown as an exception (08006)
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+}
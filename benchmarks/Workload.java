@@ -0,0 +1,318 @@
+package oakdonuts.bench;
+
+import oakdonuts.DBHelper;
+import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Header: Workload.java
+ * A day of register operations as a timed trace: the menu plus create, edit,
+ * delete and list events at millisecond offsets from the start of the trace.
+ *
+ * Traces are generated from an arrival curve, captured from the orders a
+ * real database holds for one day, or read back from a file written by an
+ * earlier run. File format, one tab-separated record per line:
+ *
+ *   menu    itemId  priceCents  name
+ *   atMs    create  ref  itemId x qty,...
+ *   atMs    edit    ref  itemId x qty,...   (the order's complete new lines)
+ *   atMs    delete  ref
+ *   atMs    list
+ *
+ * ref numbers the creates of a trace; edits and deletes refer to one.
+ */
+final class Workload {
+    enum Kind { CREATE, EDIT, DELETE, LIST }
+
+    /** One operation at a point in the trace */
+    static final class Event {
+        final long atMillis;
+        final Kind kind;
+        /** Create number this event is about; -1 for LIST */
+        final int ref;
+        /** Order lines (CREATE, EDIT): menu item ids and quantities */
+        final int[] itemIds;
+        final int[] quantities;
+
+        Event(long atMillis, Kind kind, int ref, int[] itemIds, int[] quantities) {
+            this.atMillis = atMillis;
+            this.kind = kind;
+            this.ref = ref;
+            this.itemIds = itemIds;
+            this.quantities = quantities;
+        }
+    }
+
+    /** Menu items as (trace) id, price and name; ids are remapped on replay */
+    final List<MenuItem> menu;
+    /** Sorted by atMillis */
+    final List<Event> events;
+
+    Workload(List<MenuItem> menu, List<Event> events) {
+        this.menu = menu;
+        this.events = events;
+    }
+
+    long durationMillis() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).atMillis;
+    }
+
+    /* ------------------ Synthetic day ------------------ */
+
+    /** Parameters of a generated day */
+    static final class Shape {
+        LocalTime open = LocalTime.of(6, 0);
+        LocalTime close = LocalTime.of(12, 0);
+        /** Customers per hour outside spikes */
+        double baseRatePerHour = 120;
+        /** Periods with a multiplied rate, e.g. the 7-9am rush */
+        final List<Spike> spikes = new ArrayList<>();
+        int menuSize = 40;
+        /** Chance that a saved order is later edited, deleted; lists per customer */
+        double editRate = 0.05;
+        double deleteRate = 0.02;
+        double listRate = 0.10;
+        long seed = 42;
+    }
+
+    static final class Spike {
+        final LocalTime from;
+        final LocalTime to;
+        final double factor;
+
+        Spike(LocalTime from, LocalTime to, double factor) {
+            this.from = from;
+            this.to = to;
+            this.factor = factor;
+        }
+
+        /** "07:00-09:00x4" */
+        static Spike parse(String s) {
+            int x = s.lastIndexOf('x');
+            int dash = s.indexOf('-');
+            if (x < 0 || dash < 0 || dash > x) throw new IllegalArgumentException("expected HH:mm-HH:mmxFACTOR: " + s);
+            return new Spike(LocalTime.parse(s.substring(0, dash)), LocalTime.parse(s.substring(dash + 1, x)),
+                Double.parseDouble(s.substring(x + 1)));
+        }
+    }
+
+    private static final String[] DONUTS = {
+        "Glazed", "Chocolate Frosted", "Sprinkles", "Boston Cream", "Jelly", "Maple Bar", "Old Fashioned",
+        "Apple Fritter", "Cinnamon Twist", "Bear Claw", "Cruller", "Powdered", "Blueberry Cake", "Coconut",
+        "Strawberry Frosted", "Lemon Filled", "Double Chocolate", "Honey Dip", "Red Velvet", "Pumpkin Spice"
+    };
+    private static final String[] DRINKS = {"Coffee", "Latte", "Cappuccino", "Hot Chocolate", "Iced Coffee", "Tea"};
+    private static final String[] SIZES = {"Small", "Medium", "Large"};
+
+    /**
+     * A day of customers arriving as a Poisson process whose rate follows the
+     * shape's curve. Each customer creates an order; some later edit or delete
+     * it, and some list recent orders.
+     */
+    static Workload generate(Shape shape) {
+        Random rnd = new Random(shape.seed);
+        List<MenuItem> menu = syntheticMenu(shape.menuSize);
+        double[] popularity = zipf(menu.size(), 1.1);
+
+        long openMs = shape.open.toSecondOfDay() * 1000L;
+        long lengthMs = shape.close.toSecondOfDay() * 1000L - openMs;
+        if (lengthMs <= 0) throw new IllegalArgumentException("close must be after open");
+        double maxRate = shape.baseRatePerHour;
+        for (Spike s : shape.spikes) maxRate = Math.max(maxRate, shape.baseRatePerHour * s.factor);
+        double maxPerMs = maxRate / 3_600_000.0;
+
+        List<Event> events = new ArrayList<>();
+        int creates = 0;
+        // thinning: candidates at the peak rate, kept with probability rate(t) / peak
+        for (double t = 0; ; ) {
+            t += -Math.log(1 - rnd.nextDouble()) / maxPerMs;
+            if (t >= lengthMs) break;
+            long at = (long) t;
+            if (rnd.nextDouble() * maxRate > rateAt(shape, openMs + at)) continue;
+
+            int ref = creates++;
+            int[][] lines = basket(rnd, popularity, menu);
+            events.add(new Event(at, Kind.CREATE, ref, lines[0], lines[1]));
+            if (rnd.nextDouble() < shape.listRate) events.add(new Event(at + 1, Kind.LIST, -1, null, null));
+            if (rnd.nextDouble() < shape.editRate) {
+                // "actually, make that..." a minute or two later
+                int[][] edited = basket(rnd, popularity, menu);
+                events.add(new Event(at + 30_000 + rnd.nextInt(90_000), Kind.EDIT, ref, edited[0], edited[1]));
+            }
+            if (rnd.nextDouble() < shape.deleteRate) {
+                events.add(new Event(at + 180_000 + rnd.nextInt(300_000), Kind.DELETE, ref, null, null));
+            }
+        }
+        events.sort(Comparator.comparingLong(e -> e.atMillis)); // stable: a create stays before its edit at the same ms
+        return new Workload(menu, events);
+    }
+
+    private static double rateAt(Shape shape, long dayMillis) {
+        LocalTime t = LocalTime.ofSecondOfDay(Math.min(86_399, dayMillis / 1000));
+        double rate = shape.baseRatePerHour;
+        for (Spike s : shape.spikes) {
+            if (!t.isBefore(s.from) && t.isBefore(s.to)) rate = Math.max(rate, shape.baseRatePerHour * s.factor);
+        }
+        return rate;
+    }
+
+    private static List<MenuItem> syntheticMenu(int size) {
+        List<MenuItem> menu = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name;
+            long cents;
+            if (i < DONUTS.length) {
+                name = DONUTS[i];
+                cents = 129 + (i % 7) * 20;
+            } else if (i < DONUTS.length + DRINKS.length * SIZES.length) {
+                int d = i - DONUTS.length;
+                name = SIZES[d % SIZES.length] + " " + DRINKS[d / SIZES.length];
+                cents = 199 + (d % SIZES.length) * 50 + (d / SIZES.length) * 25;
+            } else {
+                name = "Dozen Box " + (i - DONUTS.length - DRINKS.length * SIZES.length + 1);
+                cents = 1299 + (i % 5) * 100;
+            }
+            menu.add(new MenuItem(i + 1, name, Money.ofCents(cents), null));
+        }
+        return menu;
+    }
+
+    /** Cumulative Zipf weights: a few favourites sell most */
+    private static double[] zipf(int n, double exponent) {
+        double[] cum = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) cum[i] = sum += 1 / Math.pow(i + 1, exponent);
+        for (int i = 0; i < n; i++) cum[i] /= sum;
+        return cum;
+    }
+
+    /** 1-2 lines common, up to 8; quantities mostly 1-2 */
+    private static int[][] basket(Random rnd, double[] popularity, List<MenuItem> menu) {
+        int lines = Math.min(8, 1 + (int) (-Math.log(1 - rnd.nextDouble()) * 1.2));
+        int[] ids = new int[lines];
+        int[] qty = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            int k = Arrays.binarySearch(popularity, rnd.nextDouble());
+            ids[i] = menu.get(Math.min(menu.size() - 1, k < 0 ? -k - 1 : k)).getItemId();
+            qty[i] = rnd.nextInt(10) < 7 ? 1 + rnd.nextInt(2) : 1 + rnd.nextInt(12);
+        }
+        return new int[][]{ids, qty};
+    }
+
+    /* ------------------ Captured day ------------------ */
+
+    /**
+     * The orders a database holds for one day, as creates at their recorded
+     * times. Edits and deletes leave no history in the orders table, so a
+     * captured day replays its final orders only.
+     */
+    static Workload capture(DBHelper db, LocalDate day) throws SQLException {
+        List<MenuItem> menu = new ArrayList<>(db.getAllMenuItems());
+        List<Order> headers = new ArrayList<>(
+            db.getOrders(Timestamp.valueOf(day.atStartOfDay()), Timestamp.valueOf(day.plusDays(1).atStartOfDay())));
+        Collections.reverse(headers); // oldest first
+        long dayStart = Timestamp.valueOf(day.atStartOfDay()).getTime();
+        long first = headers.isEmpty() ? dayStart : headers.get(0).getOrderDate().getTime();
+
+        List<Event> events = new ArrayList<>(headers.size());
+        for (int ref = 0; ref < headers.size(); ref++) {
+            Order h = headers.get(ref);
+            List<OrderItem> items = h.getItems();
+            int[] ids = new int[items.size()];
+            int[] qty = new int[items.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = items.get(i).getMenuItem().getItemId();
+                qty[i] = items.get(i).getQuantity();
+            }
+            events.add(new Event(h.getOrderDate().getTime() - first, Kind.CREATE, ref, ids, qty));
+        }
+        return new Workload(menu, events);
+    }
+
+    /* ------------------ File format ------------------ */
+
+    void write(Path file) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("# oakdonuts workload v1");
+            w.newLine();
+            for (MenuItem m : menu) {
+                w.write("menu\t" + m.getItemId() + "\t" + m.getPriceCents() + "\t" + m.getName().replace('\t', ' '));
+                w.newLine();
+            }
+            for (Event e : events) {
+                StringBuilder sb = new StringBuilder().append(e.atMillis).append('\t')
+                    .append(e.kind.name().toLowerCase());
+                if (e.ref >= 0) sb.append('\t').append(e.ref);
+                if (e.itemIds != null) {
+                    sb.append('\t');
+                    for (int i = 0; i < e.itemIds.length; i++) {
+                        if (i > 0) sb.append(',');
+                        sb.append(e.itemIds[i]).append('x').append(e.quantities[i]);
+                    }
+                }
+                w.write(sb.toString());
+                w.newLine();
+            }
+        }
+    }
+
+    static Workload read(Path file) throws IOException {
+        List<MenuItem> menu = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] f = line.split("\t");
+                try {
+                    if (f[0].equals("menu")) {
+                        menu.add(new MenuItem(Integer.parseInt(f[1]), f[3],
+                            Money.ofCents(Long.parseLong(f[2])), null));
+                        continue;
+                    }
+                    long at = Long.parseLong(f[0]);
+                    Kind kind = Kind.valueOf(f[1].toUpperCase());
+                    int ref = kind == Kind.LIST ? -1 : Integer.parseInt(f[2]);
+                    int[] ids = null;
+                    int[] qty = null;
+                    if (kind == Kind.CREATE || kind == Kind.EDIT) {
+                        String[] lines = f[3].split(",");
+                        ids = new int[lines.length];
+                        qty = new int[lines.length];
+                        for (int i = 0; i < lines.length; i++) {
+                            int x = lines[i].indexOf('x');
+                            ids[i] = Integer.parseInt(lines[i].substring(0, x));
+                            qty[i] = Integer.parseInt(lines[i].substring(x + 1));
+                        }
+                    }
+                    events.add(new Event(at, kind, ref, ids, qty));
+                } catch (RuntimeException ex) {
+                    throw new IOException(file + ":" + lineNo + ": bad record: " + line, ex);
+                }
+            }
+        }
+        events.sort(Comparator.comparingLong(e -> e.atMillis));
+        return new Workload(menu, events);
+    }
+}
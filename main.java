@@ -1,22 +1,211 @@
 package oakdonuts;
 
+import oakdonuts.metrics.Metrics;
+
+import oakdonuts.models.Order;
+import oakdonuts.models.OrderItem;
+
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Header: MainApp.java
  * Entrypoint for Oak Donuts OD project
+ *
+ * Options:
+ *   --headless        no Swing window; serve the HTTP API only (port 8080 unless --http is given)
+ *   --http=PORT       serve the HTTP API (see OrderHttpServer), next to the GUI unless headless
+ *   --group-commit-us=N  coalesce concurrent order saves, waiting up to N microseconds
+ *   --archive-after-days=N  move orders older than N days to the archive tables, hourly (see OrderArchiver)
+ *   --backup-dir=DIR  online backup into DIR daily, shipping the transaction log every few minutes (see BackupManager)
+ *   --memory[=FILE]   keep the database in memory, snapshotted to FILE (default oddb-snapshot.zip)
+ *                     every minute and at shutdown, and restored from it at startup (see MemorySnapshots)
+ *   --journal[=FILE]  capture mode: new orders are acknowledged once appended to FILE (default
+ *                     oddb-orders.journal) and written to Derby behind the register (see OrderJournal)
+ *   --journal-dead[=FILE]  list the orders the journal in FILE set aside as unwritable (FILE.dead) and exit
+ *   --verify-backup=SET  restore the backup set into a scratch directory, reconcile it and exit (1 if inconsistent)
+ *
+ * Operation metrics are always published over JMX. To also keep them on
+ * disk, start with -Doakdonuts.metrics.dir=<directory> (optionally
+ * -Doakdonuts.metrics.interval=<seconds> and -Doakdonuts.metrics.keep=<days>).
+ *
+ * Startup: Derby boots and migrates the schema on a background thread while
+ * the window is built and shown; the window fills in once it is up (see
+ * DonutShopGUI). Phase times since JVM start are printed as "Startup: ..."
+ * lines (see StartupTimer). Class loading can be cut further with
+ * an AppCDS archive: run once with -XX:ArchiveClassesAtExit=oakdonuts.jsa,
+ * then start with -XX:SharedArchiveFile=oakdonuts.jsa.
  */
 public class MainApp {
-    public static void main(String[] args) {
+    private static final int GROUP_COMMIT_MAX_ORDERS = 64;
+    private static final long ARCHIVE_INTERVAL_MINUTES = 60;
+    private static final long BACKUP_INTERVAL_MINUTES = 24 * 60;
+    private static final long LOG_SHIP_INTERVAL_MINUTES = 5;
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+    /** Run in this order by one shutdown hook (hooks of their own would run concurrently) */
+    private static final List<Runnable> ON_SHUTDOWN = new CopyOnWriteArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        boolean headless = false;
+        int httpPort = -1;
+        long groupCommitMicros = 0;
+        int archiveAfterDays = 0;
+        String backupDir = null;
+        String snapshotFile = null;
+        String journalFile = null;
+        for (String a : args) {
+            if (a.equals("--headless")) headless = true;
+            else if (a.startsWith("--http=")) httpPort = Integer.parseInt(a.substring("--http=".length()));
+            else if (a.startsWith("--group-commit-us=")) groupCommitMicros = Long.parseLong(a.substring("--group-commit-us=".length()));
+            else if (a.startsWith("--archive-after-days=")) archiveAfterDays = Integer.parseInt(a.substring("--archive-after-days=".length()));
+            else if (a.startsWith("--backup-dir=")) backupDir = a.substring("--backup-dir=".length());
+            else if (a.equals("--memory")) snapshotFile = MemorySnapshots.DEFAULT_FILE;
+            else if (a.startsWith("--memory=")) snapshotFile = a.substring("--memory=".length());
+            else if (a.equals("--journal")) journalFile = OrderJournal.DEFAULT_FILE;
+            else if (a.startsWith("--journal=")) journalFile = a.substring("--journal=".length());
+            else if (a.equals("--journal-dead")) printDeadLetters(Paths.get(OrderJournal.DEFAULT_FILE));
+            else if (a.startsWith("--journal-dead=")) printDeadLetters(Paths.get(a.substring("--journal-dead=".length())));
+            else if (a.startsWith("--verify-backup=")) {
+                BackupManager.Verification v = BackupManager.verify(Paths.get(a.substring("--verify-backup=".length())));
+                System.out.println(v);
+                System.exit(v.isConsistent() ? 0 : 1);
+            }
+            else throw new IllegalArgumentException("Unknown option: " + a);
+        }
+        if (headless && httpPort < 0) httpPort = OrderHttpServer.DEFAULT_PORT;
+        // backups ship the on-disk transaction log; a memory database has snapshots instead
+        if (backupDir != null && snapshotFile != null) throw new IllegalArgumentException("--backup-dir needs the on-disk database");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Runnable r : ON_SHUTDOWN) r.run();
+        }, "shutdown"));
+        startMetrics();
+
+        if (headless) {
+            DBHelper db = openDatabase(groupCommitMicros, archiveAfterDays, backupDir, snapshotFile, journalFile);
+            startHttp(db, httpPort);
+            db.warmUp();
+            StartupTimer.phase("warmedUp");
+            return; // the server's threads keep running until the JVM is stopped
+        }
+        int port = httpPort;
+        long window = groupCommitMicros;
+        int archiveDays = archiveAfterDays;
+        String backups = backupDir;
+        String snapshots = snapshotFile;
+        String journal = journalFile;
+        // the window reports a failure here like any other failed load
+        CompletableFuture<DBHelper> starting = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                DBHelper db = openDatabase(window, archiveDays, backups, snapshots, journal);
+                if (port >= 0) startHttp(db, port);
+                starting.complete(db);
+            } catch (Throwable ex) {
+                starting.completeExceptionally(ex);
+            }
+        }, "db-boot").start();
         SwingUtilities.invokeLater(() -> {
+            DonutShopGUI gui = new DonutShopGUI(starting);
+            gui.setVisible(true);
+            StartupTimer.phase("windowShown");
+        });
+    }
+
+    /** Boot Derby, bring the schema up to date and start the optional background work */
+    private static DBHelper openDatabase(long groupCommitMicros, int archiveAfterDays, String backupDir,
+                                         String snapshotFile, String journalFile) throws SQLException, IOException {
+        DBHelper db = snapshotFile != null ? openInMemory(Paths.get(snapshotFile)) : new DBHelper();
+        StartupTimer.phase("databaseReady");
+        if (groupCommitMicros > 0) db.enableGroupCommit(groupCommitMicros, GROUP_COMMIT_MAX_ORDERS);
+        if (journalFile != null) startJournal(db, Paths.get(journalFile));
+        if (archiveAfterDays > 0) startArchiver(db, archiveAfterDays);
+        if (backupDir != null) {
+            new BackupManager(db, Paths.get(backupDir))
+                .start(BACKUP_INTERVAL_MINUTES, LOG_SHIP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+        return db;
+    }
+
+    /** The store database in memory, restored from the snapshot file and saved back to it */
+    private static DBHelper openInMemory(Path snapshotFile) throws SQLException {
+        DBHelper db = MemorySnapshots.open("oddb", snapshotFile, DBHelper.DEFAULT_POOL_SIZE);
+        MemorySnapshots snapshots = new MemorySnapshots(db, snapshotFile);
+        snapshots.start(SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        ON_SHUTDOWN.add(() -> {
+            snapshots.close();
             try {
-                DBHelper db = new DBHelper();
-                DonutShopGUI gui = new DonutShopGUI(db);
-                gui.setVisible(true);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(null, "Failed to start application: " + ex.getMessage());
+                snapshots.snapshotNow();
+            } catch (SQLException ex) {
+                System.err.println("Final snapshot failed: " + ex);
             }
         });
+        return db;
+    }
+
+    /**
+     * New orders go through the journal; what an earlier run left in it is
+     * replayed first. The journal is drained into Derby before the final
+     * snapshot at shutdown, so the hook goes first.
+     */
+    private static void startJournal(DBHelper db, Path file) throws SQLException, IOException {
+        db.enableOrderJournal(file, false);
+        ON_SHUTDOWN.add(0, db::disableOrderJournal);
+        int dead = OrderJournal.readDeadLetters(OrderJournal.deadLetterFile(file)).size();
+        if (dead > 0) {
+            System.err.println(dead + " journaled order(s) could not be saved and were set aside in " +
+                OrderJournal.deadLetterFile(file) + " (list them with --journal-dead=" + file + ")");
+        }
+    }
+
+    /** List the orders a journal set aside, to be entered again by hand, and exit */
+    private static void printDeadLetters(Path journalFile) throws SQLException, IOException {
+        List<Order> dead = OrderJournal.readDeadLetters(OrderJournal.deadLetterFile(journalFile));
+        for (Order o : dead) {
+            StringBuilder sb = new StringBuilder(o.getTransactionId()).append(' ').append(o.getOrderDate())
+                .append(" $").append(o.getTotal());
+            for (OrderItem oi : o.getItems()) {
+                // the journal keeps item ids and prices, not names
+                sb.append("\n    ").append(oi.getQuantity()).append(" x item ").append(oi.getMenuItem().getItemId())
+                    .append(" at $").append(oi.getMenuItem().getPrice());
+            }
+            System.out.println(sb);
+        }
+        System.out.println(dead.size() + " order(s) set aside in " + OrderJournal.deadLetterFile(journalFile));
+        System.exit(0);
+    }
+
+    /** Serve the HTTP API on db; stopped (and the database closed) on JVM shutdown */
+    private static void startHttp(DBHelper db, int port) throws Exception {
+        OrderHttpServer http = new OrderHttpServer(db, port);
+        http.start();
+        // after the final snapshot, if any: it was added first
+        ON_SHUTDOWN.add(() -> {
+            http.close();
+            db.close();
+        });
+        System.out.println("Order API listening on port " + http.getPort());
+    }
+
+    /** Archive on a daemon thread, first one interval after startup so it stays out of the way */
+    private static void startArchiver(DBHelper db, int afterDays) {
+        new OrderArchiver(db).start(afterDays, ARCHIVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private static void startMetrics() {
+        String dir = System.getProperty("oakdonuts.metrics.dir");
+        try {
+            Metrics.global().startReporting(Long.getLong("oakdonuts.metrics.interval", 10),
+                dir != null ? Paths.get(dir) : null, Integer.getInteger("oakdonuts.metrics.keep", 7));
+        } catch (Exception ex) {
+            // the register works without metrics files
+            System.err.println("Metrics reporting not started: " + ex);
+        }
     }
 }
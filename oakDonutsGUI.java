@@ -1,8 +1,11 @@
 package oakdonuts;
 
 import oakdonuts.models.MenuItem;
+import oakdonuts.models.Money;
 import oakdonuts.models.Order;
 import oakdonuts.models.OrderItem;
+import oakdonuts.metrics.Metrics;
+import oakdonuts.metrics.OperationStats;
 import oakdonuts.utils.DateUtils;
 
 import javax.swing.*;
@@ -10,8 +13,8 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
-import java.sql.SQLException;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Header: DonutShopGUI.java
@@ -20,29 +23,96 @@ import java.util.List;
  * This is a single-file Swing GUI for demonstration/project submission.
  */
 public class DonutShopGUI extends JFrame {
-    private DBHelper db;
-    private DefaultListModel<MenuItem> menuListModel = new DefaultListModel<>();
+    private AsyncDBHelper db;
+    /** One model behind both the menu list and the item combo box */
+    private MenuModel menuModel = new MenuModel();
     private JList<MenuItem> menuList;
 
     // Current order UI components
     private DefaultTableModel orderTableModel;
     private JTable orderTable;
     private Order currentOrder;
+    /** Transaction id of an order that was never saved; the real one is assigned on its first save */
+    private static final String UNSAVED_TRANSACTION_ID = "TEMP";
 
-    // Orders list (existing orders)
-    private DefaultTableModel ordersModel;
+    // Orders list (existing orders), paged newest first
+    private static final int ORDERS_PAGE_SIZE = 100;
+    private OrdersTableModel ordersModel = new OrdersTableModel();
     private JTable ordersTable;
 
+    // Status bar: pending / failed background work
+    private JLabel statusLabel = new JLabel("Ready");
+    private int pendingTasks;
+
+    // user-facing latency: from the click until the result is back on the EDT
+    private static final OperationStats ADD_TO_ORDER = stats("addToOrder");
+    private static final OperationStats SAVE_ORDER = stats("saveOrder");
+    private static final OperationStats DELETE_ORDER = stats("deleteOrder");
+    private static final OperationStats LOAD_ORDER = stats("loadOrder");
+    private static final OperationStats LOAD_ORDERS = stats("loadOrders");
+    private static final OperationStats LOAD_MORE_ORDERS = stats("loadMoreOrders");
+    private static final OperationStats SAVE_MENU_ITEM = stats("saveMenuItem");
+    private static final OperationStats DELETE_MENU_ITEM = stats("deleteMenuItem");
+    private static final OperationStats LOAD_MENU = stats("loadMenu");
+    private static final OperationStats LOAD_POPULARITY = stats("loadPopularity");
+    private static final OperationStats START_DATABASE = stats("startDatabase");
+
+    /** Days of sales that rank menu search results */
+    private static final int POPULARITY_DAYS = 28;
+
+    private static OperationStats stats(String action) {
+        return Metrics.global().stats("gui." + action);
+    }
+
     public DonutShopGUI(DBHelper db) {
-        this.db = db;
+        this(CompletableFuture.completedFuture(db));
+    }
+
+    /**
+     * Build the window without waiting for the database: it is filled once
+     * starting completes, the menu first so orders can be taken, then the
+     * newest orders and the sales figures.
+     */
+    public DonutShopGUI(CompletableFuture<DBHelper> starting) {
+        this.db = new AsyncDBHelper(starting);
         setTitle("Oak Donuts - OD");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1000, 600);
         setLocationRelativeTo(null);
 
         initComponents();
-        loadMenuItems();
-        loadOrders();
+        runInBackground(START_DATABASE, "Starting database...", starting, started -> {
+            // listen before loading, so no change falls between a load and its events
+            started.addChangeListener(new ModelUpdater());
+            loadMenuItems();
+        });
+    }
+
+    /**
+     * Applies committed writes (from this window or any other client of the
+     * DBHelper) to the menu and orders models, one row at a time.
+     */
+    private class ModelUpdater implements DataChangeListener {
+        @Override
+        public void menuItemSaved(MenuItem item) {
+            SwingUtilities.invokeLater(() -> menuModel.put(item));
+        }
+
+        @Override
+        public void menuItemDeleted(int itemId) {
+            SwingUtilities.invokeLater(() -> menuModel.remove(itemId));
+        }
+
+        @Override
+        public void orderSaved(Order order) {
+            OrdersTableModel.Row row = new OrdersTableModel.Row(order); // copied before the order changes again
+            SwingUtilities.invokeLater(() -> ordersModel.orderSaved(row));
+        }
+
+        @Override
+        public void orderDeleted(int orderId) {
+            SwingUtilities.invokeLater(() -> ordersModel.orderDeleted(orderId));
+        }
     }
 
     /** Initialize GUI components and layout */
@@ -55,7 +125,7 @@ public class DonutShopGUI extends JFrame {
         JPanel left = new JPanel(new BorderLayout(5,5));
         left.setPreferredSize(new Dimension(300, 0));
         left.setBorder(BorderFactory.createTitledBorder("Menu Items"));
-        menuList = new JList<>(menuListModel);
+        menuList = new JList<>(menuModel);
         menuList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         left.add(new JScrollPane(menuList), BorderLayout.CENTER);
 
@@ -79,7 +149,8 @@ public class DonutShopGUI extends JFrame {
             if (sel != null) {
                 int ok = JOptionPane.showConfirmDialog(this, "Delete " + sel.getName() + "?", "Confirm", JOptionPane.YES_NO_OPTION);
                 if (ok == JOptionPane.YES_OPTION) {
-                    try { db.deleteMenuItem(sel.getItemId()); loadMenuItems(); } catch (SQLException ex) { showError(ex); }
+                    runInBackground(DELETE_MENU_ITEM, "Deleting " + sel.getName() + "...",
+                        db.deleteMenuItem(sel.getItemId()), v -> {}, delMenuBtn);
                 }
             }
         });
@@ -90,9 +161,13 @@ public class DonutShopGUI extends JFrame {
 
         // top: add item to current order
         JPanel addItemPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JComboBox<MenuItem> cbMenu = new JComboBox<>();
+        JTextField searchField = new JTextField(12);
+        searchField.setToolTipText("Name or description; Enter adds the selected item");
+        JComboBox<MenuItem> cbMenu = new JComboBox<>(menuModel);
         JTextField qtyField = new JTextField("1", 3);
         JButton addToOrderBtn = new JButton("Add to Order");
+        addItemPanel.add(new JLabel("Find:"));
+        addItemPanel.add(searchField);
         addItemPanel.add(new JLabel("Item:"));
         addItemPanel.add(cbMenu);
         addItemPanel.add(new JLabel("Qty:"));
@@ -123,28 +198,35 @@ public class DonutShopGUI extends JFrame {
         JPanel right = new JPanel(new BorderLayout(5,5));
         right.setPreferredSize(new Dimension(350,0));
         right.setBorder(BorderFactory.createTitledBorder("Saved Orders"));
-        ordersModel = new DefaultTableModel(new Object[]{"OrderId","Transaction","Date","Total"},0) {
-            public boolean isCellEditable(int r,int c){return false;}
-        };
         ordersTable = new JTable(ordersModel);
         right.add(new JScrollPane(ordersTable), BorderLayout.CENTER);
+        JPanel ordersButtons = new JPanel(new GridLayout(1,2,5,5));
         JButton loadOrderBtn = new JButton("Load Selected");
-        right.add(loadOrderBtn, BorderLayout.SOUTH);
+        JButton moreOrdersBtn = new JButton("More");
+        ordersButtons.add(loadOrderBtn);
+        ordersButtons.add(moreOrdersBtn);
+        right.add(ordersButtons, BorderLayout.SOUTH);
 
         // Layout add
         root.add(left, BorderLayout.WEST);
         root.add(center, BorderLayout.CENTER);
         root.add(right, BorderLayout.EAST);
+        root.add(statusLabel, BorderLayout.SOUTH);
 
         // behavior wiring
-        // Fill combo box from menu list
-        menuListModel.addListDataListener(new javax.swing.event.ListDataListener() {
-            public void intervalAdded(javax.swing.event.ListDataEvent e) { syncCombo(); }
-            public void intervalRemoved(javax.swing.event.ListDataEvent e) { syncCombo(); }
-            public void contentsChanged(javax.swing.event.ListDataEvent e) { syncCombo(); }
+        // filter the menu (list and combo box) on every keystroke
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { menuModel.setQuery(searchField.getText()); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { menuModel.setQuery(searchField.getText()); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { }
+        });
+        searchField.addActionListener(e -> {
+            addToOrderBtn.doClick();
+            searchField.selectAll(); // typing the next item replaces the query
         });
 
         addToOrderBtn.addActionListener(e -> {
+            long start = System.nanoTime();
             MenuItem mi = (MenuItem) cbMenu.getSelectedItem();
             if (mi == null) { JOptionPane.showMessageDialog(this, "No item selected."); return; }
             int qty;
@@ -153,12 +235,14 @@ public class DonutShopGUI extends JFrame {
             OrderItem oi = new OrderItem(mi, qty);
             if (currentOrder == null) currentOrder = new Order();
             currentOrder.addItem(oi);
-            refreshCurrentOrderTable(totalLabel);
+            orderTableModel.addRow(new Object[]{ oi.getMenuItem().getName(), oi.getQuantity(), oi.getLinePrice() });
+            totalLabel.setText("Total: $" + currentOrder.getTotal());
+            ADD_TO_ORDER.record(System.nanoTime() - start, true);
         });
 
         newOrderBtn.addActionListener(e -> {
             currentOrder = new Order();
-            currentOrder.setTransactionId("TEMP");
+            currentOrder.setTransactionId(UNSAVED_TRANSACTION_ID);
             currentOrder.setOrderDate(DateUtils.now());
             orderTableModel.setRowCount(0);
             totalLabel.setText("Total: $0.00");
@@ -169,55 +253,62 @@ public class DonutShopGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "No items in order.");
                 return;
             }
-            try {
+            Order order = currentOrder;
+            // not the order id: a journaled order has none until it reaches Derby
+            boolean isNew = order.getTransactionId() == null || order.getTransactionId().equals(UNSAVED_TRANSACTION_ID);
+            // the order must not change while it is written: lock the buttons that edit it
+            runInBackground(SAVE_ORDER, "Saving order...", db.submit(() -> {
                 // if first time saving, generate transaction id
-                if (currentOrder.getOrderId() == 0) {
-                    currentOrder.setOrderDate(DateUtils.now());
-                    currentOrder.setTransactionId(db.generateNextTransactionId());
+                if (isNew) {
+                    order.setOrderDate(DateUtils.now());
+                    order.setTransactionId(db.sync().generateNextTransactionId());
                 }
-                currentOrder.recalcTotal();
-                db.saveOrder(currentOrder);
-                JOptionPane.showMessageDialog(this, "Order saved: " + currentOrder.getTransactionId());
-                loadOrders();
-            } catch (SQLException ex) { showError(ex); }
+                db.sync().saveOrder(order);
+                return order;
+            }), saved -> {
+                // new sales count towards search ranking right away
+                if (isNew) {
+                    for (OrderItem oi : saved.getItems()) menuModel.addPopularity(oi.getMenuItem().getItemId(), oi.getQuantity());
+                }
+                if (isNew) StartupTimer.phase("firstOrderSaved");
+                JOptionPane.showMessageDialog(this, "Order saved: " + saved.getTransactionId());
+            }, saveOrderBtn, addToOrderBtn);
         });
 
         delOrderBtn.addActionListener(e -> {
             int sel = ordersTable.getSelectedRow();
             if (sel >= 0) {
-                int orderId = (int) ordersModel.getValueAt(sel, 0);
+                int orderId = ordersModel.orderIdAt(sel);
                 int ok = JOptionPane.showConfirmDialog(this, "Delete order id " + orderId + "?", "Confirm", JOptionPane.YES_NO_OPTION);
                 if (ok == JOptionPane.YES_OPTION) {
-                    try { db.deleteOrder(orderId); loadOrders(); } catch (SQLException ex) { showError(ex); }
+                    runInBackground(DELETE_ORDER, "Deleting order " + orderId + "...", db.deleteOrder(orderId),
+                        v -> {}, delOrderBtn);
                 }
             } else JOptionPane.showMessageDialog(this, "Select an order to delete.");
         });
 
+        moreOrdersBtn.addActionListener(e -> loadMoreOrders(moreOrdersBtn));
+
         loadOrderBtn.addActionListener(e -> {
             int sel = ordersTable.getSelectedRow();
             if (sel >= 0) {
-                int orderId = (int) ordersModel.getValueAt(sel, 0);
-                try {
-                    Order o = new Order();
-                    List<OrderItem> items = db.getOrderItems(orderId);
-                    o.setOrderId(orderId);
-                    o.setTransactionId((String) ordersModel.getValueAt(sel, 1));
-                    o.setOrderDate(new java.sql.Timestamp(System.currentTimeMillis())); // date in table already
-                    for (OrderItem oi : items) o.addItem(oi);
+                int orderId = ordersModel.orderIdAt(sel);
+                runInBackground(LOAD_ORDER, "Loading order " + orderId + "...", db.getOrder(orderId), o -> {
+                    if (o == null) {
+                        JOptionPane.showMessageDialog(this, "Order " + orderId + " no longer exists.");
+                        return;
+                    }
                     currentOrder = o;
                     refreshCurrentOrderTable(totalLabel);
-                } catch (SQLException ex) { showError(ex); }
+                }, loadOrderBtn);
             } else JOptionPane.showMessageDialog(this, "Select an order to load.");
         });
-
-        // helper to sync combo box
-        syncCombo();
     }
 
     /** Show dialog to add or edit a menu item */
     private void showMenuItemDialog(MenuItem existing) {
         JTextField nameF = new JTextField(existing != null ? existing.getName() : "");
-        JTextField priceF = new JTextField(existing != null ? String.valueOf(existing.getPrice()) : "0.00");
+        JTextField priceF = new JTextField(existing != null ? existing.getPrice().toString() : "0.00");
         JTextField descF = new JTextField(existing != null ? existing.getDescription() : "");
         Object[] fields = {
             "Name:", nameF,
@@ -226,63 +317,96 @@ public class DonutShopGUI extends JFrame {
         };
         int ok = JOptionPane.showConfirmDialog(this, fields, (existing==null?"Add Menu Item":"Edit Menu Item"), JOptionPane.OK_CANCEL_OPTION);
         if (ok == JOptionPane.OK_OPTION) {
-            try {
-                double price = Double.parseDouble(priceF.getText());
-                if (existing == null) {
-                    MenuItem m = new MenuItem(0, nameF.getText(), price, descF.getText());
-                    db.insertMenuItem(m);
-                } else {
-                    existing.setName(nameF.getText());
-                    existing.setPrice(price);
-                    existing.setDescription(descF.getText());
-                    db.updateMenuItem(existing);
-                }
-                loadMenuItems();
-            } catch (NumberFormatException ex) { JOptionPane.showMessageDialog(this, "Enter a valid price."); }
-            catch (SQLException ex) { showError(ex); }
+            Money price;
+            try { price = Money.parse(priceF.getText()); }
+            catch (NumberFormatException ex) { JOptionPane.showMessageDialog(this, "Enter a valid price."); return; }
+            CompletableFuture<Void> write;
+            if (existing == null) {
+                MenuItem m = new MenuItem(0, nameF.getText(), price, descF.getText());
+                write = db.insertMenuItem(m);
+            } else {
+                // menu items from DBHelper are shared with its cache: edit a copy
+                MenuItem m = new MenuItem(existing.getItemId(), nameF.getText(), price, descF.getText());
+                write = db.updateMenuItem(m);
+            }
+            runInBackground(SAVE_MENU_ITEM, "Saving menu item...", write, v -> {});
         }
     }
 
-    /** Refresh the combo box for adding items from the menu */
-    private void syncCombo() {
-        Component[] comps = getContentPane().getComponents();
-        // update combo boxes by searching for JComboBox (simple approach)
-        JComboBox<MenuItem> cb = findCombo(this);
-        if (cb != null) {
-            cb.removeAllItems();
-            for (int i = 0; i < menuListModel.size(); i++) cb.addItem(menuListModel.getElementAt(i));
-        }
+    /**
+     * Load menu items from DB into the menu model (later changes arrive as
+     * events), then the rest of the startup data
+     */
+    private void loadMenuItems() {
+        runInBackground(LOAD_MENU, "Loading menu...", db.getAllMenuItems(), menu -> {
+            menuModel.setAll(menu);
+            StartupTimer.phase("menuLoaded");
+            loadOrders();
+            loadPopularity();
+        });
     }
 
-    private JComboBox<MenuItem> findCombo(Component c) {
-        if (c instanceof JComboBox) return (JComboBox<MenuItem>) c;
-        if (c instanceof Container) {
-            for (Component ch : ((Container)c).getComponents()) {
-                JComboBox<MenuItem> r = findCombo(ch);
-                if (r != null) return r;
-            }
-        }
-        return null;
+    /** Units sold per item over the last POPULARITY_DAYS, to rank menu search results */
+    private void loadPopularity() {
+        java.time.LocalDate today = java.time.LocalDate.now();
+        runInBackground(LOAD_POPULARITY, "Loading sales figures...", db.submit(() ->
+            new SalesReports(db.sync()).topItems(today.minusDays(POPULARITY_DAYS), today.plusDays(1), Integer.MAX_VALUE)),
+            menuModel::setPopularity);
     }
 
-    /** Load menu items from DB into list model */
-    private void loadMenuItems() {
-        menuListModel.removeAllElements();
-        try {
-            List<MenuItem> items = db.getAllMenuItems();
-            for (MenuItem m : items) menuListModel.addElement(m);
-        } catch (SQLException ex) { showError(ex); }
+    /** Load the newest page of saved orders into orders table (later changes arrive as events) */
+    private void loadOrders() {
+        runInBackground(LOAD_ORDERS, "Loading orders...", db.getOrdersPage(null, ORDERS_PAGE_SIZE), orders -> {
+            ordersModel.setNewestPage(orders);
+            StartupTimer.phase("ordersLoaded");
+            warmUp();
+        });
     }
 
-    /** Load saved orders into orders table */
-    private void loadOrders() {
-        ordersModel.setRowCount(0);
-        try {
-            List<Order> orders = db.getAllOrders();
-            for (Order o : orders) {
-                ordersModel.addRow(new Object[]{ o.getOrderId(), o.getTransactionId(), o.getOrderDate(), o.getTotal() });
+    /** Get the first save ready while the cashier is still picking items (see DBHelper.warmUp) */
+    private void warmUp() {
+        db.submit(() -> { db.sync().warmUp(); return null; }).whenComplete((v, err) -> {
+            // not worth a dialog: the first save just takes longer
+            if (err != null) System.err.println("Warm-up failed: " + AsyncDBHelper.rootCause(err));
+            else StartupTimer.phase("warmedUp");
+        });
+    }
+
+    /** Append the next (older) page of saved orders */
+    private void loadMoreOrders(JButton trigger) {
+        runInBackground(LOAD_MORE_ORDERS, "Loading more orders...",
+                        db.getOrdersPage(ordersModel.oldest(), ORDERS_PAGE_SIZE), orders -> {
+            ordersModel.appendOlderPage(orders);
+            if (orders.isEmpty()) statusLabel.setText("No older orders");
+        }, trigger);
+    }
+
+    /**
+     * Track a background DB task: show it as pending in the status bar and
+     * disable the given controls until it finishes, then hand the result to
+     * onSuccess on the EDT or report the failure. The time until then is
+     * recorded under the action's stats (onSuccess itself is not included,
+     * as it may open a dialog).
+     */
+    private <T> void runInBackground(OperationStats action, String pendingText, CompletableFuture<T> task,
+                                     Consumer<T> onSuccess, JComponent... busy) {
+        long start = System.nanoTime();
+        pendingTasks++;
+        statusLabel.setText(pendingText);
+        for (JComponent c : busy) c.setEnabled(false);
+        task.whenCompleteAsync((result, err) -> {
+            action.record(System.nanoTime() - start, err == null);
+            pendingTasks--;
+            for (JComponent c : busy) c.setEnabled(true);
+            if (err != null) {
+                Throwable cause = AsyncDBHelper.rootCause(err);
+                statusLabel.setText("Failed: " + cause.getMessage());
+                showError(cause);
+                return;
             }
-        } catch (SQLException ex) { showError(ex); }
+            if (pendingTasks == 0) statusLabel.setText("Ready");
+            onSuccess.accept(result);
+        }, AsyncDBHelper.EDT);
     }
 
     /** Refresh current order table UI */
@@ -292,14 +416,13 @@ public class DonutShopGUI extends JFrame {
             totalLabel.setText("Total: $0.00");
             return;
         }
-        currentOrder.recalcTotal();
         for (OrderItem oi : currentOrder.getItems()) {
-            orderTableModel.addRow(new Object[]{ oi.getMenuItem().getName(), oi.getQuantity(), String.format("%.2f", oi.getLinePrice()) });
+            orderTableModel.addRow(new Object[]{ oi.getMenuItem().getName(), oi.getQuantity(), oi.getLinePrice() });
         }
-        totalLabel.setText(String.format("Total: $%.2f", currentOrder.getTotal()));
+        totalLabel.setText("Total: $" + currentOrder.getTotal());
     }
 
-    private void showError(Exception ex) {
+    private void showError(Throwable ex) {
         ex.printStackTrace();
         JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
     }